@@ -0,0 +1,89 @@
+package scheduling;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executor that starts one virtual thread per task instead of feeding a fixed pool of TiredThreads.
+ * Compute is bounded by a semaphore with one permit per core (at most numThreads): a task holds a permit
+ * while it runs, so no more tasks compute at once than there are cores, while any number of them can wait.
+ * A virtual thread that blocks without a permit (a mapped page fault, a cache file, an output stream)
+ * costs no carrier thread, which is what lets future I/O stages interleave cheaply with compute.
+ * Only compiled on JDK 21+ (the loom profile), ExecutorMode.VIRTUAL loads it by name.
+ */
+public class VirtualThreadExecutor implements TaskExecutor {
+
+    private final ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor();
+    private final Semaphore computePermits;
+    private final int permits;
+
+    private final AtomicLong tasksRun = new AtomicLong(0);
+    private final AtomicLong timeUsed = new AtomicLong(0); // nanoseconds spent computing, over all tasks
+    private final AtomicLong timeWaiting = new AtomicLong(0); // nanoseconds spent waiting for a permit
+    private final AtomicInteger computing = new AtomicInteger(0);
+    private final AtomicInteger peakComputing = new AtomicInteger(0);
+
+    public VirtualThreadExecutor(int numThreads) {
+        permits = Math.max(1, Math.min(numThreads, Runtime.getRuntime().availableProcessors()));
+        computePermits = new Semaphore(permits);
+    }
+
+    //Runs a task of a batch under a compute permit, with the accounting of the report
+    private void compute(Runnable task, BatchCompletion completion) {
+        long waitStart = System.nanoTime();
+        computePermits.acquireUninterruptibly();
+        long start = System.nanoTime();
+        timeWaiting.addAndGet(start - waitStart);
+        peakComputing.accumulateAndGet(computing.incrementAndGet(), Math::max);
+        try {
+            completion.run(task);
+        } finally {
+            computing.decrementAndGet();
+            computePermits.release();
+            timeUsed.addAndGet(System.nanoTime() - start);
+            tasksRun.incrementAndGet();
+        }
+        if (completion.done(1)) {
+            completion.complete();
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> submit(Runnable task) {
+        return submitAllAsync(List.of(task));
+    }
+
+    @Override
+    public CompletableFuture<Void> submitAllAsync(Iterable<Runnable> tasks) {
+        List<Runnable> batch = new ArrayList<>();
+        for (Runnable task : tasks) {
+            batch.add(task);
+        }
+        BatchCompletion completion = new BatchCompletion(batch.size());
+        for (Runnable task : batch) {
+            threads.execute(() -> compute(task, completion));
+        }
+        return completion.future;
+    }
+
+    @Override
+    public void shutdown() throws InterruptedException {
+        threads.shutdown();
+        threads.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String getWorkerReport() {
+        return "virtual threads: " + tasksRun.get() + " tasks on " + permits + " compute permits,"
+                + " computed for " + timeUsed.get() + " nanoseconds,"
+                + " waited for a permit " + timeWaiting.get() + " nanoseconds,"
+                + " at most " + peakComputing.get() + " computing at once" + '\n';
+    }
+}
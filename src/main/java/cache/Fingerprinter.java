@@ -0,0 +1,76 @@
+package cache;
+
+import parser.ComputationNode;
+import parser.ComputationNodeType;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Content fingerprints of the nodes of one computation, for the result cache.
+ * A leaf is fingerprinted by its shape and its values in row-major order, whatever form it is stored in
+ * (dense, sparse, memory-mapped), an operator by its type and the fingerprints of its operands.
+ * SHA-256 keeps collisions out of the picture. Fingerprints are memoized per node, and since the engine resolves
+ * nodes in place, a computed node keeps the fingerprint of the operator it was.
+ */
+public class Fingerprinter {
+
+    private final Map<ComputationNode, String> fingerprints = new IdentityHashMap<>();
+
+    public String fingerprint(ComputationNode node) {
+        String known = fingerprints.get(node);
+        if (known != null) {
+            return known;
+        }
+        MessageDigest digest = newDigest();
+        if (node.getNodeType() == ComputationNodeType.MATRIX) {
+            hashLeaf(node, digest);
+        } else {
+            digest.update((byte) node.getNodeType().ordinal());
+            for (ComputationNode child : node.getChildren()) {
+                digest.update(fingerprint(child).getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+        String fingerprint = toHex(digest.digest());
+        fingerprints.put(node, fingerprint);
+        return fingerprint;
+    }
+
+    private static void hashLeaf(ComputationNode leaf, MessageDigest digest) {
+        int rows = leaf.rows();
+        int cols = leaf.cols();
+        digest.update((byte) ComputationNodeType.MATRIX.ordinal());
+        ByteBuffer bytes = ByteBuffer.allocate(Math.max(8, 8 * cols)).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.putInt(rows).putInt(cols);
+        digest.update(bytes.array(), 0, 8);
+        double[] row = new double[cols];
+        for (int i = 0; i < rows; i++) {
+            leaf.readRow(i, row);
+            bytes.clear();
+            bytes.asDoubleBuffer().put(row);
+            digest.update(bytes.array(), 0, 8 * cols);
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            //every Java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] hash) {
+        StringBuilder hex = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
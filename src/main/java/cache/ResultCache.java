@@ -0,0 +1,232 @@
+package cache;
+
+import memory.MappedMatrix;
+import parser.ComputationNode;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Persistent content-addressed cache of computed matrices, opt-in.
+ * Results are stored under the fingerprint of the subtree that produced them (see Fingerprinter), one file per
+ * entry, so a later run that contains the same subtree loads the result instead of computing it.
+ * Entry format: the magic "LAEC", a format version byte, rows and cols as little-endian ints, 3 zero bytes so
+ * the data is 8-byte aligned, then rows * cols little-endian doubles in row-major order. Hits are memory-mapped, not read.
+ * The total size of the entries is bounded: the least recently used entries are deleted first. Recency survives
+ * restarts through the files' modification times, which are touched on every hit.
+ */
+public class ResultCache {
+
+    private static final byte[] MAGIC = {'L', 'A', 'E', 'C'};
+    private static final byte VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final String SUFFIX = ".laec";
+
+    private final Path directory;
+    private final long maxBytes;
+    //fingerprint -> entry size, in least recently used first order
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long bytesSaved = 0;
+    private long stored = 0;
+    private long evicted = 0;
+
+    public ResultCache(Path directory, long maxBytes) throws IOException {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("The cache size must be positive");
+        }
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+        //the existing entries, oldest first
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Path> existing = files.filter(file -> file.getFileName().toString().endsWith(SUFFIX))
+                    .sorted(Comparator.comparing(ResultCache::lastModified))
+                    .collect(Collectors.toList());
+            for (Path file : existing) {
+                String name = file.getFileName().toString();
+                long size = Files.size(file);
+                entries.put(name.substring(0, name.length() - SUFFIX.length()), size);
+                totalBytes += size;
+            }
+        }
+        evict();
+    }
+
+    /**
+     * Returns the cached result of the subtree with this fingerprint, or null on a miss.
+     */
+    public synchronized MappedMatrix lookup(String fingerprint) {
+        Long size = entries.get(fingerprint);
+        if (size == null) {
+            misses++;
+            return null;
+        }
+        Path file = entryFile(fingerprint);
+        try {
+            MappedMatrix matrix = readEntry(file);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            hits++;
+            bytesSaved += size - HEADER_BYTES;
+            return matrix;
+        } catch (IOException | IllegalArgumentException e) {
+            //a damaged or vanished entry is a miss, and is dropped
+            remove(fingerprint);
+            misses++;
+            return null;
+        }
+    }
+
+    /**
+     * Stores a resolved node under the fingerprint of the subtree it was computed from.
+     * A failure to write only means the entry is not cached.
+     */
+    public synchronized void store(String fingerprint, ComputationNode result) {
+        if (entries.containsKey(fingerprint)) {
+            return;
+        }
+        int rows = result.rows();
+        int cols = result.cols();
+        long size = HEADER_BYTES + 8L * rows * cols;
+        if (rows == 0 || cols == 0 || size > maxBytes) {
+            return;
+        }
+        Path file = entryFile(fingerprint);
+        Path temporary = directory.resolve(fingerprint + ".tmp");
+        try {
+            writeEntry(temporary, result, rows, cols);
+            //entries appear complete or not at all, even if several runs share the directory
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            entries.put(fingerprint, size);
+            totalBytes += size;
+            stored++;
+            evict();
+        } catch (IOException e) {
+            try {
+                Files.deleteIfExists(temporary);
+            } catch (IOException ignored) {
+                //nothing more to do
+            }
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            eldest.remove();
+            totalBytes -= entry.getValue();
+            evicted++;
+            try {
+                Files.deleteIfExists(entryFile(entry.getKey()));
+            } catch (IOException e) {
+                //the entry is forgotten either way
+            }
+        }
+    }
+
+    private void remove(String fingerprint) {
+        Long size = entries.remove(fingerprint);
+        if (size != null) {
+            totalBytes -= size;
+        }
+        try {
+            Files.deleteIfExists(entryFile(fingerprint));
+        } catch (IOException e) {
+            //the entry is forgotten either way
+        }
+    }
+
+    private Path entryFile(String fingerprint) {
+        return directory.resolve(fingerprint + SUFFIX);
+    }
+
+    private static void writeEntry(Path file, ComputationNode result, int rows, int cols) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Math.max(1 << 16, 8 * cols)).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(MAGIC).put(VERSION).putInt(rows).putInt(cols).put(new byte[3]);
+        double[] row = new double[cols];
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int i = 0; i < rows; i++) {
+                result.readRow(i, row);
+                if (buffer.remaining() < 8 * cols) {
+                    flush(channel, buffer);
+                }
+                buffer.asDoubleBuffer().put(row);
+                buffer.position(buffer.position() + 8 * cols);
+            }
+            flush(channel, buffer);
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static MappedMatrix readEntry(Path file) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    throw new IllegalArgumentException("truncated cache entry");
+                }
+            }
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (header.get(i) != MAGIC[i]) {
+                throw new IllegalArgumentException("not a cache entry");
+            }
+        }
+        if (header.get(4) != VERSION) {
+            throw new IllegalArgumentException("unknown cache entry version");
+        }
+        return MappedMatrix.mapRaw(file, HEADER_BYTES, header.getInt(5), header.getInt(9));
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getBytesSaved() {
+        return bytesSaved;
+    }
+
+    public synchronized String getReport() {
+        return "result cache: " + hits + " hits, " + misses + " misses, " + bytesSaved + " bytes of results loaded instead of computed, "
+                + stored + " stored, " + evicted + " evicted, " + entries.size() + " entries (" + totalBytes + " of "
+                + maxBytes + " bytes)" + '\n';
+    }
+}
@@ -0,0 +1,133 @@
+package memory;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size-bucketed pool of double[] buffers for intermediate matrices.
+ * Buffers are rounded up to a power of two, so a buffer released by one step of the engine
+ * can be borrowed again by the next step even if the shapes differ a little.
+ * The engine creates one pool per run and drops it at the end, so nothing outlives a run.
+ * Counters keep track of how many buffers (and bytes) were freshly allocated and how many were reused.
+ */
+public class BufferPool {
+
+    private static final int BUCKETS = 31; // bucket b holds buffers of length 2^b
+    private static final int MAX_BUFFERS_PER_BUCKET = 8; // more released buffers are left to the GC
+
+    private final ConcurrentLinkedDeque<double[]>[] buckets;
+    private final AtomicInteger[] bucketSizes;
+
+    private final AtomicLong borrowed = new AtomicLong(0);
+    private final AtomicLong reused = new AtomicLong(0);
+    private final AtomicLong allocated = new AtomicLong(0);
+    private final AtomicLong allocatedBytes = new AtomicLong(0);
+    private final AtomicLong reusedBytes = new AtomicLong(0);
+    private final AtomicLong released = new AtomicLong(0);
+
+    public BufferPool() {
+        //no generic array creation in Java, the cast is safe since the array only ever holds deques of double[]
+        @SuppressWarnings("unchecked")
+        ConcurrentLinkedDeque<double[]>[] created = (ConcurrentLinkedDeque<double[]>[]) new ConcurrentLinkedDeque<?>[BUCKETS];
+        buckets = created;
+        bucketSizes = new AtomicInteger[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new ConcurrentLinkedDeque<>();
+            bucketSizes[i] = new AtomicInteger(0);
+        }
+    }
+
+    /**
+     * Borrows a buffer of at least minLength elements. The contents are undefined.
+     */
+    public double[] borrow(int minLength) {
+        if (minLength < 0) {
+            throw new IllegalArgumentException("Buffer length can't be negative");
+        }
+        borrowed.incrementAndGet();
+        int bucket = bucketOf(minLength);
+        if (bucket >= BUCKETS) {
+            //too big to be pooled
+            allocated.incrementAndGet();
+            allocatedBytes.addAndGet(8L * minLength);
+            return new double[minLength];
+        }
+        double[] buffer = buckets[bucket].pollFirst();
+        if (buffer != null) {
+            bucketSizes[bucket].decrementAndGet();
+            reused.incrementAndGet();
+            reusedBytes.addAndGet(8L * buffer.length);
+            return buffer;
+        }
+        allocated.incrementAndGet();
+        allocatedBytes.addAndGet(8L << bucket);
+        return new double[1 << bucket];
+    }
+
+    /**
+     * Borrows a buffer of at least minLength elements, with the first minLength elements set to zero.
+     */
+    public double[] borrowZeroed(int minLength) {
+        double[] buffer = borrow(minLength);
+        Arrays.fill(buffer, 0, minLength, 0.0);
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool. The caller must not use the buffer afterwards.
+     */
+    public void release(double[] buffer) {
+        int bucket = bucketOf(buffer.length);
+        //only buffers that were handed out by the pool have an exact power of two length
+        if (bucket >= BUCKETS || buffer.length != (1 << bucket)) {
+            return;
+        }
+        released.incrementAndGet();
+        if (bucketSizes[bucket].incrementAndGet() > MAX_BUFFERS_PER_BUCKET) {
+            bucketSizes[bucket].decrementAndGet();
+            return;
+        }
+        buckets[bucket].offerFirst(buffer);
+    }
+
+    //Drops all pooled buffers
+    public void clear() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i].clear();
+            bucketSizes[i].set(0);
+        }
+    }
+
+    public long getAllocated() {
+        return allocated.get();
+    }
+
+    public long getReused() {
+        return reused.get();
+    }
+
+    public long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    public long getReusedBytes() {
+        return reusedBytes.get();
+    }
+
+    public String getReport() {
+        return "buffer pool: " + borrowed.get() + " buffers borrowed, "
+                + allocated.get() + " freshly allocated (" + allocatedBytes.get() + " bytes), "
+                + reused.get() + " reused (" + reusedBytes.get() + " bytes), "
+                + released.get() + " released" + '\n';
+    }
+
+    //Smallest b with 2^b >= length
+    private static int bucketOf(int length) {
+        if (length <= 1) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(length - 1);
+    }
+}
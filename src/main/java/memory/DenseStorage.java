@@ -0,0 +1,161 @@
+package memory;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Contiguous backing store of a SharedMatrix.
+ * All vectors of the matrix live in one double[]: vector i occupies
+ * data[i * vectorLength, (i + 1) * vectorLength). A row-major storage keeps rows contiguous,
+ * a column-major storage keeps columns contiguous.
+ * Instead of one lock per vector the storage holds a small array of lock stripes,
+ * and vector views are created lazily only for the vectors somebody actually asks for.
+ */
+final class DenseStorage {
+
+    static final int LOCK_STRIPES = 64; // upper bound on the number of locks per matrix
+
+    static final DenseStorage EMPTY = new DenseStorage(new double[0], 0, 0, VectorOrientation.ROW_MAJOR);
+
+    final double[] data;
+    final int numVectors;
+    final int vectorLength;
+    final VectorOrientation orientation;
+    //The pool data was borrowed from, or null. Only the storage that borrowed the buffer holds the pool,
+    //storages that share the buffer (like transposed views) don't, so they can never give it back.
+    final BufferPool pool;
+
+    private final StampedLock[] locks;
+    private final AtomicReferenceArray<SharedVector> views;
+
+    DenseStorage(double[] data, int numVectors, int vectorLength, VectorOrientation orientation) {
+        this(data, numVectors, vectorLength, orientation, null);
+    }
+
+    DenseStorage(double[] data, int numVectors, int vectorLength, VectorOrientation orientation, BufferPool pool) {
+        if (data.length < numVectors * vectorLength) {
+            throw new IllegalArgumentException("Backing array is too small for the requested shape");
+        }
+        this.data = data;
+        this.numVectors = numVectors;
+        this.vectorLength = vectorLength;
+        this.orientation = orientation;
+        this.pool = pool;
+        this.locks = new StampedLock[Math.min(numVectors, LOCK_STRIPES)];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new StampedLock();
+        }
+        this.views = new AtomicReferenceArray<>(numVectors);
+    }
+
+    private DenseStorage(DenseStorage source, VectorOrientation orientation) {
+        this.data = source.data;
+        this.numVectors = source.numVectors;
+        this.vectorLength = source.vectorLength;
+        this.orientation = orientation;
+        this.pool = null;
+        this.locks = source.locks;
+        this.views = new AtomicReferenceArray<>(numVectors);
+    }
+
+    /**
+     * Returns the transpose of this storage in O(1).
+     * The vectors of a row-major matrix are exactly the columns of its transpose, so the transposed
+     * storage shares the data array and the locks and only flips the orientation.
+     */
+    DenseStorage transposed() {
+        VectorOrientation flipped = orientation == VectorOrientation.ROW_MAJOR
+                ? VectorOrientation.COLUMN_MAJOR : VectorOrientation.ROW_MAJOR;
+        return new DenseStorage(this, flipped);
+    }
+
+    //Returns a storage over the same data and locks that doesn't own the buffer, for matrices that share it
+    DenseStorage shared() {
+        return new DenseStorage(this, orientation);
+    }
+
+    /**
+     * Returns a copy of this storage with the opposite layout and the same logical matrix,
+     * e.g. the column-major copy of a row-major matrix.
+     */
+    DenseStorage relayout(BufferPool target) {
+        double[] copy = allocate(numVectors * vectorLength, target);
+        for (int i = 0; i < numVectors; i++) {
+            int vectorOffset = i * vectorLength;
+            for (int j = 0; j < vectorLength; j++) {
+                copy[j * numVectors + i] = data[vectorOffset + j];
+            }
+        }
+        VectorOrientation flipped = orientation == VectorOrientation.ROW_MAJOR
+                ? VectorOrientation.COLUMN_MAJOR : VectorOrientation.ROW_MAJOR;
+        return new DenseStorage(copy, vectorLength, numVectors, flipped, target);
+    }
+
+    //A buffer from the pool if there is one, otherwise a new array
+    static double[] allocate(int length, BufferPool pool) {
+        return pool != null ? pool.borrow(length) : new double[length];
+    }
+
+    //Gives the buffer back to the pool it was borrowed from, if this storage borrowed it
+    void release() {
+        if (pool != null) {
+            pool.release(data);
+        }
+    }
+
+    int rows() {
+        return orientation == VectorOrientation.ROW_MAJOR ? numVectors : vectorLength;
+    }
+
+    int cols() {
+        return orientation == VectorOrientation.ROW_MAJOR ? vectorLength : numVectors;
+    }
+
+    int offset(int index) {
+        return index * vectorLength;
+    }
+
+    StampedLock lockFor(int index) {
+        return locks[index % locks.length];
+    }
+
+    //Returns the view of vector index, creating it on first use. All callers get the same view object.
+    SharedVector view(int index) {
+        SharedVector view = views.get(index);
+        if (view == null) {
+            SharedVector created = new SharedVector(data, offset(index), vectorLength, orientation, lockFor(index));
+            if (views.compareAndSet(index, null, created)) {
+                view = created;
+            } else {
+                view = views.get(index);
+            }
+        }
+        return view;
+    }
+
+    void readLockAll() {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i].asReadLock().lock();
+        }
+    }
+
+    void readUnlockAll() {
+        //Lifo strategy - releasing in the opposite order than readLockAll
+        for (int i = locks.length - 1; i >= 0; i--) {
+            locks[i].asReadLock().unlock();
+        }
+    }
+
+    void writeLockAll() {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i].asWriteLock().lock();
+        }
+    }
+
+    void writeUnlockAll() {
+        //Lifo strategy - releasing in the opposite order than writeLockAll
+        for (int i = locks.length - 1; i >= 0; i--) {
+            locks[i].asWriteLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package memory;
+
+/**
+ * Cache-blocked matrix multiplication kernel: product = left · right.
+ * The left matrix is row-major and the right matrix is column-major, so both operands of every
+ * dot product are contiguous in their storage. The product is split into tiles of TILE_SIZE x TILE_SIZE,
+ * every tile is an independent unit of work (a task covers a block of tiles, see multiplyBlock), and the shared dimension is walked in blocks of K_BLOCK
+ * so the rows and columns of a tile stay in cache while they are reused.
+ * The kernel works directly on the storage arrays and takes no locks: every tile of the product is
+ * written by exactly one task and the operands are only read while the tasks run.
+ * The innermost loop over a row of the tile is the microkernel of Kernels.ACTIVE.
+ */
+public final class GemmKernel {
+
+    public static final int TILE_SIZE = 64; // rows and columns of a product tile
+    static final int K_BLOCK = 256; // length of a block of the shared dimension
+
+    private GemmKernel() {}
+
+    /**
+     * Checks that left (row-major), right (column-major) and product (row-major) fit together.
+     */
+    public static void checkOperands(SharedMatrix left, SharedMatrix right, SharedMatrix product) {
+        DenseStorage a = left.storage();
+        DenseStorage b = right.storage();
+        DenseStorage c = product.storage();
+        if (a.numVectors == 0 || b.numVectors == 0) {
+            throw new IllegalArgumentException("Multiplication can't be performed with empty matrices");
+        }
+        if (!left.isRowMajor() || right.isRowMajor() || a.vectorLength != b.vectorLength) {
+            throw new IllegalArgumentException("the sizes of the matrices are not suitable for multiplication.");
+        }
+        if (!product.isRowMajor() || c.numVectors != a.numVectors
+                || c.vectorLength != b.numVectors) {
+            throw new IllegalArgumentException("The product matrix does not match the operands");
+        }
+    }
+
+    /**
+     * Computes the block product[rowStart, rowEnd) x [colStart, colEnd) of any size, tile by tile,
+     * so a task can cover many tiles and still keep every tile's rows and columns in cache.
+     */
+    public static void multiplyBlock(SharedMatrix left, SharedMatrix right, SharedMatrix product,
+                                     int rowStart, int rowEnd, int colStart, int colEnd) {
+        for (int tileRow = rowStart; tileRow < rowEnd; tileRow += TILE_SIZE) {
+            for (int tileCol = colStart; tileCol < colEnd; tileCol += TILE_SIZE) {
+                multiplyTile(left, right, product, tileRow, Math.min(tileRow + TILE_SIZE, rowEnd),
+                        tileCol, Math.min(tileCol + TILE_SIZE, colEnd));
+            }
+        }
+    }
+
+    /**
+     * Computes the tile product[rowStart, rowEnd) x [colStart, colEnd).
+     */
+    public static void multiplyTile(SharedMatrix left, SharedMatrix right, SharedMatrix product,
+                                    int rowStart, int rowEnd, int colStart, int colEnd) {
+        DenseStorage a = left.storage();
+        DenseStorage b = right.storage();
+        DenseStorage c = product.storage();
+        double[] aData = a.data;
+        double[] bData = b.data;
+        double[] cData = c.data;
+        int shared = a.vectorLength;
+        int productCols = c.vectorLength;
+
+        Kernels kernels = Kernels.ACTIVE;
+        for (int kStart = 0; kStart < shared; kStart += K_BLOCK) {
+            int kEnd = Math.min(kStart + K_BLOCK, shared);
+            for (int i = rowStart; i < rowEnd; i++) {
+                kernels.multiplyRow(aData, i * shared, bData, shared, kStart, kEnd, cData, i * productCols, colStart, colEnd);
+            }
+        }
+    }
+}
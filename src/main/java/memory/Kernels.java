@@ -0,0 +1,48 @@
+package memory;
+
+/**
+ * The element-wise inner loops of the engine: vector add, negate, their fusion, dot and the GEMM microkernel.
+ * The scalar implementation is always available. When the engine is built with the vector profile
+ * (mvn -Pvector) and started with --add-modules jdk.incubator.vector, a SIMD implementation on the
+ * Java Vector API is picked instead. The choice is made once, when the class is loaded, and can be
+ * forced back to scalar with -Dlae.kernels=scalar.
+ */
+public interface Kernels {
+
+    //The implementation used by the engine, selected once at startup
+    Kernels ACTIVE = select();
+
+    String name();
+
+    //target[targetOffset + i] += source[sourceOffset + i] for i in [0, length)
+    void add(double[] target, int targetOffset, double[] source, int sourceOffset, int length);
+
+    //data[offset + i] = -data[offset + i] for i in [0, length)
+    void negate(double[] data, int offset, int length);
+
+    //target[targetOffset + i] = -(target[targetOffset + i] + source[sourceOffset + i]), the fused -(A + B)
+    void negateSum(double[] target, int targetOffset, double[] source, int sourceOffset, int length);
+
+    double dot(double[] a, int aOffset, double[] b, int bOffset, int length);
+
+    /**
+     * GEMM microkernel: for every column j in [colStart, colEnd) adds the dot product of
+     * a[aRow + kStart, aRow + kEnd) and b[j * shared + kStart, j * shared + kEnd) to c[cRow + j].
+     * b is column-major with columns of length shared.
+     */
+    void multiplyRow(double[] a, int aRow, double[] b, int shared, int kStart, int kEnd,
+                     double[] c, int cRow, int colStart, int colEnd);
+
+    private static Kernels select() {
+        if (!"scalar".equals(System.getProperty("lae.kernels"))) {
+            try {
+                //Only present when built with the vector profile, and only loadable with the incubator module
+                Class<?> vectorKernels = Class.forName("memory.VectorKernels");
+                return (Kernels) vectorKernels.getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                //falling back to the scalar kernels
+            }
+        }
+        return new ScalarKernels();
+    }
+}
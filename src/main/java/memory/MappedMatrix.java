@@ -0,0 +1,186 @@
+package memory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Read-only matrix operand backed by a memory-mapped file of little-endian doubles.
+ * Mapping is near-instant and the pages are shared through the OS page cache, nothing is read
+ * until the engine loads the operand (one bulk copy per vector into its own storage, see SharedMatrix).
+ * A single mapping is limited to 2GB, so bigger files are mapped in chunks of whole vectors.
+ * Raw files hold the matrix in row-major order; .npy files may also be in Fortran (column-major) order.
+ */
+public final class MappedMatrix {
+
+    private static final long MAX_CHUNK_BYTES = Integer.MAX_VALUE & ~7L;
+    private static final Pattern NPY_DESCR = Pattern.compile("'descr'\\s*:\\s*'([^']*)'");
+    private static final Pattern NPY_ORDER = Pattern.compile("'fortran_order'\\s*:\\s*(True|False)");
+    private static final Pattern NPY_SHAPE = Pattern.compile("'shape'\\s*:\\s*\\(\\s*(\\d+)\\s*,\\s*(\\d+)\\s*,?\\s*\\)");
+
+    private final int rows;
+    private final int cols;
+    private final VectorOrientation orientation;
+    private final int vectorLength;
+    private final int vectorsPerChunk;
+    private final DoubleBuffer[] chunks;
+
+    private MappedMatrix(int rows, int cols, VectorOrientation orientation, int vectorsPerChunk, DoubleBuffer[] chunks) {
+        this.rows = rows;
+        this.cols = cols;
+        this.orientation = orientation;
+        this.vectorLength = orientation == VectorOrientation.ROW_MAJOR ? cols : rows;
+        this.vectorsPerChunk = vectorsPerChunk;
+        this.chunks = chunks;
+    }
+
+    /**
+     * Maps a raw file of rows * cols little-endian doubles in row-major order.
+     */
+    public static MappedMatrix mapRaw(Path file, int rows, int cols) throws IOException {
+        checkShape(rows, cols);
+        return map(file, 0, rows, cols, VectorOrientation.ROW_MAJOR);
+    }
+
+    /**
+     * Maps rows * cols row-major little-endian doubles that start at byte offset of the file.
+     */
+    public static MappedMatrix mapRaw(Path file, long offset, int rows, int cols) throws IOException {
+        checkShape(rows, cols);
+        return map(file, offset, rows, cols, VectorOrientation.ROW_MAJOR);
+    }
+
+    /**
+     * Maps a 2D float64 .npy file (NumPy format 1.0, 2.0 or 3.0).
+     */
+    public static MappedMatrix mapNpy(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer prefix = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, prefix, 0);
+            if (prefix.get(0) != (byte) 0x93 || !"NUMPY".equals(new String(prefix.array(), 1, 5, StandardCharsets.US_ASCII))) {
+                throw new IllegalArgumentException("not a .npy file");
+            }
+            int major = prefix.get(6);
+            long headerStart = major == 1 ? 10 : 12;
+            long headerLength = major == 1 ? prefix.getShort(8) & 0xFFFF : prefix.getInt(8) & 0xFFFFFFFFL;
+            ByteBuffer headerBytes = ByteBuffer.allocate((int) headerLength);
+            readFully(channel, headerBytes, headerStart);
+            String header = new String(headerBytes.array(), StandardCharsets.ISO_8859_1);
+
+            Matcher descr = NPY_DESCR.matcher(header);
+            Matcher order = NPY_ORDER.matcher(header);
+            Matcher shape = NPY_SHAPE.matcher(header);
+            if (!descr.find() || !order.find() || !shape.find()) {
+                throw new IllegalArgumentException("unsupported .npy header " + header.trim());
+            }
+            if (!descr.group(1).equals("<f8")) {
+                throw new IllegalArgumentException("only little-endian float64 (<f8) .npy files are supported, got " + descr.group(1));
+            }
+            long rows = Long.parseLong(shape.group(1));
+            long cols = Long.parseLong(shape.group(2));
+            if (rows > Integer.MAX_VALUE || cols > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("matrix is too large");
+            }
+            checkShape((int) rows, (int) cols);
+            VectorOrientation orientation = order.group(1).equals("True")
+                    ? VectorOrientation.COLUMN_MAJOR : VectorOrientation.ROW_MAJOR;
+            return map(file, headerStart + headerLength, (int) rows, (int) cols, orientation);
+        }
+    }
+
+    private static MappedMatrix map(Path file, long dataStart, int rows, int cols, VectorOrientation orientation) throws IOException {
+        int numVectors = orientation == VectorOrientation.ROW_MAJOR ? rows : cols;
+        int vectorLength = orientation == VectorOrientation.ROW_MAJOR ? cols : rows;
+        long vectorBytes = 8L * vectorLength;
+        if (vectorBytes > MAX_CHUNK_BYTES) {
+            throw new IllegalArgumentException("matrix vectors are too long to be mapped");
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long expected = dataStart + vectorBytes * numVectors;
+            if (channel.size() != expected) {
+                throw new IllegalArgumentException("file has " + channel.size() + " bytes, a " + rows + "x" + cols
+                        + " matrix of doubles needs " + expected);
+            }
+            int vectorsPerChunk = (int) Math.min(numVectors, MAX_CHUNK_BYTES / vectorBytes);
+            DoubleBuffer[] chunks = new DoubleBuffer[(numVectors + vectorsPerChunk - 1) / vectorsPerChunk];
+            for (int c = 0; c < chunks.length; c++) {
+                long first = (long) c * vectorsPerChunk;
+                long count = Math.min(vectorsPerChunk, numVectors - first);
+                //the mapping stays valid after the channel is closed
+                chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, dataStart + first * vectorBytes, count * vectorBytes)
+                        .order(ByteOrder.LITTLE_ENDIAN)
+                        .asDoubleBuffer();
+            }
+            return new MappedMatrix(rows, cols, orientation, vectorsPerChunk, chunks);
+        }
+    }
+
+    private static void checkShape(int rows, int cols) {
+        if (rows <= 0 || cols <= 0) {
+            throw new IllegalArgumentException("matrix dimensions must be positive");
+        }
+        if ((long) rows * cols > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("matrix is too large");
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer target, long position) throws IOException {
+        while (target.hasRemaining()) {
+            if (channel.read(target, position + target.position()) < 0) {
+                throw new IllegalArgumentException("unexpected end of file");
+            }
+        }
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public int cols() {
+        return cols;
+    }
+
+    //ROW_MAJOR if the rows are contiguous in the file, COLUMN_MAJOR for Fortran ordered .npy files
+    public VectorOrientation getOrientation() {
+        return orientation;
+    }
+
+    public int numVectors() {
+        return orientation == VectorOrientation.ROW_MAJOR ? rows : cols;
+    }
+
+    public int vectorLength() {
+        return vectorLength;
+    }
+
+    //Bulk copy of vector index (a row if row-major, a column otherwise) into target[offset, offset + vectorLength)
+    public void readVector(int index, double[] target, int offset) {
+        DoubleBuffer chunk = chunks[index / vectorsPerChunk];
+        chunk.get((index % vectorsPerChunk) * vectorLength, target, offset, vectorLength);
+    }
+
+    public void readRow(int row, double[] target) {
+        if (orientation == VectorOrientation.ROW_MAJOR) {
+            readVector(row, target, 0);
+            return;
+        }
+        for (int j = 0; j < cols; j++) {
+            target[j] = chunks[j / vectorsPerChunk].get((j % vectorsPerChunk) * vectorLength + row);
+        }
+    }
+
+    public double[][] readRowMajor() {
+        double[][] matrix = new double[rows][cols];
+        for (int i = 0; i < rows; i++) {
+            readRow(i, matrix[i]);
+        }
+        return matrix;
+    }
+}
@@ -0,0 +1,76 @@
+package memory;
+
+/**
+ * Plain loop implementation of the kernels, the fallback when the Vector API is not available.
+ */
+final class ScalarKernels implements Kernels {
+
+    @Override
+    public String name() {
+        return "scalar";
+    }
+
+    @Override
+    public void add(double[] target, int targetOffset, double[] source, int sourceOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            target[targetOffset + i] += source[sourceOffset + i];
+        }
+    }
+
+    @Override
+    public void negate(double[] data, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            data[i] = -data[i];
+        }
+    }
+
+    @Override
+    public void negateSum(double[] target, int targetOffset, double[] source, int sourceOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            target[targetOffset + i] = -(target[targetOffset + i] + source[sourceOffset + i]);
+        }
+    }
+
+    @Override
+    public double dot(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        double product = 0;
+        for (int i = 0; i < length; i++) {
+            product += (a[aOffset + i] * b[bOffset + i]);
+        }
+        return product;
+    }
+
+    @Override
+    public void multiplyRow(double[] a, int aRow, double[] b, int shared, int kStart, int kEnd,
+                            double[] c, int cRow, int colStart, int colEnd) {
+        int j = colStart;
+        //4 columns at a time, every element of the left row is loaded once for 4 products
+        for (; j + 3 < colEnd; j += 4) {
+            int b0 = j * shared;
+            int b1 = b0 + shared;
+            int b2 = b1 + shared;
+            int b3 = b2 + shared;
+            double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+            for (int k = kStart; k < kEnd; k++) {
+                double value = a[aRow + k];
+                s0 += value * b[b0 + k];
+                s1 += value * b[b1 + k];
+                s2 += value * b[b2 + k];
+                s3 += value * b[b3 + k];
+            }
+            c[cRow + j] += s0;
+            c[cRow + j + 1] += s1;
+            c[cRow + j + 2] += s2;
+            c[cRow + j + 3] += s3;
+        }
+        //remaining columns
+        for (; j < colEnd; j++) {
+            int b0 = j * shared;
+            double s0 = 0;
+            for (int k = kStart; k < kEnd; k++) {
+                s0 += a[aRow + k] * b[b0 + k];
+            }
+            c[cRow + j] += s0;
+        }
+    }
+}
@@ -1,191 +1,333 @@
 package memory;
 
+import java.util.concurrent.locks.StampedLock;
+
 public class SharedMatrix {
 
-    private volatile SharedVector[] vectors = {}; // underlying vectors
+    //All vectors live in one contiguous array, see DenseStorage. Vectors are handed out as views.
+    private volatile DenseStorage storage = DenseStorage.EMPTY; // underlying storage
+    private final BufferPool pool; // where the storage buffers are borrowed from, null for plain arrays
 
     public SharedMatrix() {
         // DONE: initialize empty matrix
-        vectors = new SharedVector[0];
+        this((BufferPool) null);
+    }
+
+    //Empty matrix whose loads borrow their buffers from the pool, see release
+    public SharedMatrix(BufferPool pool) {
+        this.pool = pool;
+        storage = DenseStorage.EMPTY;
     }
 
     public SharedMatrix(double[][] matrix) {
         // DONE: construct matrix as row-major SharedVectors
+        this((BufferPool) null);
         loadRowMajor(matrix);
     }
 
+    //Creates a zero filled matrix with numVectors vectors of the given length and orientation.
+    public SharedMatrix(int numVectors, int vectorLength, VectorOrientation orientation) {
+        this(numVectors, vectorLength, orientation, null);
+    }
+
+    //Creates a zero filled matrix whose buffer is borrowed from the pool.
+    public SharedMatrix(int numVectors, int vectorLength, VectorOrientation orientation, BufferPool pool) {
+        if (numVectors <= 0 || vectorLength <= 0) {
+            throw new IllegalArgumentException("Matrix dimensions must be positive");
+        }
+        this.pool = pool;
+        int size = numVectors * vectorLength;
+        double[] data = pool != null ? pool.borrowZeroed(size) : new double[size];
+        storage = new DenseStorage(data, numVectors, vectorLength, orientation, pool);
+    }
+
     public void loadRowMajor(double[][] matrix) {
         // DONE: replace internal data with new row-major matrix
+        checkInput(matrix);
+        int numRows = matrix.length;
+        int numCols = matrix[0].length;
+        double[] data = DenseStorage.allocate(numRows * numCols, pool);
+        for (int i = 0; i < numRows; i++) {
+            System.arraycopy(matrix[i], 0, data, i * numCols, numCols);
+        }
+        replaceStorage(new DenseStorage(data, numRows, numCols, VectorOrientation.ROW_MAJOR, pool));
+    }
 
-        if (matrix == null || matrix.length == 0 || matrix[0].length ==0) {
-            throw new IllegalArgumentException("Matrix input can't be null or empty");
+    public void loadColumnMajor(double[][] matrix) {
+        // DONE: replace internal data with new column-major matrix
+        checkInput(matrix);
+        int numRows = matrix.length;
+        int numCols = matrix[0].length;
+        double[] data = DenseStorage.allocate(numRows * numCols, pool);
+        for (int j = 0; j < numRows; j++) {
+            double[] row = matrix[j];
+            for (int i = 0; i < numCols; i++) {
+                data[i * numRows + j] = row[i];
+            }
         }
+        replaceStorage(new DenseStorage(data, numCols, numRows, VectorOrientation.COLUMN_MAJOR, pool));
+    }
+
+    //Loads the contents of another matrix as row-major. If source is already row-major the storage is
+    //shared and nothing is copied, otherwise the data is copied once into the row-major layout.
+    public void loadRowMajor(SharedMatrix source) {
+        loadFrom(source, VectorOrientation.ROW_MAJOR);
+    }
+
+    //Loads the contents of another matrix as column-major, sharing the storage when possible.
+    public void loadColumnMajor(SharedMatrix source) {
+        loadFrom(source, VectorOrientation.COLUMN_MAJOR);
+    }
 
-        //Using a write lock for all the vectors to insure a correct updating
-        SharedVector[] oldVectors = vectors;
-        SharedVector[] newVectors = new SharedVector[matrix.length];
-        acquireAllVectorWriteLocks(oldVectors);
+    //Loads a private row-major copy of another matrix, for callers that are going to write into it
+    public void loadRowMajorCopy(SharedMatrix source) {
+        if (source == null || source.length() == 0) {
+            throw new IllegalArgumentException("Matrix input can't be null or empty");
+        }
+        DenseStorage sourceStorage = source.storage;
+        if (sourceStorage.orientation != VectorOrientation.ROW_MAJOR) {
+            replaceStorage(sourceStorage.relayout(pool));
+            return;
+        }
+        int size = sourceStorage.numVectors * sourceStorage.vectorLength;
+        double[] data = DenseStorage.allocate(size, pool);
+        sourceStorage.readLockAll();
         try {
-            int numRows = matrix.length;
-            
-            for (int i = 0; i < numRows; i++) {
-                double[] vector = matrix[i];
-                SharedVector sharedVector = new SharedVector(vector, VectorOrientation.ROW_MAJOR);
-                newVectors[i] = sharedVector;
-            }
-           
+            System.arraycopy(sourceStorage.data, 0, data, 0, size);
         }
         finally {
-            // first relese the old vectors lock before swithching
-            releaseAllVectorWriteLocks(oldVectors);
-             vectors = newVectors;
+            sourceStorage.readUnlockAll();
         }
+        replaceStorage(new DenseStorage(data, sourceStorage.numVectors, sourceStorage.vectorLength,
+                VectorOrientation.ROW_MAJOR, pool));
     }
 
+    private void loadFrom(SharedMatrix source, VectorOrientation orientation) {
+        if (source == null || source.length() == 0) {
+            throw new IllegalArgumentException("Matrix input can't be null or empty");
+        }
+        DenseStorage sourceStorage = source.storage;
+        if (sourceStorage.orientation != orientation) {
+            sourceStorage = sourceStorage.relayout(pool);
+        } else {
+            //the buffer stays owned by source, releasing this matrix must not give it back to the pool
+            sourceStorage = sourceStorage.shared();
+        }
+        replaceStorage(sourceStorage);
+    }
 
+    //Loads a memory-mapped operand as row-major, one bulk copy per vector out of the mapping
+    public void loadRowMajor(MappedMatrix source) {
+        loadFrom(source, VectorOrientation.ROW_MAJOR);
+    }
 
-    public void loadColumnMajor(double[][] matrix) {
-        // DONE: replace internal data with new column-major matrix
+    public void loadColumnMajor(MappedMatrix source) {
+        loadFrom(source, VectorOrientation.COLUMN_MAJOR);
+    }
 
-        if (matrix == null || matrix.length == 0 || matrix[0].length ==0) {
+    private void loadFrom(MappedMatrix source, VectorOrientation orientation) {
+        if (source == null) {
             throw new IllegalArgumentException("Matrix input can't be null or empty");
         }
-
-        //Using a write lock for all the vectors to insure a correct updating
-        SharedVector[] oldVectors = vectors;
-        SharedVector[] newVectors = new SharedVector[matrix[0].length];
-        acquireAllVectorWriteLocks(oldVectors);
-        try {
-            int numCols = matrix[0].length;
-            int numRows = matrix.length;
-            
-            for (int i = 0; i < numCols; i++) {
-                double[] vector = new double[numRows];
-                for (int j = 0; j < numRows; j++){
-                    vector[j] = matrix[j][i];
-                }
-                SharedVector sharedVector = new SharedVector(vector, VectorOrientation.COLUMN_MAJOR);
-                newVectors[i] = sharedVector;
-            }
-            
+        int numVectors = source.numVectors();
+        int vectorLength = source.vectorLength();
+        double[] data = DenseStorage.allocate(numVectors * vectorLength, pool);
+        for (int i = 0; i < numVectors; i++) {
+            source.readVector(i, data, i * vectorLength);
         }
-        finally {
-            // first relese the old vectors lock before swithching 
-            releaseAllVectorWriteLocks(oldVectors);
-            vectors = newVectors;
+        DenseStorage loaded = new DenseStorage(data, numVectors, vectorLength, source.getOrientation(), pool);
+        if (loaded.orientation != orientation) {
+            DenseStorage copy = loaded.relayout(pool);
+            loaded.release();
+            loaded = copy;
         }
+        replaceStorage(loaded);
     }
 
+    /**
+     * Transposes the matrix in O(1) by flipping the orientation of its storage.
+     * No data is moved: the rows of a row-major matrix are read as the columns of a column-major one.
+     * Vectors handed out before the call keep their old orientation.
+     */
+    public void transpose() {
+        replaceStorage(storage.transposed());
+    }
+
+    //Returns a transposed view of this matrix, sharing its data. This matrix is not changed.
+    public SharedMatrix transposed() {
+        SharedMatrix view = new SharedMatrix();
+        view.storage = storage.transposed();
+        return view;
+    }
+
+    /**
+     * Empties the matrix and gives its buffer back to the pool it was borrowed from.
+     * Only call this when no vector, view or other matrix still reads the data.
+     * Matrices that share the storage of another matrix only drop their reference.
+     */
+    public void release() {
+        DenseStorage oldStorage = storage;
+        replaceStorage(DenseStorage.EMPTY);
+        oldStorage.release();
+    }
+
+    /**
+     * Hands the data over to a new matrix that is not tied to the pool, without copying it.
+     * The buffer is never given back: it lives as long as the new matrix, like a plain array.
+     * This matrix is left empty, so releasing it afterwards does nothing.
+     */
+    public SharedMatrix detach() {
+        SharedMatrix detached = new SharedMatrix();
+        detached.storage = storage.shared();
+        replaceStorage(DenseStorage.EMPTY);
+        return detached;
+    }
+
+    public int rows() {
+        return storage.rows();
+    }
+
+    public int cols() {
+        return storage.cols();
+    }
 
     public double[][] readRowMajor() {
         // DONE: return matrix contents as a row-major double[][]
-        //Saving the current state of the array for safety
-        SharedVector[] currentVectors = this.vectors;
+        //Saving the current state of the storage for safety
+        DenseStorage current = this.storage;
 
-        if (currentVectors.length == 0) {
+        if (current.numVectors == 0) {
             return new double[0][0];
         }
 
-        acquireAllVectorReadLocks(currentVectors);
+        current.readLockAll();
         try {
-
-            if (isRowMajor()) {
-                int numRows = currentVectors.length;
-                int numCols = currentVectors[0].length();
+            double[] data = current.data;
+            if (isRowMajor(current)) {
+                int numRows = current.numVectors;
+                int numCols = current.vectorLength;
                 double[][] matrix = new double[numRows][numCols];
                 for (int i = 0; i < numRows; i++) {
-                    matrix[i] = currentVectors[i].getVector();
+                    System.arraycopy(data, i * numCols, matrix[i], 0, numCols);
                 }
                 return matrix;
             } else {
-                int numCols = currentVectors.length;
-                int numRows = currentVectors[0].length();
+                int numCols = current.numVectors;
+                int numRows = current.vectorLength;
                 double[][] matrix = new double[numRows][numCols];
-                for (int i = 0; i < numRows; i++) {
-                    double[] vector = new double[numCols];
-                    for (int j = 0; j < numCols; j++) {
-                        vector[j] = currentVectors[j].get(i);
+                for (int j = 0; j < numCols; j++) {
+                    int columnOffset = j * numRows;
+                    for (int i = 0; i < numRows; i++) {
+                        matrix[i][j] = data[columnOffset + i];
                     }
-                    matrix[i] = vector;
                 }
                 return matrix;
             }
         }
         finally {
-            releaseAllVectorReadLocks(currentVectors);
+            current.readUnlockAll();
         }
 
     }
 
-    public SharedVector get(int index) {
-        // DONE: return vector at index
-        acquireAllVectorReadLocks(vectors);
-        try {
-            if (index < 0 || index >= vectors.length) {
-                throw new IndexOutOfBoundsException();
+    /**
+     * Copies row `row` of the matrix into target, which must hold at least cols() elements.
+     * Lets writers stream the matrix row by row instead of building the whole double[][].
+     */
+    public void readRow(int row, double[] target) {
+        DenseStorage current = this.storage;
+        if (row < 0 || row >= current.rows()) {
+            throw new IndexOutOfBoundsException();
+        }
+        double[] data = current.data;
+        if (isRowMajor(current)) {
+            StampedLock lock = current.lockFor(row);
+            long stamp = lock.readLock();
+            try {
+                System.arraycopy(data, current.offset(row), target, 0, current.vectorLength);
+            }
+            finally {
+                lock.unlockRead(stamp);
+            }
+        } else {
+            //a row of a column-major matrix crosses all the columns
+            current.readLockAll();
+            try {
+                int numRows = current.vectorLength;
+                for (int j = 0; j < current.numVectors; j++) {
+                    target[j] = data[j * numRows + row];
+                }
+            }
+            finally {
+                current.readUnlockAll();
             }
-            return vectors[index];
         }
-        finally {
-            releaseAllVectorReadLocks(vectors);
+    }
+
+    public SharedVector get(int index) {
+        // DONE: return vector at index
+        //The storage reference is swapped atomically on reload and views are created lock-free,
+        //so no vector lock is needed to hand out a view.
+        DenseStorage current = storage;
+        if (index < 0 || index >= current.numVectors) {
+            throw new IndexOutOfBoundsException();
         }
+        return current.view(index);
     }
 
     public int length() {
         // DONE: return number of stored vectors
-        //The array is initialized as empty so no null pointer danger. so no need to lock the vectors.
-        return vectors.length;
+        //The storage is initialized as empty so no null pointer danger. so no need to lock the vectors.
+        return storage.numVectors;
     }
 
     public VectorOrientation getOrientation() {
         // DONE: return orientation
-        //Creating a local reference of vectors to prevent index out of bounds error in case of change in the original array
-        SharedVector[] currentVectors = vectors;
-        if (vectors == null || currentVectors.length == 0) {
+        //Creating a local reference of the storage to prevent index out of bounds error in case of a reload
+        DenseStorage current = storage;
+        if (current.numVectors == 0) {
             throw new IllegalArgumentException("The matrix is empty, no orientation defined.");
         }
-        return currentVectors[0].getOrientation();
+        return current.orientation;
     }
 
-    private void acquireAllVectorReadLocks(SharedVector[] vecs) {
-        // DONE: acquire read lock for each vector
-        for (int i = 0; i < vectors.length; i++) {
-            vectors[i].readLock();
-        }
+    //Assistant function for the class. return true if the matrix is ROW_MAJOR. Return false otherwise.
+    public boolean isRowMajor() {
+        return isRowMajor(storage);
     }
 
-    private void releaseAllVectorReadLocks(SharedVector[] vecs) {
-        // DONE: release read locks
-        //Using Lifo strategy - releasing in the opposite order than writeLockAllVectors
-        for (int i = vectors.length - 1; i >= 0; i--) {
-            vectors[i].readUnlock();
+    private boolean isRowMajor(DenseStorage current) {
+        if (current.numVectors == 0) {
+            return false;
         }
+        return current.orientation == VectorOrientation.ROW_MAJOR;
     }
 
-    private void acquireAllVectorWriteLocks(SharedVector[] vecs) {
-        // DONE: acquire write lock for each vector
-        for (int i = 0; i < vectors.length; i++) {
-            vectors[i].writeLock();
-        }
+    //Current storage, for the kernels of this package
+    DenseStorage storage() {
+        return storage;
     }
 
-    private void releaseAllVectorWriteLocks(SharedVector[] vecs) {
-        // DONE: release write locks
-            //Using Lifo strategy - releasing in the opposite order than writeLockAllVectors
-            for (int i = vectors.length - 1; i >= 0; i--) {
-                vectors[i].writeUnlock();
+    private void checkInput(double[][] matrix) {
+        if (matrix == null || matrix.length == 0 || matrix[0].length == 0) {
+            throw new IllegalArgumentException("Matrix input can't be null or empty");
+        }
+        for (int i = 1; i < matrix.length; i++) {
+            if (matrix[i] == null || matrix[i].length != matrix[0].length) {
+                throw new IllegalArgumentException("Inconsistent row sizes in matrix.");
             }
+        }
     }
 
-    //Assistant function for the class. return true if the matrix is ROW_MAJOR. Return false otherwise.
-    public boolean isRowMajor() {
-        //No need to lock the vectors because they are already locked when the function is called.
-        if (vectors.length == 0) {
-            return false;
+    private void replaceStorage(DenseStorage newStorage) {
+        //Using a write lock on the old storage to wait for vector operations that are still running on it
+        DenseStorage oldStorage = storage;
+        oldStorage.writeLockAll();
+        try {
+            storage = newStorage;
         }
-        if (vectors[0].getOrientation() == VectorOrientation.ROW_MAJOR) {
-            return true;
+        finally {
+            oldStorage.writeUnlockAll();
         }
-        return false;
     }
 }
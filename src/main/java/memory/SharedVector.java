@@ -1,29 +1,56 @@
 package memory;
 
-import java.util.concurrent.locks.ReadWriteLock;
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
 
 public class SharedVector {
 
+    //A vector is a window [offset, offset + length) over a double array.
+    //Standalone vectors own the whole array, vectors of a SharedMatrix are views over the matrix storage.
     private double[] vector;
+    private int offset;
+    private int length;
     private VectorOrientation orientation;
-    private ReadWriteLock lock = new java.util.concurrent.locks.ReentrantReadWriteLock();
+    //Readers first try an optimistic stamp and only take the read lock if a writer got in between.
+    //StampedLock is not reentrant, so no method takes a lock that its caller may already hold.
+    private final StampedLock lock;
 
     public SharedVector(double[] vector, VectorOrientation orientation) {
         //store vector data and its orientation
-        this.vector = vector;
-        this.orientation = orientation;
+        this(vector, 0, vector.length, orientation, new StampedLock());
+    }
 
+    //View constructor, used by DenseStorage. The lock may be shared with other views of the same matrix.
+    SharedVector(double[] data, int offset, int length, VectorOrientation orientation, StampedLock lock) {
+        this.vector = data;
+        this.offset = offset;
+        this.length = length;
+        this.orientation = orientation;
+        this.lock = lock;
     }
 
     public double get(int index) {
         // TODO: return element at index (read-locked)
-        if (index < 0 || index > vector.length) {
-            throw new IndexOutOfBoundsException();
+        long stamp = lock.tryOptimisticRead();
+        double[] currentVector = vector;
+        int currentOffset = offset;
+        int currentLength = length;
+        if (lock.validate(stamp)) {
+            if (index < 0 || index >= currentLength) {
+                throw new IndexOutOfBoundsException();
+            }
+            double value = currentVector[currentOffset + index];
+            if (lock.validate(stamp)) {
+                return value;
+            }
         }
-        //Using readLock because non of the class values have changed
+        //A writer got in between, falling back to the read lock
         readLock();
         try {
-            return vector[index];
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException();
+            }
+            return vector[offset + index];
         }
         finally {
             readUnlock();
@@ -32,10 +59,14 @@ public class SharedVector {
 
     public int length() {
         // TODO: return vector length
-        //Using readLock because non of the class values have changed
+        long stamp = lock.tryOptimisticRead();
+        int currentLength = length;
+        if (lock.validate(stamp)) {
+            return currentLength;
+        }
         readLock();
         try {
-            return vector.length;
+            return length;
         }
         finally {
             readUnlock();
@@ -44,7 +75,11 @@ public class SharedVector {
 
     public VectorOrientation getOrientation() {
         //TODO: return Orientation
-        //Using readLock because non of the class values have changed
+        long stamp = lock.tryOptimisticRead();
+        VectorOrientation currentOrientation = orientation;
+        if (lock.validate(stamp)) {
+            return currentOrientation;
+        }
         readLock();
         try {
             return orientation;
@@ -56,9 +91,19 @@ public class SharedVector {
 
     //Assistant getter for the class. In use in SharedMatrix
     public double[] getVector() {
+        long stamp = lock.tryOptimisticRead();
+        double[] currentVector = vector;
+        int currentOffset = offset;
+        int currentLength = length;
+        if (lock.validate(stamp)) {
+            double[] copy = Arrays.copyOfRange(currentVector, currentOffset, currentOffset + currentLength);
+            if (lock.validate(stamp)) {
+                return copy;
+            }
+        }
         readLock();
         try {
-            return vector.clone();
+            return Arrays.copyOfRange(vector, offset, offset + length);
         }
         finally {
             readUnlock();
@@ -67,22 +112,22 @@ public class SharedVector {
 
     public void writeLock() {
         // TODO: acquire write lock
-        lock.writeLock().lock();
+        lock.asWriteLock().lock();
     }
 
     public void writeUnlock() {
         // TODO: release write lock
-        lock.writeLock().unlock();
+        lock.asWriteLock().unlock();
     }
 
     public void readLock() {
         // TODO: acquire read lock
-        lock.readLock().lock();
+        lock.asReadLock().lock();
     }
 
     public void readUnlock() {
         // TODO: release read lock
-        lock.readLock().unlock();
+        lock.asReadLock().unlock();
     }
 
     public void transpose() {
@@ -103,35 +148,57 @@ public class SharedVector {
 
     public void add(SharedVector other) {
         // TODO: add two vectors
+        combine(other, false);
+    }
+
+    //this = -(this + other) in one pass over both vectors, for the fused -(A + B) of the engine
+    public void negateSum(SharedVector other) {
+        combine(other, true);
+    }
+
+    //Adds other to this vector, negating the sum if negated
+    private void combine(SharedVector other, boolean negated) {
         //Using a writeLock because the function is changing the values in the vector array
         if (other == null) {
             throw new IllegalArgumentException("input vector is null");
         }
-        if (other.vector.length != vector.length || orientation != other.orientation) {
+        if (other.length != length || orientation != other.orientation) {
             throw new IllegalArgumentException("Vectors are not suitable for adding");
         }
         writeLock();
-        other.readLock();
         try {
-            for (int i = 0; i < vector.length; i++) {
-                vector[i] = vector[i] + other.vector[i];
+            //Vectors of the same matrix may share a lock, then our write lock already covers the other vector
+            if (other.lock == lock) {
+                addFrom(other, negated);
+            } else {
+                other.readLock();
+                try {
+                    addFrom(other, negated);
+                }
+                finally {
+                    other.readUnlock();
+                }
             }
         }
         finally {
-            //Last in first out strategy
-            other.readUnlock();
             writeUnlock();
         }
     }
 
+    private void addFrom(SharedVector other, boolean negated) {
+        if (negated) {
+            Kernels.ACTIVE.negateSum(vector, offset, other.vector, other.offset, length);
+        } else {
+            Kernels.ACTIVE.add(vector, offset, other.vector, other.offset, length);
+        }
+    }
+
     public void negate() {
         // TODO: negate vector
         //Using a writeLock because the function is changing the values in the vector array
         writeLock();
         try {
-            for (int i = 0; i < vector.length; i++) {
-                vector[i] = -vector[i];
-            }
+            Kernels.ACTIVE.negate(vector, offset, length);
         } finally {
             writeUnlock();
         }
@@ -140,52 +207,131 @@ public class SharedVector {
 
     public double dot(SharedVector other) {
         // TODO: compute dot product (row · column)
-        //Using readLock because non of the class values have changed
+        //Reading both vectors optimistically, none of the class values are changed
         if (other == null) {
             throw new IllegalArgumentException("input vector is null");
         }
-        if (other.vector.length != vector.length || orientation == other.orientation) {
-            throw new IllegalArgumentException("Vectors are not suitable for dot product");
+        if (other.lock == lock) {
+            //Both vectors are guarded by the same lock, a single read lock covers them
+            readLock();
+            try {
+                checkDot(length, orientation, other.length, other.orientation);
+                return dotProduct(vector, offset, other.vector, other.offset, length);
+            }
+            finally {
+                readUnlock();
+            }
+        }
+        long stamp = lock.tryOptimisticRead();
+        double[] currentVector = vector;
+        int currentOffset = offset;
+        int currentLength = length;
+        VectorOrientation currentOrientation = orientation;
+        if (lock.validate(stamp)) {
+            double product = other.dotWith(currentVector, currentOffset, currentLength, currentOrientation);
+            if (lock.validate(stamp)) {
+                return product;
+            }
         }
         readLock();
-        other.readLock();
         try {
-            double product = 0;
-            for (int i = 0; i < vector.length; i++) {
-                product += (vector[i] * other.vector[i]);
+            return other.dotWith(vector, offset, length, orientation);
+        }
+        finally {
+            readUnlock();
+        }
+    }
+
+    //Dot product of this vector with data[dataOffset, dataOffset + dataLength), which the caller keeps stable.
+    private double dotWith(double[] data, int dataOffset, int dataLength, VectorOrientation dataOrientation) {
+        long stamp = lock.tryOptimisticRead();
+        double[] currentVector = vector;
+        int currentOffset = offset;
+        int currentLength = length;
+        VectorOrientation currentOrientation = orientation;
+        if (lock.validate(stamp)) {
+            checkDot(dataLength, dataOrientation, currentLength, currentOrientation);
+            double product = dotProduct(data, dataOffset, currentVector, currentOffset, currentLength);
+            if (lock.validate(stamp)) {
+                return product;
             }
-            return product;
+        }
+        readLock();
+        try {
+            checkDot(dataLength, dataOrientation, length, orientation);
+            return dotProduct(data, dataOffset, vector, offset, length);
         }
         finally {
-            //Lifo strategy
-            other.readUnlock();
             readUnlock();
         }
     }
 
+    private static void checkDot(int length, VectorOrientation orientation, int otherLength, VectorOrientation otherOrientation) {
+        if (otherLength != length || orientation == otherOrientation) {
+            throw new IllegalArgumentException("Vectors are not suitable for dot product");
+        }
+    }
+
+    private static double dotProduct(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        return Kernels.ACTIVE.dot(a, aOffset, b, bOffset, length);
+    }
+
     public void vecMatMul(SharedMatrix matrix) {
         // TODO: compute row-vector × matrix
-
-        if (matrix == null) {
-            throw new NullPointerException("matrix input is null");
-        }
-        if (orientation != VectorOrientation.ROW_MAJOR ||
-                matrix.get(0).orientation != VectorOrientation.COLUMN_MAJOR ||
-                matrix.get(0).length() != vector.length) {
-            throw new IllegalArgumentException("The conditions for row-vector × matrix are not satisfied");
-        }
+        checkVecMatMul(matrix);
         //Using a writeLock because now the function is changing the values in the vector array
+        //The result may have a different length, so the vector is rebound to a new array.
+        //For a view of a SharedMatrix this detaches the view from the matrix storage.
         writeLock();
         double newVector[] = new double[matrix.length()];
-        try {  
+        try {
             for (int i = 0; i < matrix.length(); i++) {
-                newVector[i] = this.dot(matrix.get(i));
-            }   
-
+                SharedVector column = matrix.get(i);
+                //our write lock already guards this vector, so it is read directly
+                if (column.lock == lock) {
+                    checkDot(length, orientation, column.length, column.orientation);
+                    newVector[i] = dotProduct(vector, offset, column.vector, column.offset, length);
+                } else {
+                    newVector[i] = column.dotWith(vector, offset, length, orientation);
+                }
+            }
+            this.vector = newVector;
+            this.offset = 0;
+            this.length = newVector.length;
         }
         finally {
             writeUnlock();
-            this.vector = newVector;
+        }
+    }
+
+    //Computes row-vector × matrix into result, leaving this vector unchanged.
+    //The row is computed before the write lock of result is taken, so the two may share a lock.
+    public void vecMatMul(SharedMatrix matrix, SharedVector result) {
+        checkVecMatMul(matrix);
+        if (result == null || result.length() != matrix.length()) {
+            throw new IllegalArgumentException("The result vector does not match the product size");
+        }
+        double[] row = new double[matrix.length()];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = this.dot(matrix.get(i));
+        }
+        result.writeLock();
+        try {
+            System.arraycopy(row, 0, result.vector, result.offset, row.length);
+        }
+        finally {
+            result.writeUnlock();
+        }
+    }
+
+    private void checkVecMatMul(SharedMatrix matrix) {
+        if (matrix == null) {
+            throw new NullPointerException("matrix input is null");
+        }
+        if (getOrientation() != VectorOrientation.ROW_MAJOR ||
+                matrix.get(0).getOrientation() != VectorOrientation.COLUMN_MAJOR ||
+                matrix.get(0).length() != length()) {
+            throw new IllegalArgumentException("The conditions for row-vector × matrix are not satisfied");
         }
     }
 }
@@ -0,0 +1,539 @@
+package memory;
+
+import java.util.Arrays;
+
+/**
+ * Compressed sparse matrix, kept next to SharedMatrix for inputs that are mostly zeros.
+ * A ROW_MAJOR sparse matrix is stored as CSR and a COLUMN_MAJOR one as CSC: the non zeros of vector i
+ * (a row for CSR, a column for CSC) are indices[pointers[i], pointers[i + 1]) with the matching values,
+ * sorted by index.
+ * Sparse matrices are immutable, so they can be read by any number of tasks without locks.
+ * The kernels work on row ranges of a CSR matrix, so every range can be an independent executor task.
+ *
+ * Only +0.0 is left out, a -0.0 is stored like any other value. The kernels give the same values as the
+ * dense ones, NaN and infinities included: a missing entry times an infinity or NaN is NaN, so those
+ * products are never skipped. The one difference is the sign of a zero, since a missing entry is always
+ * +0.0: -S keeps +0.0 where the dense negation gives -0.0, and S + D keeps a -0.0 of D where S has no
+ * entry, where the dense sum gives +0.0.
+ */
+public class SparseMatrix {
+
+    //A matrix is stored sparse if at most this fraction of its elements are non zero
+    public static final double DENSITY_THRESHOLD = 0.1;
+    //Smaller matrices are always dense, compressing them doesn't pay off
+    public static final int MIN_ELEMENTS = 1024;
+
+    private final VectorOrientation orientation;
+    private final int rows;
+    private final int cols;
+    private final int[] pointers;
+    private final int[] indices;
+    private final double[] values;
+    //Positions k of the stored infinities and NaNs, computed on first use, see nonFiniteEntries
+    private volatile int[] nonFiniteEntries = null;
+
+    public SparseMatrix(VectorOrientation orientation, int rows, int cols, int[] pointers, int[] indices, double[] values) {
+        int numVectors = orientation == VectorOrientation.ROW_MAJOR ? rows : cols;
+        if (rows <= 0 || cols <= 0 || pointers.length != numVectors + 1
+                || indices.length < pointers[numVectors] || values.length < pointers[numVectors]) {
+            throw new IllegalArgumentException("Invalid sparse matrix structure");
+        }
+        this.orientation = orientation;
+        this.rows = rows;
+        this.cols = cols;
+        this.pointers = pointers;
+        this.indices = indices;
+        this.values = values;
+    }
+
+    /**
+     * Returns true if the matrix is big enough and has few enough non zeros to be stored sparse.
+     */
+    public static boolean isSparseEnough(double[][] matrix) {
+        long elements = (long) matrix.length * matrix[0].length;
+        if (elements < MIN_ELEMENTS) {
+            return false;
+        }
+        return countNonZeros(matrix) <= DENSITY_THRESHOLD * elements;
+    }
+
+    //Builds the CSR form of a row-major matrix
+    public static SparseMatrix fromRowMajor(double[][] matrix) {
+        if (matrix == null || matrix.length == 0 || matrix[0].length == 0) {
+            throw new IllegalArgumentException("Matrix input can't be null or empty");
+        }
+        int numRows = matrix.length;
+        int numCols = matrix[0].length;
+        int nonZeros = countNonZeros(matrix);
+        int[] pointers = new int[numRows + 1];
+        int[] indices = new int[nonZeros];
+        double[] values = new double[nonZeros];
+        int next = 0;
+        for (int i = 0; i < numRows; i++) {
+            if (matrix[i].length != numCols) {
+                throw new IllegalArgumentException("Inconsistent row sizes in matrix.");
+            }
+            for (int j = 0; j < numCols; j++) {
+                if (!isImplicitZero(matrix[i][j])) {
+                    indices[next] = j;
+                    values[next] = matrix[i][j];
+                    next++;
+                }
+            }
+            pointers[i + 1] = next;
+        }
+        return new SparseMatrix(VectorOrientation.ROW_MAJOR, numRows, numCols, pointers, indices, values);
+    }
+
+    private static int countNonZeros(double[][] matrix) {
+        int count = 0;
+        for (double[] row : matrix) {
+            for (double value : row) {
+                if (!isImplicitZero(value)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    //Only +0.0 is left out of the stored entries, a -0.0 is kept
+    private static boolean isImplicitZero(double value) {
+        return Double.doubleToRawLongBits(value) == 0L;
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public int cols() {
+        return cols;
+    }
+
+    public int nonZeros() {
+        return pointers[pointers.length - 1];
+    }
+
+    public double density() {
+        return nonZeros() / ((double) rows * cols);
+    }
+
+    public VectorOrientation getOrientation() {
+        return orientation;
+    }
+
+    //Non zeros before row i, for a CSR matrix. Used to balance row ranges by work.
+    public int rowPointer(int row) {
+        return pointers[row];
+    }
+
+    /**
+     * Returns the transpose in O(1): the CSR form of a matrix is the CSC form of its transpose,
+     * so the arrays are shared and only the orientation and shape are flipped.
+     */
+    public SparseMatrix transposed() {
+        VectorOrientation flipped = orientation == VectorOrientation.ROW_MAJOR
+                ? VectorOrientation.COLUMN_MAJOR : VectorOrientation.ROW_MAJOR;
+        return new SparseMatrix(flipped, cols, rows, pointers, indices, values);
+    }
+
+    /**
+     * Returns the CSR form of this matrix, converting from CSC in O(nnz) if needed.
+     */
+    public SparseMatrix toCsr() {
+        if (orientation == VectorOrientation.ROW_MAJOR) {
+            return this;
+        }
+        int nonZeros = nonZeros();
+        int[] rowPointers = new int[rows + 1];
+        for (int k = 0; k < nonZeros; k++) {
+            rowPointers[indices[k] + 1]++;
+        }
+        for (int i = 0; i < rows; i++) {
+            rowPointers[i + 1] += rowPointers[i];
+        }
+        int[] next = Arrays.copyOf(rowPointers, rows);
+        int[] colIndices = new int[nonZeros];
+        double[] rowValues = new double[nonZeros];
+        //columns are visited in order, so the column indices of every row come out sorted
+        for (int j = 0; j < cols; j++) {
+            for (int k = pointers[j]; k < pointers[j + 1]; k++) {
+                int position = next[indices[k]]++;
+                colIndices[position] = j;
+                rowValues[position] = values[k];
+            }
+        }
+        return new SparseMatrix(VectorOrientation.ROW_MAJOR, rows, cols, rowPointers, colIndices, rowValues);
+    }
+
+    public double[][] readRowMajor() {
+        double[][] matrix = new double[rows][cols];
+        int numVectors = orientation == VectorOrientation.ROW_MAJOR ? rows : cols;
+        for (int i = 0; i < numVectors; i++) {
+            for (int k = pointers[i]; k < pointers[i + 1]; k++) {
+                if (orientation == VectorOrientation.ROW_MAJOR) {
+                    matrix[i][indices[k]] = values[k];
+                } else {
+                    matrix[indices[k]][i] = values[k];
+                }
+            }
+        }
+        return matrix;
+    }
+
+    //Copies row `row` of a CSR matrix into target (at least cols long), zeros included
+    public void readRow(int row, double[] target) {
+        checkCsr(this);
+        Arrays.fill(target, 0, cols, 0.0);
+        for (int k = pointers[row]; k < pointers[row + 1]; k++) {
+            target[indices[k]] = values[k];
+        }
+    }
+
+    //Hash of the shape and the stored entries, equal for matrices that are contentEquals
+    public int contentHash() {
+        int hash = 31 * (31 * orientation.hashCode() + rows) + cols;
+        int nonZeros = nonZeros();
+        for (int i = 0; i < pointers.length; i++) {
+            hash = 31 * hash + pointers[i];
+        }
+        for (int k = 0; k < nonZeros; k++) {
+            hash = 31 * hash + indices[k];
+            long bits = Double.doubleToLongBits(values[k]);
+            hash = 31 * hash + (int) (bits ^ (bits >>> 32));
+        }
+        return hash;
+    }
+
+    //True if both matrices store exactly the same entries in the same layout (values compared bit by bit)
+    public boolean contentEquals(SparseMatrix other) {
+        if (orientation != other.orientation || rows != other.rows || cols != other.cols
+                || !Arrays.equals(pointers, other.pointers)) {
+            return false;
+        }
+        for (int k = 0; k < nonZeros(); k++) {
+            if (indices[k] != other.indices[k]
+                    || Double.doubleToLongBits(values[k]) != Double.doubleToLongBits(other.values[k])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //Copy of this CSR matrix with other values and the same structure
+    public SparseMatrix withValues(double[] newValues) {
+        return new SparseMatrix(orientation, rows, cols, pointers, indices, newValues);
+    }
+
+    // ---- kernels, all of them work on the rows [rowStart, rowEnd) of a CSR matrix ----
+
+    //target[k] = -values[k] for the non zeros of the rows
+    public void negateRows(double[] target, int rowStart, int rowEnd) {
+        checkCsr(this);
+        for (int k = pointers[rowStart]; k < pointers[rowEnd]; k++) {
+            target[k] = -values[k];
+        }
+    }
+
+    //target += this, where target is a row-major dense matrix of the same size
+    public void addRows(SharedMatrix target, int rowStart, int rowEnd) {
+        checkCsr(this);
+        DenseStorage storage = target.storage();
+        double[] data = storage.data;
+        for (int i = rowStart; i < rowEnd; i++) {
+            int rowOffset = i * cols;
+            for (int k = pointers[i]; k < pointers[i + 1]; k++) {
+                data[rowOffset + indices[k]] += values[k];
+            }
+        }
+    }
+
+    //sum = this + other, both CSR of the same size, by merging the sorted rows
+    public void addRows(SparseMatrix other, Builder sum, int rowStart, int rowEnd) {
+        checkCsr(this);
+        checkCsr(other);
+        for (int i = rowStart; i < rowEnd; i++) {
+            int a = pointers[i];
+            int aEnd = pointers[i + 1];
+            int b = other.pointers[i];
+            int bEnd = other.pointers[i + 1];
+            int[] rowIndices = new int[(aEnd - a) + (bEnd - b)];
+            double[] rowValues = new double[rowIndices.length];
+            int count = 0;
+            while (a < aEnd || b < bEnd) {
+                int column;
+                double value;
+                if (b >= bEnd || (a < aEnd && indices[a] < other.indices[b])) {
+                    column = indices[a];
+                    value = values[a++];
+                } else if (a >= aEnd || other.indices[b] < indices[a]) {
+                    column = other.indices[b];
+                    value = other.values[b++];
+                } else {
+                    column = indices[a];
+                    value = values[a++] + other.values[b++];
+                }
+                if (!isImplicitZero(value)) {
+                    rowIndices[count] = column;
+                    rowValues[count] = value;
+                    count++;
+                }
+            }
+            sum.setRow(i, rowIndices, rowValues, count);
+        }
+    }
+
+    //product = this · right, right is a row-major dense matrix and product a row-major dense matrix
+    public void multiplyRows(SharedMatrix right, SharedMatrix product, int rowStart, int rowEnd) {
+        multiplyRows(right, nonFinitePositions(right), product, rowStart, rowEnd);
+    }
+
+    /**
+     * Like multiplyRows(right, product, rowStart, rowEnd), with the non-finite values of right found once
+     * by nonFinitePositions, so the tasks of one product don't all scan right for them.
+     */
+    public void multiplyRows(SharedMatrix right, int[] rightNonFinite, SharedMatrix product, int rowStart, int rowEnd) {
+        checkCsr(this);
+        DenseStorage b = right.storage();
+        DenseStorage c = product.storage();
+        double[] bData = b.data;
+        double[] cData = c.data;
+        int productCols = c.vectorLength;
+        for (int i = rowStart; i < rowEnd; i++) {
+            int cRow = i * productCols;
+            for (int k = pointers[i]; k < pointers[i + 1]; k++) {
+                double value = values[k];
+                int bRow = indices[k] * productCols;
+                for (int j = 0; j < productCols; j++) {
+                    cData[cRow + j] += value * bData[bRow + j];
+                }
+            }
+            //a missing entry (i, t) times an infinity or NaN at (t, j) of right is NaN, not 0
+            for (int position : rightNonFinite) {
+                int t = position / productCols;
+                if (Arrays.binarySearch(indices, pointers[i], pointers[i + 1], t) < 0) {
+                    cData[cRow + position % productCols] += 0.0 * bData[position];
+                }
+            }
+        }
+    }
+
+    //Positions (row * cols + column) of the infinities and NaNs of a row-major dense matrix
+    public static int[] nonFinitePositions(SharedMatrix matrix) {
+        DenseStorage storage = matrix.storage();
+        double[] data = storage.data;
+        int size = storage.numVectors * storage.vectorLength;
+        int count = 0;
+        for (int p = 0; p < size; p++) {
+            if (!Double.isFinite(data[p])) {
+                count++;
+            }
+        }
+        int[] positions = new int[count];
+        int next = 0;
+        for (int p = 0; next < count; p++) {
+            if (!Double.isFinite(data[p])) {
+                positions[next++] = p;
+            }
+        }
+        return positions;
+    }
+
+    //product = left · right, left is a row-major dense matrix, right is CSR and product is row-major dense
+    public static void multiplyRows(SharedMatrix left, SparseMatrix right, SharedMatrix product, int rowStart, int rowEnd) {
+        checkCsr(right);
+        DenseStorage a = left.storage();
+        DenseStorage c = product.storage();
+        double[] aData = a.data;
+        double[] cData = c.data;
+        int shared = a.vectorLength;
+        int productCols = c.vectorLength;
+        for (int i = rowStart; i < rowEnd; i++) {
+            int aRow = i * shared;
+            int cRow = i * productCols;
+            for (int t = 0; t < shared; t++) {
+                double value = aData[aRow + t];
+                if (value == 0 && right.isFiniteVector(t)) {
+                    //0 times finite values adds nothing, 0 times an infinity or NaN is NaN
+                    continue;
+                }
+                if (!Double.isFinite(value)) {
+                    //so is an infinity or NaN times the missing entries of the row
+                    int k = right.pointers[t];
+                    for (int j = 0; j < productCols; j++) {
+                        if (k < right.pointers[t + 1] && right.indices[k] == j) {
+                            k++;
+                        } else {
+                            cData[cRow + j] += value * 0.0;
+                        }
+                    }
+                }
+                for (int k = right.pointers[t]; k < right.pointers[t + 1]; k++) {
+                    cData[cRow + right.indices[k]] += value * right.values[k];
+                }
+            }
+        }
+    }
+
+    //product = this · right, both CSR (Gustavson's row by row algorithm with a dense accumulator)
+    public void multiplyRows(SparseMatrix right, Builder product, int rowStart, int rowEnd) {
+        checkCsr(this);
+        checkCsr(right);
+        double[] accumulator = new double[right.cols];
+        int[] touchedAt = new int[right.cols];
+        Arrays.fill(touchedAt, -1);
+        int[] touched = new int[right.cols];
+        int[] rightNonFinite = right.nonFiniteEntries();
+        for (int i = rowStart; i < rowEnd; i++) {
+            int count = 0;
+            for (int k = pointers[i]; k < pointers[i + 1]; k++) {
+                int t = indices[k];
+                double value = values[k];
+                if (!Double.isFinite(value)) {
+                    //an infinity or NaN times the missing entries of right's row t is NaN, not 0
+                    int r = right.pointers[t];
+                    for (int column = 0; column < right.cols; column++) {
+                        if (r < right.pointers[t + 1] && right.indices[r] == column) {
+                            r++;
+                        } else {
+                            count = accumulate(i, column, value * 0.0, accumulator, touchedAt, touched, count);
+                        }
+                    }
+                }
+                for (int r = right.pointers[t]; r < right.pointers[t + 1]; r++) {
+                    count = accumulate(i, right.indices[r], value * right.values[r], accumulator, touchedAt, touched, count);
+                }
+            }
+            //and so is a missing entry of this row times an infinity or NaN of right
+            for (int r : rightNonFinite) {
+                int t = right.vectorOf(r);
+                if (Arrays.binarySearch(indices, pointers[i], pointers[i + 1], t) < 0) {
+                    count = accumulate(i, right.indices[r], 0.0 * right.values[r], accumulator, touchedAt, touched, count);
+                }
+            }
+            Arrays.sort(touched, 0, count);
+            int[] rowIndices = new int[count];
+            double[] rowValues = new double[count];
+            int kept = 0;
+            for (int n = 0; n < count; n++) {
+                double value = accumulator[touched[n]];
+                if (!isImplicitZero(value)) {
+                    rowIndices[kept] = touched[n];
+                    rowValues[kept] = value;
+                    kept++;
+                }
+            }
+            product.setRow(i, rowIndices, rowValues, kept);
+        }
+    }
+
+    //Adds value to the accumulator of column in row i, the first time the column is touched in the row it starts at 0.
+    //Returns the new number of touched columns.
+    private static int accumulate(int i, int column, double value, double[] accumulator, int[] touchedAt,
+                                  int[] touched, int count) {
+        if (touchedAt[column] != i) {
+            touchedAt[column] = i;
+            accumulator[column] = 0;
+            touched[count++] = column;
+        }
+        accumulator[column] += value;
+        return count;
+    }
+
+    //The positions k of the stored infinities and NaNs, in order. Computed once, the matrix is immutable.
+    private int[] nonFiniteEntries() {
+        int[] entries = nonFiniteEntries;
+        if (entries == null) {
+            int nonZeros = nonZeros();
+            int count = 0;
+            for (int k = 0; k < nonZeros; k++) {
+                if (!Double.isFinite(values[k])) {
+                    count++;
+                }
+            }
+            entries = new int[count];
+            int next = 0;
+            for (int k = 0; next < count; k++) {
+                if (!Double.isFinite(values[k])) {
+                    entries[next++] = k;
+                }
+            }
+            nonFiniteEntries = entries;
+        }
+        return entries;
+    }
+
+    //True if the stored values of vector i are all finite
+    private boolean isFiniteVector(int i) {
+        int[] entries = nonFiniteEntries();
+        int first = Arrays.binarySearch(entries, pointers[i]);
+        if (first < 0) {
+            first = -first - 1;
+        }
+        return first == entries.length || entries[first] >= pointers[i + 1];
+    }
+
+    //The vector that stores position k
+    private int vectorOf(int k) {
+        int low = 0;
+        int high = pointers.length - 2;
+        //the last vector whose pointer is <= k
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (pointers[mid] <= k) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private static void checkCsr(SparseMatrix matrix) {
+        if (matrix.orientation != VectorOrientation.ROW_MAJOR) {
+            throw new IllegalArgumentException("Sparse kernels expect a CSR (row-major) matrix");
+        }
+    }
+
+    /**
+     * Collects the rows of a CSR result that are computed by different tasks.
+     * Every row is set by exactly one task; build is called after all the tasks are done.
+     */
+    public static class Builder {
+        private final int rows;
+        private final int cols;
+        private final int[][] rowIndices;
+        private final double[][] rowValues;
+        private final int[] rowCounts;
+
+        public Builder(int rows, int cols) {
+            this.rows = rows;
+            this.cols = cols;
+            this.rowIndices = new int[rows][];
+            this.rowValues = new double[rows][];
+            this.rowCounts = new int[rows];
+        }
+
+        public void setRow(int row, int[] indices, double[] values, int count) {
+            rowIndices[row] = indices;
+            rowValues[row] = values;
+            rowCounts[row] = count;
+        }
+
+        public SparseMatrix build() {
+            int[] pointers = new int[rows + 1];
+            for (int i = 0; i < rows; i++) {
+                pointers[i + 1] = pointers[i] + rowCounts[i];
+            }
+            int[] indices = new int[pointers[rows]];
+            double[] values = new double[pointers[rows]];
+            for (int i = 0; i < rows; i++) {
+                if (rowCounts[i] > 0) {
+                    System.arraycopy(rowIndices[i], 0, indices, pointers[i], rowCounts[i]);
+                    System.arraycopy(rowValues[i], 0, values, pointers[i], rowCounts[i]);
+                }
+            }
+            return new SparseMatrix(VectorOrientation.ROW_MAJOR, rows, cols, pointers, indices, values);
+        }
+    }
+}
@@ -1,5 +1,10 @@
 package parser;
 
+import memory.MappedMatrix;
+import memory.SharedMatrix;
+import memory.SparseMatrix;
+
+import java.util.ArrayList;
 import java.util.List;
 
 public class ComputationNode {
@@ -7,6 +12,9 @@ public class ComputationNode {
     private ComputationNodeType nodeType;
     private List<ComputationNode> children = null;
     private double[][] matrix = null; // only used for MATRIX nodes
+    private SharedMatrix sharedMatrix = null; // engine-side result of a MATRIX node, may be a transposed view
+    private SparseMatrix sparseMatrix = null; // CSR form of a MATRIX node that is mostly zeros, see resolve
+    private MappedMatrix mappedMatrix = null; // operand memory-mapped from a binary file
 
     public ComputationNode(String operatorStr, List<ComputationNode> children) throws IllegalArgumentException {
         this.nodeType = mapOperator(operatorStr);
@@ -38,6 +46,16 @@ public class ComputationNode {
         this.matrix = matrix;
     }
 
+    public ComputationNode(SparseMatrix sparseMatrix) {
+        this.nodeType = ComputationNodeType.MATRIX;
+        this.sparseMatrix = sparseMatrix.toCsr();
+    }
+
+    public ComputationNode(MappedMatrix mappedMatrix) {
+        this.nodeType = ComputationNodeType.MATRIX;
+        this.mappedMatrix = mappedMatrix;
+    }
+
     public ComputationNodeType getNodeType() {
         return nodeType;
     }
@@ -46,6 +64,25 @@ public class ComputationNode {
         return children;
     }
 
+    //Replaces the operands of an operator node, used by the planning passes to restructure the tree
+    public void setChildren(List<ComputationNode> children) {
+        if (nodeType == ComputationNodeType.MATRIX) {
+            throw new IllegalStateException("A MATRIX node has no children.");
+        }
+        this.children = children;
+    }
+
+    //Turns this node into a copy of other (an equal expression), used by the planning passes to replace the root,
+    //which the caller still holds
+    public void replaceWith(ComputationNode other) {
+        this.nodeType = other.nodeType;
+        this.children = other.children;
+        this.matrix = other.matrix;
+        this.sharedMatrix = other.sharedMatrix;
+        this.sparseMatrix = other.sparseMatrix;
+        this.mappedMatrix = other.mappedMatrix;
+    }
+
     /**
      * Recursively finds the first resolvable node in the tree.
      * A resolvable node is defined as a node that is not of type MATRIX,
@@ -71,13 +108,19 @@ public class ComputationNode {
      * are nested in a left-associative manner.
      * For example, A + B + C becomes (A + B) + C.
      * Effectively, this converts n-ary operations (n > 2) into binary operations.
+     * The whole subtree is nested, so n-ary operators below the root are made binary as well.
      */
     public void associativeNesting() {
-        if (children != null && children.size() > 2) {
-            ComputationNode lastChild = children.remove(children.size() - 1);
-            ComputationNode newNode = new ComputationNode(nodeType, children);
+        if (children == null) {
+            return;
+        }
+        if (children.size() > 2) {
+            ComputationNode lastChild = children.get(children.size() - 1);
+            ComputationNode newNode = new ComputationNode(nodeType, new ArrayList<>(children.subList(0, children.size() - 1)));
             children = List.of(newNode, lastChild);
-            newNode.associativeNesting();
+        }
+        for (ComputationNode child : children) {
+            child.associativeNesting();
         }
     }
 
@@ -90,12 +133,119 @@ public class ComputationNode {
         this.matrix = matrix;
     }
 
+    /**
+     * Resolves this node with a matrix that is kept in the engine format, e.g. a transposed view.
+     * The row-major double[][] is only built if someone asks for it with getMatrix.
+     */
+    public void resolve(SharedMatrix sharedMatrix) {
+        this.nodeType = ComputationNodeType.MATRIX;
+        this.children = null;
+        this.matrix = null;
+        this.sharedMatrix = sharedMatrix;
+    }
+
+    /**
+     * Resolves this node with a sparse matrix. The dense double[][] is only built on demand.
+     * A CSC matrix (e.g. a transposed view) is converted to CSR here, once: the kernels and readRow work on CSR,
+     * and the node can be read by several threads, so it is not converted later on a read.
+     */
+    public void resolve(SparseMatrix sparseMatrix) {
+        this.nodeType = ComputationNodeType.MATRIX;
+        this.children = null;
+        this.matrix = null;
+        this.sparseMatrix = sparseMatrix.toCsr();
+    }
+
+    /**
+     * Resolves this node with a memory-mapped matrix, e.g. a result read from the result cache.
+     */
+    public void resolve(MappedMatrix mappedMatrix) {
+        this.nodeType = ComputationNodeType.MATRIX;
+        this.children = null;
+        this.matrix = null;
+        this.mappedMatrix = mappedMatrix;
+    }
+
     public double[][] getMatrix() {
+        if (matrix == null && sharedMatrix != null) {
+            matrix = sharedMatrix.readRowMajor();
+        }
+        if (matrix == null && sparseMatrix != null) {
+            matrix = sparseMatrix.readRowMajor();
+        }
+        if (matrix == null && mappedMatrix != null) {
+            matrix = mappedMatrix.readRowMajor();
+        }
         if (matrix == null) {
             throw new IllegalStateException("This node does not contain a matrix.");
         }
         return matrix;
     }
 
+    //Number of rows of a MATRIX node, whatever form its matrix is kept in
+    public int rows() {
+        if (sharedMatrix != null) {
+            return sharedMatrix.rows();
+        }
+        if (sparseMatrix != null) {
+            return sparseMatrix.rows();
+        }
+        if (mappedMatrix != null) {
+            return mappedMatrix.rows();
+        }
+        return getMatrix().length;
+    }
+
+    public int cols() {
+        if (sharedMatrix != null) {
+            return sharedMatrix.cols();
+        }
+        if (sparseMatrix != null) {
+            return sparseMatrix.cols();
+        }
+        if (mappedMatrix != null) {
+            return mappedMatrix.cols();
+        }
+        return getMatrix().length == 0 ? 0 : getMatrix()[0].length;
+    }
+
+    /**
+     * Copies row `row` of a MATRIX node into target (at least cols() long) straight from its storage,
+     * without building the whole double[][].
+     */
+    public void readRow(int row, double[] target) {
+        if (sharedMatrix != null) {
+            sharedMatrix.readRow(row, target);
+        } else if (sparseMatrix != null) {
+            sparseMatrix.readRow(row, target);
+        } else if (mappedMatrix != null) {
+            mappedMatrix.readRow(row, target);
+        } else {
+            double[] source = getMatrix()[row];
+            System.arraycopy(source, 0, target, 0, source.length);
+        }
+    }
+
+    /**
+     * Returns the engine-side matrix of a resolved node, or null if the node only holds a double[][].
+     */
+    public SharedMatrix getSharedMatrix() {
+        return sharedMatrix;
+    }
+
+    /**
+     * Returns the sparse matrix of a MATRIX node, or null if the node is dense.
+     */
+    public SparseMatrix getSparseMatrix() {
+        return sparseMatrix;
+    }
+
+    /**
+     * Returns the memory-mapped matrix of a MATRIX leaf read from a binary file, or null.
+     */
+    public MappedMatrix getMappedMatrix() {
+        return mappedMatrix;
+    }
+
 
 }
\ No newline at end of file
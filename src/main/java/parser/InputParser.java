@@ -1,68 +1,226 @@
 package parser;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.NumberInput;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
+import memory.MappedMatrix;
+import memory.SparseMatrix;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.text.ParseException;
 import java.util.*;
 
+/**
+ * Streaming parser of the input JSON file.
+ * The file is read token by token with Jackson's JsonParser: numbers go straight into the double[] rows
+ * of the matrices and the ComputationNodes are built in the same pass, without a JsonNode tree in between.
+ * Only the error paths build small JsonNodes, to report the offending JSON text like before.
+ * A matrix operand can also point to a binary file instead of being inlined:
+ * {"file": "a.bin", "rows": N, "cols": M} for raw little-endian doubles in row-major order, or
+ * {"file": "a.npy"} for a float64 .npy file. Relative paths are resolved against the input file's directory.
+ * The file is memory-mapped, see MappedMatrix.
+ */
 public class InputParser {
 
     private final ObjectMapper mapper = new ObjectMapper();
+    private final JsonFactory factory = mapper.getFactory();
+
+    private File inputFile; // the file being parsed, re-read to report invalid nodes
 
     public ComputationNode parse(String inputPath) throws ParseException {
-        try {
-            File inputFile = new File(inputPath);
-            JsonNode rootJsonNode = mapper.readTree(inputFile);
-            ComputationNode root = parseJsonNode(rootJsonNode);
-            return root;
+        inputFile = new File(inputPath);
+        try (JsonParser parser = factory.createParser(inputFile)) {
+            JsonToken token = parser.nextToken();
+            if (token == null) {
+                //an empty file is read as a missing node, which has no text
+                throw new ParseException("Invalid node structure: ", 0);
+            }
+            return parseNode(parser);
         } catch (IOException e) {
             throw new ParseException("Failed to read the input JSON file: " + e.getMessage(), 0);
         }
     }
 
-    private ComputationNode parseJsonNode(JsonNode jsonNode) throws ParseException {
-        if (jsonNode.has("operator") && jsonNode.has("operands")) {
-            String operatorStr = jsonNode.get("operator").asText();
-            ArrayNode operandJsonNodes = (ArrayNode) jsonNode.get("operands");
-            List<ComputationNode> operands = new ArrayList<>();
-            for (int i = 0; i < operandJsonNodes.size(); i++) {
-                operands.add(parseJsonNode(operandJsonNodes.get(i)));
+    //Parses the value starting at the current token and leaves the parser on its last token
+    private ComputationNode parseNode(JsonParser parser) throws IOException, ParseException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.START_OBJECT) {
+            return parseObject(parser);
+        }
+        if (token == JsonToken.START_ARRAY) {
+            return parseMatrix(parser);
+        }
+        throw new ParseException("Invalid node structure: " + mapper.readTree(parser).toString(), 0);
+    }
+
+    //An operator node, or a matrix stored in a binary file
+    private ComputationNode parseObject(JsonParser parser) throws IOException, ParseException {
+        long start = parser.currentTokenLocation().getByteOffset();
+        String operatorStr = null;
+        List<ComputationNode> operands = null;
+        boolean validOperands = true;
+        String file = null;
+        int rows = -1;
+        int cols = -1;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("operator".equals(field)) {
+                //same as JsonNode.asText: the text of a scalar, empty for arrays and objects
+                if (value.isStructStart()) {
+                    parser.skipChildren();
+                    operatorStr = "";
+                } else {
+                    operatorStr = parser.getText();
+                }
+            } else if ("operands".equals(field)) {
+                if (value == JsonToken.START_ARRAY) {
+                    operands = new ArrayList<>();
+                    validOperands = true;
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        operands.add(parseNode(parser));
+                    }
+                } else {
+                    parser.skipChildren();
+                    operands = null;
+                    validOperands = false;
+                }
+            } else if ("file".equals(field) && value == JsonToken.VALUE_STRING) {
+                file = parser.getText();
+            } else if ("rows".equals(field) && value == JsonToken.VALUE_NUMBER_INT) {
+                rows = parser.getIntValue();
+            } else if ("cols".equals(field) && value == JsonToken.VALUE_NUMBER_INT) {
+                cols = parser.getIntValue();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (operatorStr == null && file != null) {
+            return mapMatrixFile(file, rows, cols);
+        }
+        if (operatorStr == null || operands == null || !validOperands) {
+            throw new ParseException("Invalid node structure: " + nodeTextAt(start), 0);
+        }
+        return new ComputationNode(operatorStr, operands);
+    }
+
+    private ComputationNode parseMatrix(JsonParser parser) throws IOException, ParseException {
+        JsonToken token = parser.nextToken();
+        if (token == JsonToken.END_ARRAY) {
+            throw new ParseException("Empty array cannot be parsed as DataNode.", 0);
+        }
+        // Check if it's a vector (1D array)
+        if (token.isNumeric()) {
+            throw new ParseException("Vectors (1D arrays) are not supported as standalone nodes.", 0);
+        }
+        // Otherwise, it's a matrix (2D array). The first row is read into a growing buffer,
+        // it sets the width of all the other rows.
+        List<double[]> rows = new ArrayList<>();
+        int width = -1;
+        while (token != JsonToken.END_ARRAY) {
+            if (token != JsonToken.START_ARRAY) {
+                //not a row: same checks as before, by size first
+                JsonNode rowJsonNode = mapper.readTree(parser);
+                int size = rowJsonNode.size();
+                if (width == -1) {
+                    width = size;
+                }
+                if (size != width) {
+                    throw new ParseException("Inconsistent row sizes in matrix.", 0);
+                }
+                throw new ParseException("Invalid matrix row: " + rowJsonNode.toString(), 0);
             }
-            return new ComputationNode(operatorStr, operands);
+            double[] row = width == -1 ? readFirstRow(parser) : readRow(parser, width);
+            width = row.length;
+            rows.add(row);
+            token = parser.nextToken();
         }
-        else if (jsonNode.isArray()) {
-            if (jsonNode.size() == 0) {
-                throw new ParseException("Empty array cannot be parsed as DataNode.", 0);
+        double[][] matrix = rows.toArray(new double[0][]);
+        //Mostly zero matrices are kept in compressed form, see SparseMatrix
+        if (SparseMatrix.isSparseEnough(matrix)) {
+            return new ComputationNode(SparseMatrix.fromRowMajor(matrix));
+        }
+        return new ComputationNode(matrix);
+    }
+
+    private double[] readFirstRow(JsonParser parser) throws IOException {
+        double[] row = new double[16];
+        int size = 0;
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (size == row.length) {
+                row = Arrays.copyOf(row, size * 2);
             }
-            // Check if it's a vector (1D array)
-            if (jsonNode.get(0).isNumber()) {
-                throw new ParseException("Vectors (1D arrays) are not supported as standalone nodes.", 0);
+            row[size++] = readDouble(parser);
+        }
+        return Arrays.copyOf(row, size);
+    }
+
+    private double[] readRow(JsonParser parser, int width) throws IOException, ParseException {
+        double[] row = new double[width];
+        int size = 0;
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (size == width) {
+                throw new ParseException("Inconsistent row sizes in matrix.", 0);
             }
-            // Otherwise, it's a matrix (2D array)
-            else {
-                double[][] matrix = new double[jsonNode.size()][];
-                int width = jsonNode.get(0).size();
-                for (int i = 0; i < jsonNode.size(); i++) {
-                    JsonNode rowJsonNode = jsonNode.get(i);
-                    if (rowJsonNode.size() != width) {
-                        throw new ParseException("Inconsistent row sizes in matrix.", 0);
-                    }
-                    if (!rowJsonNode.isArray()) {
-                        throw new ParseException("Invalid matrix row: " + rowJsonNode.toString(), 0);
-                    }
-                    matrix[i] = new double[rowJsonNode.size()];
-                    for (int j = 0; j < rowJsonNode.size(); j++) {
-                        matrix[i][j] = rowJsonNode.get(j).asDouble();
-                    }
+            row[size++] = readDouble(parser);
+        }
+        if (size != width) {
+            throw new ParseException("Inconsistent row sizes in matrix.", 0);
+        }
+        return row;
+    }
+
+    //Same conversion as JsonNode.asDouble: numbers, numeric strings and booleans, 0 for anything else
+    private double readDouble(JsonParser parser) throws IOException {
+        switch (parser.currentToken()) {
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return parser.getDoubleValue();
+            case VALUE_STRING:
+                return NumberInput.parseAsDouble(parser.getText(), 0.0);
+            case VALUE_TRUE:
+                return 1.0;
+            case START_ARRAY:
+            case START_OBJECT:
+                parser.skipChildren();
+                return 0.0;
+            default:
+                return 0.0;
+        }
+    }
+
+    private ComputationNode mapMatrixFile(String file, int rows, int cols) throws ParseException {
+        Path path = inputFile.toPath().resolveSibling(file);
+        try {
+            if (file.endsWith(".npy")) {
+                MappedMatrix matrix = MappedMatrix.mapNpy(path);
+                if ((rows != -1 && rows != matrix.rows()) || (cols != -1 && cols != matrix.cols())) {
+                    throw new ParseException("Matrix file " + file + " is " + matrix.rows() + "x" + matrix.cols()
+                            + ", not " + rows + "x" + cols + ".", 0);
                 }
                 return new ComputationNode(matrix);
             }
+            if (rows <= 0 || cols <= 0) {
+                throw new ParseException("Matrix file " + file + " needs positive rows and cols.", 0);
+            }
+            return new ComputationNode(MappedMatrix.mapRaw(path, rows, cols));
+        } catch (IOException | IllegalArgumentException e) {
+            throw new ParseException("Failed to read the matrix file " + file + ": " + e.getMessage(), 0);
         }
-        else { throw new ParseException("Invalid node structure: " + jsonNode.toString(), 0); }
     }
 
-}
\ No newline at end of file
+    //Reads the JSON value that starts at the given byte offset of the input file, for error messages only
+    private String nodeTextAt(long offset) throws IOException {
+        try (InputStream in = Files.newInputStream(inputFile.toPath())) {
+            in.skipNBytes(offset);
+            return mapper.readTree(in).toString();
+        }
+    }
+}
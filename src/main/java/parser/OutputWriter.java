@@ -2,33 +2,158 @@ package parser;
 
 import java.io.File;
 import java.io.IOException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.StreamWriteFeature;
+import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
+
+/**
+ * Writes the result (or the error) of a computation.
+ * The result is streamed row by row with a JsonGenerator, straight from the storage of the result node
+ * (see ComputationNode.readRow), so no double[][] copy of the whole matrix is needed. Doubles are written with Jackson's fast double writer.
+ * The output is indented unless compact is asked for.
+ * Results written to a ".npy" file are stored in the NumPy binary format (little-endian float64, C order),
+ * and results written to a ".bin" file as raw little-endian doubles in row-major order.
+ * Errors are always written as JSON.
+ */
 public class OutputWriter {
 
-    private static final ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+    private static final JsonFactory factory = JsonFactory.builder()
+            .enable(StreamWriteFeature.USE_FAST_DOUBLE_WRITER)
+            .build();
 
-    public static class ResultMatrix {
-        public double[][] result;
-        public ResultMatrix(double[][] result) { this.result = result; }
-    }
+    private static final int BINARY_CHUNK = 1 << 16; // bytes written per channel call
 
-    public static class ErrorMessage {
-        public String error;
-        public ErrorMessage(String error) { this.error = error; }
+    //Read access to the rows of a result, whatever its storage is
+    private interface RowSource {
+        int rows();
+        int cols();
+        void readRow(int row, double[] target);
     }
 
     public OutputWriter() {}
 
     public static void write(double[][] matrix, String filePath) throws IOException {
-        File file = new File(filePath);
-        mapper.writerWithDefaultPrettyPrinter().writeValue(file, new ResultMatrix(matrix));
+        write(rowsOf(matrix), filePath, false);
+    }
+
+    /**
+     * Writes the matrix of a resolved node. Engine-side and sparse results are streamed from their storage.
+     */
+    public static void write(ComputationNode result, String filePath, boolean compact) throws IOException {
+        write(rowsOf(result), filePath, compact);
     }
 
     public static void write(String error, String filePath) throws IOException {
-        File file = new File(filePath);
-        mapper.writerWithDefaultPrettyPrinter().writeValue(file, new ErrorMessage(error));
+        write(error, filePath, false);
+    }
+
+    public static void write(String error, String filePath, boolean compact) throws IOException {
+        try (JsonGenerator generator = createGenerator(filePath, compact)) {
+            generator.writeStartObject();
+            generator.writeStringField("error", error);
+            generator.writeEndObject();
+        }
+    }
+
+    private static void write(RowSource source, String filePath, boolean compact) throws IOException {
+        if (filePath.endsWith(".npy")) {
+            writeBinary(source, filePath, true);
+        } else if (filePath.endsWith(".bin")) {
+            writeBinary(source, filePath, false);
+        } else {
+            writeJson(source, filePath, compact);
+        }
+    }
+
+    private static JsonGenerator createGenerator(String filePath, boolean compact) throws IOException {
+        JsonGenerator generator = factory.createGenerator(new File(filePath), JsonEncoding.UTF8);
+        if (!compact) {
+            generator.setPrettyPrinter(new DefaultPrettyPrinter());
+        }
+        return generator;
+    }
+
+    private static void writeJson(RowSource source, String filePath, boolean compact) throws IOException {
+        double[] row = new double[source.cols()];
+        try (JsonGenerator generator = createGenerator(filePath, compact)) {
+            generator.writeStartObject();
+            generator.writeFieldName("result");
+            generator.writeStartArray();
+            for (int i = 0; i < source.rows(); i++) {
+                source.readRow(i, row);
+                generator.writeArray(row, 0, row.length);
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+    }
+
+    private static void writeBinary(RowSource source, String filePath, boolean npy) throws IOException {
+        int rows = source.rows();
+        int cols = source.cols();
+        double[] row = new double[cols];
+        ByteBuffer buffer = ByteBuffer.allocate(Math.max(BINARY_CHUNK, 8 * cols)).order(ByteOrder.LITTLE_ENDIAN);
+        try (FileChannel channel = FileChannel.open(new File(filePath).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (npy) {
+                buffer.put(npyHeader(rows, cols));
+            }
+            for (int i = 0; i < rows; i++) {
+                source.readRow(i, row);
+                if (buffer.remaining() < 8 * cols) {
+                    flush(channel, buffer);
+                }
+                buffer.asDoubleBuffer().put(row, 0, cols);
+                buffer.position(buffer.position() + 8 * cols);
+            }
+            flush(channel, buffer);
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    //NumPy format 1.0 header: magic, version, header length, then a dict literal padded to 64 bytes
+    static byte[] npyHeader(int rows, int cols) {
+        String dict = "{'descr': '<f8', 'fortran_order': False, 'shape': (" + rows + ", " + cols + "), }";
+        int unpadded = 10 + dict.length() + 1;
+        int padding = (64 - unpadded % 64) % 64;
+        String header = dict + " ".repeat(padding) + "\n";
+        ByteBuffer bytes = ByteBuffer.allocate(10 + header.length()).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.put((byte) 0x93).put("NUMPY".getBytes(StandardCharsets.US_ASCII));
+        bytes.put((byte) 1).put((byte) 0);
+        bytes.putShort((short) header.length());
+        bytes.put(header.getBytes(StandardCharsets.US_ASCII));
+        return bytes.array();
+    }
+
+    private static RowSource rowsOf(ComputationNode result) {
+        return new RowSource() {
+            public int rows() { return result.rows(); }
+            public int cols() { return result.cols(); }
+            public void readRow(int row, double[] target) { result.readRow(row, target); }
+        };
+    }
+
+    private static RowSource rowsOf(double[][] matrix) {
+        return new RowSource() {
+            public int rows() { return matrix.length; }
+            public int cols() { return matrix.length == 0 ? 0 : matrix[0].length; }
+            public void readRow(int row, double[] target) { System.arraycopy(matrix[row], 0, target, 0, target.length); }
+        };
     }
 
 }
@@ -0,0 +1,195 @@
+package planner;
+
+import parser.ComputationNode;
+import parser.ComputationNodeType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rewrites the tree with cheap algebraic identities before it is planned, every removed node is a step less:
+ *  T(T(A)) -> A
+ *  -(-A) -> A
+ *  T(A) * T(B) -> T(B * A), for any number of factors: T(A) * T(B) * T(C) -> T(C * B * A)
+ *  (-A) * (-B) -> A * B, the negations of a product (its factors and a negation on top) cancel in pairs
+ *  a negation that is left goes to the smallest of the factors and the product itself, negating costs its size
+ * The product rules are only applied when the shapes of the product are known and fit (see ShapeInference),
+ * a product that can't be computed is left as it is for the engine to report.
+ * A node is only changed by giving it operands equal to the old ones, everything else is built as new nodes,
+ * so a node that appears in several places stays right in all of them. The root keeps its identity
+ * (see ComputationNode.replaceWith). Runs on the n-ary tree, before the chain optimizer.
+ */
+public class AlgebraicRewriter {
+
+    private int doubleTransposes = 0;
+    private int doubleNegations = 0;
+    private int transposedProducts = 0;
+    private int cancelledNegations = 0; // pairs
+    private int negationsMoved = 0;
+
+    /**
+     * Rewrites the tree in place and returns the root, which is never replaced.
+     */
+    public ComputationNode rewrite(ComputationNode root) {
+        ComputationNode rewritten = rewrite(root, new IdentityHashMap<>(), new IdentityHashMap<>());
+        if (rewritten != root) {
+            root.replaceWith(rewritten);
+        }
+        return root;
+    }
+
+    //Returns the rewritten node, after rewriting its operands. Every node is rewritten once.
+    private ComputationNode rewrite(ComputationNode node, Map<ComputationNode, Shape> shapes,
+                                    Map<ComputationNode, ComputationNode> rewritten) {
+        if (node.getNodeType() == ComputationNodeType.MATRIX || node.getChildren() == null) {
+            return node;
+        }
+        ComputationNode known = rewritten.get(node);
+        if (known != null) {
+            return known;
+        }
+        List<ComputationNode> operands = new ArrayList<>(node.getChildren().size());
+        boolean changed = false;
+        for (ComputationNode child : node.getChildren()) {
+            ComputationNode operand = rewrite(child, shapes, rewritten);
+            changed |= operand != child;
+            operands.add(operand);
+        }
+        if (changed) {
+            node.setChildren(operands);
+        }
+        ComputationNode result = apply(node, shapes);
+        rewritten.put(node, result);
+        return result;
+    }
+
+    private ComputationNode apply(ComputationNode node, Map<ComputationNode, Shape> shapes) {
+        switch (node.getNodeType()) {
+            case TRANSPOSE: {
+                ComputationNode operand = onlyOperand(node);
+                if (operand != null && onlyOperand(operand) != null && operand.getNodeType() == ComputationNodeType.TRANSPOSE) {
+                    doubleTransposes++;
+                    return onlyOperand(operand);
+                }
+                return node;
+            }
+            case NEGATE: {
+                ComputationNode operand = onlyOperand(node);
+                if (operand == null) {
+                    return node;
+                }
+                if (operand.getNodeType() == ComputationNodeType.NEGATE && onlyOperand(operand) != null) {
+                    doubleNegations++;
+                    return onlyOperand(operand);
+                }
+                if (operand.getNodeType() == ComputationNodeType.MULTIPLY) {
+                    return product(operand, true, node, shapes);
+                }
+                return node;
+            }
+            case MULTIPLY:
+                return product(node, false, node, shapes);
+            default:
+                return node;
+        }
+    }
+
+    //The single operand of a unary node, or null if it doesn't have exactly one
+    private static ComputationNode onlyOperand(ComputationNode node) {
+        List<ComputationNode> children = node.getChildren();
+        return children != null && children.size() == 1 ? children.get(0) : null;
+    }
+
+    /**
+     * Applies the product rules to product, negated if it is the operand of a NEGATE.
+     * original is what stays if nothing applies: the NEGATE node, or the product itself.
+     */
+    private ComputationNode product(ComputationNode product, boolean negated, ComputationNode original,
+                                    Map<ComputationNode, Shape> shapes) {
+        List<ComputationNode> factors = product.getChildren();
+        if (factors.size() < 2 || ShapeInference.infer(product, shapes) == null) {
+            return original;
+        }
+        int negations = negated ? 1 : 0;
+        int spot = -1; // where the negation is when there is only one: a factor, or -1 for the product
+        List<ComputationNode> plain = new ArrayList<>(factors.size()); // the factors without their negation
+        boolean allTransposed = true;
+        for (int i = 0; i < factors.size(); i++) {
+            ComputationNode factor = factors.get(i);
+            if (factor.getNodeType() == ComputationNodeType.NEGATE && onlyOperand(factor) != null) {
+                negations++;
+                spot = i;
+                factor = onlyOperand(factor);
+            }
+            allTransposed &= factor.getNodeType() == ComputationNodeType.TRANSPOSE && onlyOperand(factor) != null;
+            plain.add(factor);
+        }
+        boolean odd = negations % 2 == 1;
+        if (!allTransposed) {
+            if (negations == 0 || (negations == 1 && smallest(plain, spot, shapes) == spot)) {
+                //already in its best form
+                return original;
+            }
+            cancelledNegations += negations / 2;
+            ComputationNode result = new ComputationNode(ComputationNodeType.MULTIPLY, plain);
+            if (odd) {
+                negationsMoved++;
+                result = negate(result, spot, shapes);
+            }
+            return result;
+        }
+        //T(A) * T(B) = T(B * A): one transpose instead of one per factor
+        transposedProducts++;
+        cancelledNegations += negations / 2;
+        List<ComputationNode> reversed = new ArrayList<>(plain.size());
+        for (ComputationNode factor : plain) {
+            reversed.add(onlyOperand(factor));
+        }
+        Collections.reverse(reversed);
+        ComputationNode inner = new ComputationNode(ComputationNodeType.MULTIPLY, reversed);
+        if (odd) {
+            inner = negate(inner, -1, shapes);
+        }
+        return new ComputationNode(ComputationNodeType.TRANSPOSE, List.of(inner));
+    }
+
+    //Negates a new product on its smallest factor, or on top if the product is smaller (preferred on a tie with spot)
+    private ComputationNode negate(ComputationNode product, int spot, Map<ComputationNode, Shape> shapes) {
+        List<ComputationNode> factors = new ArrayList<>(product.getChildren());
+        int smallest = smallest(factors, spot, shapes);
+        if (smallest == -1) {
+            return new ComputationNode(ComputationNodeType.NEGATE, List.of(product));
+        }
+        factors.set(smallest, new ComputationNode(ComputationNodeType.NEGATE, List.of(factors.get(smallest))));
+        product.setChildren(factors);
+        return product;
+    }
+
+    //Index of the factor with the fewest elements, -1 for the product itself. spot wins ties.
+    private static int smallest(List<ComputationNode> factors, int spot, Map<ComputationNode, Shape> shapes) {
+        Shape product = ShapeInference.infer(new ComputationNode(ComputationNodeType.MULTIPLY, factors), shapes);
+        int best = spot;
+        long bestSize = spot == -1 ? product.elements() : ShapeInference.infer(factors.get(spot), shapes).elements();
+        if (product.elements() < bestSize) {
+            best = -1;
+            bestSize = product.elements();
+        }
+        for (int i = 0; i < factors.size(); i++) {
+            long size = ShapeInference.infer(factors.get(i), shapes).elements();
+            if (size < bestSize) {
+                best = i;
+                bestSize = size;
+            }
+        }
+        return best;
+    }
+
+    public String getReport() {
+        return "algebraic rewrites: " + doubleTransposes + " T(T(A)) -> A, " + doubleNegations + " -(-A) -> A, "
+                + transposedProducts + " T(A) * T(B) -> T(B * A), " + cancelledNegations + " (-A) * (-B) -> A * B, "
+                + negationsMoved + " negations moved to a smaller operand" + '\n';
+    }
+}
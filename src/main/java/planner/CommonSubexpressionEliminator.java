@@ -0,0 +1,159 @@
+package planner;
+
+import parser.ComputationNode;
+import parser.ComputationNodeType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns the computation tree into a DAG in which every distinct subexpression appears once.
+ * Subtrees are hashed structurally, bottom up: a leaf by its matrix contents (values compared bit by bit),
+ * an operator by its type and the identity of its already deduplicated operands.
+ * Equal subtrees are replaced by one shared node. The engine resolves a node in place, so a shared node is
+ * computed once and all its parents see the result. The engine never writes into an operand's storage
+ * (see LinearAlgebraEngine.loadWritable), so sharing a resolved node is safe.
+ * Memory-mapped and engine-side leaves are only merged if they are the same object, their contents are not read.
+ */
+public class CommonSubexpressionEliminator {
+
+    private int nodesVisited = 0;
+    private int nodesDeduplicated = 0;
+
+    //Structural key of a node whose operands are already unique
+    private static final class Key {
+        private final ComputationNodeType type;
+        private final List<ComputationNode> operands; // compared by identity
+        private final ComputationNode leaf; // compared by contents
+        private final int hash;
+
+        private Key(ComputationNode node, List<ComputationNode> operands) {
+            this.type = node.getNodeType();
+            this.operands = operands;
+            this.leaf = type == ComputationNodeType.MATRIX ? node : null;
+            int h = type.hashCode();
+            if (leaf != null) {
+                h = 31 * h + leafHash(leaf);
+            } else {
+                for (ComputationNode operand : operands) {
+                    h = 31 * h + System.identityHashCode(operand);
+                }
+            }
+            this.hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            if (hash != key.hash || type != key.type) {
+                return false;
+            }
+            if (leaf != null) {
+                return sameLeaf(leaf, key.leaf);
+            }
+            if (operands.size() != key.operands.size()) {
+                return false;
+            }
+            for (int i = 0; i < operands.size(); i++) {
+                if (operands.get(i) != key.operands.get(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Deduplicates the tree in place and returns the root, which is never replaced.
+     */
+    public ComputationNode eliminate(ComputationNode root) {
+        Map<Key, ComputationNode> unique = new HashMap<>();
+        Map<ComputationNode, ComputationNode> canonical = new IdentityHashMap<>();
+        canonical(root, unique, canonical);
+        return root;
+    }
+
+    //Returns the shared node equal to node, after deduplicating its operands
+    private ComputationNode canonical(ComputationNode node, Map<Key, ComputationNode> unique,
+                                      Map<ComputationNode, ComputationNode> canonical) {
+        ComputationNode known = canonical.get(node);
+        if (known != null) {
+            //already a DAG: this exact node was seen through another parent
+            return known;
+        }
+        nodesVisited++;
+        List<ComputationNode> operands = null;
+        if (node.getNodeType() != ComputationNodeType.MATRIX) {
+            operands = new ArrayList<>(node.getChildren().size());
+            boolean changed = false;
+            for (ComputationNode child : node.getChildren()) {
+                ComputationNode shared = canonical(child, unique, canonical);
+                changed |= shared != child;
+                operands.add(shared);
+            }
+            if (changed) {
+                node.setChildren(operands);
+            }
+        }
+        ComputationNode existing = unique.putIfAbsent(new Key(node, operands), node);
+        ComputationNode result = existing != null ? existing : node;
+        if (existing != null) {
+            nodesDeduplicated++;
+        }
+        canonical.put(node, result);
+        return result;
+    }
+
+    private static int leafHash(ComputationNode leaf) {
+        if (leaf.getMappedMatrix() != null) {
+            return System.identityHashCode(leaf.getMappedMatrix());
+        }
+        if (leaf.getSharedMatrix() != null) {
+            return System.identityHashCode(leaf.getSharedMatrix());
+        }
+        if (leaf.getSparseMatrix() != null) {
+            return leaf.getSparseMatrix().contentHash();
+        }
+        int hash = 1;
+        for (double[] row : leaf.getMatrix()) {
+            hash = 31 * hash + Arrays.hashCode(row);
+        }
+        return hash;
+    }
+
+    private static boolean sameLeaf(ComputationNode a, ComputationNode b) {
+        if (a.getMappedMatrix() != null || b.getMappedMatrix() != null) {
+            return a.getMappedMatrix() == b.getMappedMatrix();
+        }
+        if (a.getSharedMatrix() != null || b.getSharedMatrix() != null) {
+            return a.getSharedMatrix() == b.getSharedMatrix();
+        }
+        if (a.getSparseMatrix() != null || b.getSparseMatrix() != null) {
+            return a.getSparseMatrix() != null && b.getSparseMatrix() != null
+                    && a.getSparseMatrix().contentEquals(b.getSparseMatrix());
+        }
+        //Arrays.equals on double[] compares the bits, like Double.equals
+        return Arrays.deepEquals(a.getMatrix(), b.getMatrix());
+    }
+
+    public int getNodesDeduplicated() {
+        return nodesDeduplicated;
+    }
+
+    public String getReport() {
+        return "common subexpressions: " + nodesDeduplicated + " of " + nodesVisited
+                + " nodes deduplicated" + '\n';
+    }
+}
@@ -0,0 +1,131 @@
+package planner;
+
+import parser.ComputationNode;
+import parser.ComputationNodeType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Picks the cheapest parenthesization of every MULTIPLY node with more than two operands.
+ * associativeNesting always nests left to right, so A*B*C runs as (A*B)*C whatever the shapes are.
+ * For a 1000x2 * 2x1000 * 1000x1 chain that builds a 1000x1000 intermediate, while A*(B*C) only needs a 2x1.
+ * This pass runs the classic O(n^3) dynamic programming over the operand shapes and rebuilds the node
+ * as a tree of binary multiplications in the optimal order.
+ * Chains whose shapes can't be inferred (or don't fit) are left as they are for the engine to report.
+ */
+public class MatrixChainOptimizer {
+
+    private static final Logger LOG = Logger.getLogger(MatrixChainOptimizer.class.getName());
+
+    private int chainsReordered = 0;
+    private long flopsSaved = 0;
+    private final List<String> plans = new ArrayList<>();
+
+    //Reorders all the multiplication chains of the tree in place
+    public void optimize(ComputationNode node) {
+        if (node.getNodeType() == ComputationNodeType.MATRIX) {
+            return;
+        }
+        for (ComputationNode child : node.getChildren()) {
+            optimize(child);
+        }
+        if (node.getNodeType() == ComputationNodeType.MULTIPLY && node.getChildren().size() > 2) {
+            reorder(node);
+        }
+    }
+
+    private void reorder(ComputationNode node) {
+        List<ComputationNode> operands = node.getChildren();
+        int n = operands.size();
+        //operand i is dims[i] x dims[i + 1]
+        long[] dims = new long[n + 1];
+        for (int i = 0; i < n; i++) {
+            Shape shape = ShapeInference.infer(operands.get(i));
+            if (shape == null || (i > 0 && dims[i] != shape.rows())) {
+                return;
+            }
+            dims[i] = shape.rows();
+            dims[i + 1] = shape.cols();
+        }
+
+        //cost[i][j] is the cheapest number of FLOPs for operands i..j, split[i][j] where that plan splits them
+        long[][] cost = new long[n][n];
+        int[][] split = new int[n][n];
+        for (int length = 2; length <= n; length++) {
+            for (int i = 0; i + length - 1 < n; i++) {
+                int j = i + length - 1;
+                cost[i][j] = Long.MAX_VALUE;
+                for (int k = i; k < j; k++) {
+                    long candidate = cost[i][k] + cost[k + 1][j] + flops(dims[i], dims[k + 1], dims[j + 1]);
+                    if (candidate < cost[i][j]) {
+                        cost[i][j] = candidate;
+                        split[i][j] = k;
+                    }
+                }
+            }
+        }
+
+        //cost of what associativeNesting would do: ((A1*A2)*A3)*...
+        long leftToRight = 0;
+        for (int k = 1; k < n; k++) {
+            leftToRight += flops(dims[0], dims[k], dims[k + 1]);
+        }
+        long optimal = cost[0][n - 1];
+        if (optimal >= leftToRight) {
+            //the default nesting is already optimal, keep it
+            return;
+        }
+
+        ComputationNode plan = build(operands, split, 0, n - 1);
+        node.setChildren(plan.getChildren());
+        chainsReordered++;
+        flopsSaved += leftToRight - optimal;
+        String description = describe(split, dims, 0, n - 1) + ": " + optimal + " FLOPs instead of "
+                + leftToRight + " left to right, " + (leftToRight - optimal) + " saved";
+        plans.add(description);
+        LOG.info("matrix chain of " + n + " operands reordered as " + description);
+    }
+
+    //Multiply-add count of an (m x k) * (k x n) product
+    private static long flops(long m, long k, long n) {
+        return 2 * m * k * n;
+    }
+
+    private static ComputationNode build(List<ComputationNode> operands, int[][] split, int i, int j) {
+        if (i == j) {
+            return operands.get(i);
+        }
+        int k = split[i][j];
+        return new ComputationNode(ComputationNodeType.MULTIPLY,
+                List.of(build(operands, split, i, k), build(operands, split, k + 1, j)));
+    }
+
+    //e.g. (A1[1000x2] * (A2[2x1000] * A3[1000x1]))
+    private static String describe(int[][] split, long[] dims, int i, int j) {
+        if (i == j) {
+            return "A" + (i + 1) + "[" + dims[i] + "x" + dims[i + 1] + "]";
+        }
+        int k = split[i][j];
+        return "(" + describe(split, dims, i, k) + " * " + describe(split, dims, k + 1, j) + ")";
+    }
+
+    public int getChainsReordered() {
+        return chainsReordered;
+    }
+
+    public long getFlopsSaved() {
+        return flopsSaved;
+    }
+
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+        report.append("matrix chains reordered: ").append(chainsReordered)
+                .append(", estimated FLOPs saved: ").append(flopsSaved).append('\n');
+        for (String plan : plans) {
+            report.append("  ").append(plan).append('\n');
+        }
+        return report.toString();
+    }
+}
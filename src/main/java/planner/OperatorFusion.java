@@ -0,0 +1,183 @@
+package planner;
+
+import parser.ComputationNode;
+import parser.ComputationNodeType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the patterns the engine computes as one fused step instead of two or three:
+ *  -(A + B)   one pass that adds and negates (Kernels.negateSum), no intermediate sum
+ *  A * B + C  the product starts as a copy of C and the GEMM kernel accumulates into it
+ *  A * T(B)   B is loaded row-major and read through its transposed view, T(B) is never a step of its own
+ * A * T(B) + C combines the last two. The tree is not changed: fuse returns the fused steps by their outer node,
+ * the inner nodes are absorbed and stay unresolved. An inner node is only absorbed if the outer node is its
+ * only use (a subexpression shared after CSE is computed once, for all its parents), and only dense
+ * subtrees are fused, sparse operands go to the sparse kernels unfused.
+ * The tree must already be binary (see ComputationNode.associativeNesting).
+ */
+public class OperatorFusion {
+
+    private int negatedSums = 0;
+    private int multiplyAdds = 0;
+    private int transposedMultiplies = 0;
+
+    //A fused step: its operands are the matrices the outer node and the absorbed nodes need
+    public static final class Fusion {
+        private final ComputationNode left; // A of -(A + B) and of the products
+        private final ComputationNode right; // B, without its transpose if rightTransposed
+        private final ComputationNode accumulated; // C of A * B + C, null otherwise
+        private final boolean negatedSum;
+        private final boolean rightTransposed;
+
+        private Fusion(ComputationNode left, ComputationNode right, ComputationNode accumulated,
+                       boolean negatedSum, boolean rightTransposed) {
+            this.left = left;
+            this.right = right;
+            this.accumulated = accumulated;
+            this.negatedSum = negatedSum;
+            this.rightTransposed = rightTransposed;
+        }
+
+        public ComputationNode getLeft() {
+            return left;
+        }
+
+        public ComputationNode getRight() {
+            return right;
+        }
+
+        public ComputationNode getAccumulated() {
+            return accumulated;
+        }
+
+        public boolean isNegatedSum() {
+            return negatedSum;
+        }
+
+        public boolean isRightTransposed() {
+            return rightTransposed;
+        }
+
+        //The nodes the fused step reads, in place of the outer node's children
+        public List<ComputationNode> getOperands() {
+            List<ComputationNode> operands = new ArrayList<>(List.of(left, right));
+            if (accumulated != null) {
+                operands.add(accumulated);
+            }
+            return operands;
+        }
+    }
+
+    /**
+     * Returns the fused steps of the tree, by the identity of their outer node.
+     */
+    public Map<ComputationNode, Fusion> fuse(ComputationNode root) {
+        Map<ComputationNode, Integer> uses = new IdentityHashMap<>();
+        countUses(root, uses, Collections.newSetFromMap(new IdentityHashMap<>()));
+        Map<ComputationNode, Fusion> fusions = new IdentityHashMap<>();
+        fuse(root, uses, new IdentityHashMap<>(), fusions, Collections.newSetFromMap(new IdentityHashMap<>()));
+        return fusions;
+    }
+
+    //How many operand slots refer to every node, A * A counts A twice
+    private void countUses(ComputationNode node, Map<ComputationNode, Integer> uses, Set<ComputationNode> visited) {
+        if (node.getNodeType() == ComputationNodeType.MATRIX || !visited.add(node)) {
+            return;
+        }
+        for (ComputationNode child : node.getChildren()) {
+            uses.merge(child, 1, Integer::sum);
+            countUses(child, uses, visited);
+        }
+    }
+
+    private void fuse(ComputationNode node, Map<ComputationNode, Integer> uses, Map<ComputationNode, Boolean> dense,
+                      Map<ComputationNode, Fusion> fusions, Set<ComputationNode> visited) {
+        if (node.getNodeType() == ComputationNodeType.MATRIX || !visited.add(node)) {
+            return;
+        }
+        Fusion fusion = isDense(node, dense) ? match(node, uses) : null;
+        List<ComputationNode> next = node.getChildren();
+        if (fusion != null) {
+            fusions.put(node, fusion);
+            //the absorbed nodes are not steps, their operands may start fused steps of their own
+            next = fusion.getOperands();
+        }
+        for (ComputationNode child : next) {
+            fuse(child, uses, dense, fusions, visited);
+        }
+    }
+
+    private Fusion match(ComputationNode node, Map<ComputationNode, Integer> uses) {
+        List<ComputationNode> children = node.getChildren();
+        switch (node.getNodeType()) {
+            case NEGATE: {
+                ComputationNode sum = children.get(0);
+                if (absorbable(sum, ComputationNodeType.ADD, uses)) {
+                    negatedSums++;
+                    return new Fusion(sum.getChildren().get(0), sum.getChildren().get(1), null, true, false);
+                }
+                return null;
+            }
+            case ADD: {
+                //the left product first, A * B + C * D accumulates the left product into C * D
+                for (int p = 0; p < 2; p++) {
+                    ComputationNode product = children.get(p);
+                    if (absorbable(product, ComputationNodeType.MULTIPLY, uses)) {
+                        multiplyAdds++;
+                        return multiply(product, children.get(1 - p), uses);
+                    }
+                }
+                return null;
+            }
+            case MULTIPLY: {
+                Fusion fusion = multiply(node, null, uses);
+                return fusion.isRightTransposed() ? fusion : null;
+            }
+            default:
+                return null;
+        }
+    }
+
+    //The product A * B, or A * T(B) when the transpose can be absorbed, accumulated into C if there is one
+    private Fusion multiply(ComputationNode product, ComputationNode accumulated, Map<ComputationNode, Integer> uses) {
+        ComputationNode left = product.getChildren().get(0);
+        ComputationNode right = product.getChildren().get(1);
+        if (absorbable(right, ComputationNodeType.TRANSPOSE, uses)) {
+            transposedMultiplies++;
+            return new Fusion(left, right.getChildren().get(0), accumulated, false, true);
+        }
+        return new Fusion(left, right, accumulated, false, false);
+    }
+
+    private static boolean absorbable(ComputationNode node, ComputationNodeType type, Map<ComputationNode, Integer> uses) {
+        return node.getNodeType() == type && uses.getOrDefault(node, 0) == 1;
+    }
+
+    //True if no leaf of the subtree is sparse
+    private static boolean isDense(ComputationNode node, Map<ComputationNode, Boolean> dense) {
+        if (node.getNodeType() == ComputationNodeType.MATRIX) {
+            return node.getSparseMatrix() == null;
+        }
+        Boolean known = dense.get(node);
+        if (known != null) {
+            return known;
+        }
+        boolean result = true;
+        for (ComputationNode child : node.getChildren()) {
+            result &= isDense(child, dense);
+        }
+        dense.put(node, result);
+        return result;
+    }
+
+    public String getReport() {
+        return "operator fusion: " + negatedSums + " -(A + B), " + multiplyAdds + " A * B + C, "
+                + transposedMultiplies + " A * T(B)" + '\n';
+    }
+}
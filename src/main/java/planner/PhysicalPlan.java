@@ -0,0 +1,225 @@
+package planner;
+
+import memory.GemmKernel;
+import parser.ComputationNode;
+import parser.ComputationNodeType;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongToIntFunction;
+
+/**
+ * The steps the engine is going to run for a tree, with their estimated cost, for --explain.
+ * Built after rewriting, chain ordering, deduplication and fusion, so every step is one the engine computes:
+ * its kernel, shape, FLOPs, bytes read and written by the kernel, and number of tasks (from the engine's
+ * task sizing). The peak memory is the estimate for running the steps in the listed order: the buffers
+ * a step borrows besides its result, plus the results that still have a step to feed. The engine adds the actual tasks and time
+ * of every step with recordActual as it runs them.
+ */
+public class PhysicalPlan {
+
+    private static final int BYTES_PER_ELEMENT = Double.BYTES;
+
+    private final List<Step> steps = new ArrayList<>(); // in dependency order
+    private final Map<ComputationNode, Step> byNode = new IdentityHashMap<>();
+    private final int parallelism;
+    private long peakBytes = 0;
+
+    //One step of the plan, the outer node of a fusion or a single operator
+    private static final class Step {
+        private final ComputationNode node;
+        private final String operation;
+        private final Shape shape; // null if it can't be known before computing
+        private String kernel;
+        private long flops = 0;
+        private long bytes = 0;
+        private long workingBytes = 0; // buffers borrowed while the step runs
+        private int tasks = 0;
+        private int consumers = 0; // later steps that read the result
+        private int actualTasks = -1;
+        private long actualNanos = -1;
+
+        private Step(ComputationNode node, Shape shape) {
+            this.node = node;
+            this.operation = node.getNodeType().name();
+            this.shape = shape;
+        }
+    }
+
+    private PhysicalPlan(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Plans the operator nodes of a binary tree. taskCount is the engine's number of tasks for a given
+     * number of FLOPs, parallelism the number of steps it runs at once.
+     */
+    public static PhysicalPlan build(ComputationNode root, Map<ComputationNode, OperatorFusion.Fusion> fusions,
+                                     LongToIntFunction taskCount, int parallelism) {
+        PhysicalPlan plan = new PhysicalPlan(parallelism);
+        plan.collect(root, fusions, taskCount, new IdentityHashMap<>());
+        plan.estimatePeak(fusions);
+        return plan;
+    }
+
+    //Children first, so the steps are listed in an order they can run in
+    private void collect(ComputationNode node, Map<ComputationNode, OperatorFusion.Fusion> fusions,
+                         LongToIntFunction taskCount, Map<ComputationNode, Shape> shapes) {
+        if (node.getNodeType() == ComputationNodeType.MATRIX || byNode.containsKey(node)) {
+            return;
+        }
+        OperatorFusion.Fusion fused = fusions.get(node);
+        List<ComputationNode> operands = fused != null ? fused.getOperands() : node.getChildren();
+        for (ComputationNode operand : operands) {
+            collect(operand, fusions, taskCount, shapes);
+        }
+        Step step = new Step(node, ShapeInference.infer(node, shapes));
+        estimate(step, fused, operands, taskCount, shapes);
+        steps.add(step);
+        byNode.put(node, step);
+    }
+
+    private void estimate(Step step, OperatorFusion.Fusion fused, List<ComputationNode> operands,
+                          LongToIntFunction taskCount, Map<ComputationNode, Shape> shapes) {
+        ComputationNodeType type = step.node.getNodeType();
+        step.kernel = fused != null ? fusedKernel(fused) : type == ComputationNodeType.TRANSPOSE ? "view"
+                : type == ComputationNodeType.MULTIPLY ? "GEMM" : "row blocks";
+        if (step.shape == null || type == ComputationNodeType.TRANSPOSE) {
+            return;
+        }
+        long elements = step.shape.elements();
+        boolean product = type == ComputationNodeType.MULTIPLY || (fused != null && !fused.isNegatedSum());
+        if (product) {
+            Shape left = ShapeInference.infer(operands.get(0), shapes);
+            long shared = left.cols();
+            step.flops = 2 * elements * shared;
+            //the product buffer is handed over as the result, only the operands are working buffers
+            step.workingBytes = BYTES_PER_ELEMENT * (left.elements() + shared * step.shape.cols());
+            step.bytes = step.workingBytes + BYTES_PER_ELEMENT * elements;
+            if (fused != null && fused.getAccumulated() != null) {
+                //C is copied into the product first
+                step.flops += elements;
+                step.bytes += BYTES_PER_ELEMENT * elements;
+            }
+        } else {
+            //element-wise: NEGATE reads and writes its operand, ADD reads a second one.
+            //The written operand copy becomes the result, so only the second one is a working buffer.
+            int inputs = type == ComputationNodeType.NEGATE && fused == null ? 1 : 2;
+            step.flops = elements * (fused != null ? 2 : 1);
+            step.workingBytes = BYTES_PER_ELEMENT * elements * (inputs - 1);
+            step.bytes = BYTES_PER_ELEMENT * elements * (inputs + 1);
+        }
+        double density = sparseDensity(operands);
+        if (density < 1) {
+            step.kernel = "sparse";
+            step.flops = (long) (step.flops * density);
+        }
+        //the engine cuts rows into tasks, a product with few rows into column tiles too
+        long colTiles = (step.shape.cols() + GemmKernel.TILE_SIZE - 1) / GemmKernel.TILE_SIZE;
+        long maxTasks = product ? step.shape.rows() * colTiles : step.shape.rows();
+        step.tasks = (int) Math.min(taskCount.applyAsInt(step.flops), maxTasks);
+    }
+
+    private static String fusedKernel(OperatorFusion.Fusion fused) {
+        if (fused.isNegatedSum()) {
+            return "fused -(A + B)";
+        }
+        return "GEMM" + (fused.isRightTransposed() ? ", T(B) in place" : "") + (fused.getAccumulated() != null ? ", + C" : "");
+    }
+
+    //The lowest density of the sparse leaf operands, 1 if there are none
+    private static double sparseDensity(List<ComputationNode> operands) {
+        double density = 1;
+        for (ComputationNode operand : operands) {
+            if (operand.getNodeType() == ComputationNodeType.MATRIX && operand.getSparseMatrix() != null) {
+                density = Math.min(density, operand.getSparseMatrix().density());
+            }
+        }
+        return density;
+    }
+
+    //Runs the steps in order: a result is kept until the last step reading it is done
+    private void estimatePeak(Map<ComputationNode, OperatorFusion.Fusion> fusions) {
+        for (Step step : steps) {
+            for (ComputationNode operand : operandsOf(step, fusions)) {
+                Step producer = byNode.get(operand);
+                if (producer != null) {
+                    producer.consumers++;
+                }
+            }
+        }
+        Map<Step, Integer> unread = new IdentityHashMap<>();
+        long live = 0;
+        for (Step step : steps) {
+            long result = step.shape == null || step.kernel.equals("view") ? 0 : BYTES_PER_ELEMENT * step.shape.elements();
+            peakBytes = Math.max(peakBytes, live + step.workingBytes + result);
+            live += result;
+            unread.put(step, step.consumers);
+            for (ComputationNode operand : operandsOf(step, fusions)) {
+                Step producer = byNode.get(operand);
+                if (producer != null && unread.merge(producer, -1, Integer::sum) == 0) {
+                    live -= producer.shape == null || producer.kernel.equals("view") ? 0
+                            : BYTES_PER_ELEMENT * producer.shape.elements();
+                }
+            }
+        }
+    }
+
+    //The distinct operands of a step, like the engine's dependencies
+    private static List<ComputationNode> operandsOf(Step step, Map<ComputationNode, OperatorFusion.Fusion> fusions) {
+        OperatorFusion.Fusion fused = fusions.get(step.node);
+        List<ComputationNode> distinct = new ArrayList<>();
+        for (ComputationNode operand : fused != null ? fused.getOperands() : step.node.getChildren()) {
+            boolean seen = false;
+            for (ComputationNode other : distinct) {
+                seen |= other == operand;
+            }
+            if (!seen) {
+                distinct.add(operand);
+            }
+        }
+        return distinct;
+    }
+
+    //The actual tasks and time of a step, from submitting its tasks to resolving its node
+    public synchronized void recordActual(ComputationNode node, int tasks, long nanos) {
+        Step step = byNode.get(node);
+        if (step != null) {
+            step.actualTasks = tasks;
+            step.actualNanos = nanos;
+        }
+    }
+
+    public int getSteps() {
+        return steps.size();
+    }
+
+    public long getPeakBytes() {
+        return peakBytes;
+    }
+
+    public synchronized String explain() {
+        long flops = 0;
+        long bytes = 0;
+        for (Step step : steps) {
+            flops += step.flops;
+            bytes += step.bytes;
+        }
+        StringBuilder report = new StringBuilder();
+        report.append("physical plan: ").append(steps.size()).append(steps.size() == 1 ? " step" : " steps")
+                .append(", up to ").append(parallelism).append(" at once, estimated ").append(flops).append(" FLOPs, ")
+                .append(bytes).append(" bytes moved, peak memory ").append(peakBytes).append(" bytes\n");
+        report.append(String.format("  %4s  %-9s  %-11s  %-24s  %9s  %12s  %12s | %6s  %10s%n", "step", "operation",
+                "shape", "kernel", "est tasks", "est FLOPs", "est bytes", "tasks", "time (ms)"));
+        for (int i = 0; i < steps.size(); i++) {
+            Step step = steps.get(i);
+            report.append(String.format("  %4d  %-9s  %-11s  %-24s  %9d  %12d  %12d | %6s  %10s%n", i + 1,
+                    step.operation, step.shape == null ? "?" : step.shape.toString(), step.kernel, step.tasks,
+                    step.flops, step.bytes, step.actualTasks < 0 ? "-" : String.valueOf(step.actualTasks),
+                    step.actualNanos < 0 ? "-" : String.format("%.3f", step.actualNanos / 1e6)));
+        }
+        return report.toString();
+    }
+}
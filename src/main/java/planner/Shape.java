@@ -0,0 +1,50 @@
+package planner;
+
+/**
+ * Shape of a matrix (rows x cols), as known before anything is computed.
+ */
+public final class Shape {
+
+    private final int rows;
+    private final int cols;
+
+    public Shape(int rows, int cols) {
+        this.rows = rows;
+        this.cols = cols;
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public int cols() {
+        return cols;
+    }
+
+    public long elements() {
+        return (long) rows * cols;
+    }
+
+    public Shape transposed() {
+        return new Shape(cols, rows);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof Shape)) {
+            return false;
+        }
+        Shape shape = (Shape) other;
+        return rows == shape.rows && cols == shape.cols;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * rows + cols;
+    }
+
+    @Override
+    public String toString() {
+        return rows + "x" + cols;
+    }
+}
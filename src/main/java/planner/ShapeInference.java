@@ -0,0 +1,141 @@
+package planner;
+
+import parser.ComputationNode;
+import parser.ComputationNodeType;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Infers the shape of every node of a computation tree from the shapes of its leaves.
+ * Nothing is computed and the tree is not changed. validate rejects the operators whose operands don't fit.
+ */
+public final class ShapeInference {
+
+    private ShapeInference() {
+    }
+
+    /**
+     * Returns the shape of the node, or null if it can't be known before computing:
+     * an empty leaf, or operands whose shapes don't fit the operator. The engine reports those errors
+     * when it gets to them, so the planning passes just leave such subtrees alone.
+     */
+    public static Shape infer(ComputationNode node) {
+        return infer(node, new IdentityHashMap<>());
+    }
+
+    /**
+     * Like infer(node), remembering the shape of every operator node in known, so a pass that asks for the shapes
+     * of many nodes of the same tree walks every subtree once. The tree must not change while known is used.
+     */
+    public static Shape infer(ComputationNode node, Map<ComputationNode, Shape> known) {
+        if (node.getNodeType() == ComputationNodeType.MATRIX) {
+            return leafShape(node);
+        }
+        if (known.containsKey(node)) {
+            return known.get(node);
+        }
+        Shape shape = inferOperator(node, known);
+        known.put(node, shape);
+        return shape;
+    }
+
+    /**
+     * Checks the whole tree before anything is computed and throws the engine's IllegalArgumentException for
+     * the first operator (bottom up) whose operands don't fit, so a mismatch in a big tree fails at once
+     * instead of after all the work below it. Operands whose shape isn't known (an empty leaf) are left
+     * for the engine to report.
+     */
+    public static void validate(ComputationNode root) {
+        validate(root, new IdentityHashMap<>());
+    }
+
+    private static void validate(ComputationNode node, Map<ComputationNode, Shape> known) {
+        if (node.getNodeType() == ComputationNodeType.MATRIX || node.getChildren() == null || known.containsKey(node)) {
+            return;
+        }
+        List<Shape> operands = new ArrayList<>();
+        for (ComputationNode child : node.getChildren()) {
+            validate(child, known);
+            operands.add(infer(child, known));
+        }
+        if (!operands.isEmpty() && !operands.contains(null)) {
+            switch (node.getNodeType()) {
+                case ADD:
+                    for (Shape operand : operands) {
+                        if (!operand.equals(operands.get(0))) {
+                            throw new IllegalArgumentException("Addition is only performed for same size matrices.");
+                        }
+                    }
+                    break;
+                case MULTIPLY:
+                    for (int i = 1; i < operands.size(); i++) {
+                        if (operands.get(i - 1).cols() != operands.get(i).rows()) {
+                            throw new IllegalArgumentException("the sizes of the matrices are not suitable for multiplication.");
+                        }
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        infer(node, known);
+    }
+
+    private static Shape inferOperator(ComputationNode node, Map<ComputationNode, Shape> known) {
+        List<ComputationNode> children = node.getChildren();
+        if (children == null || children.isEmpty()) {
+            return null;
+        }
+        Shape first = infer(children.get(0), known);
+        if (first == null) {
+            return null;
+        }
+        switch (node.getNodeType()) {
+            case NEGATE:
+                return first;
+            case TRANSPOSE:
+                return first.transposed();
+            case ADD:
+                for (int i = 1; i < children.size(); i++) {
+                    if (!first.equals(infer(children.get(i), known))) {
+                        return null;
+                    }
+                }
+                return first;
+            case MULTIPLY: {
+                Shape product = first;
+                for (int i = 1; i < children.size(); i++) {
+                    Shape next = infer(children.get(i), known);
+                    if (next == null || product.cols() != next.rows()) {
+                        return null;
+                    }
+                    product = new Shape(product.rows(), next.cols());
+                }
+                return product;
+            }
+            default:
+                return null;
+        }
+    }
+
+    private static Shape leafShape(ComputationNode leaf) {
+        if (leaf.getSharedMatrix() != null) {
+            return leaf.getSharedMatrix().length() == 0 ? null
+                    : new Shape(leaf.getSharedMatrix().rows(), leaf.getSharedMatrix().cols());
+        }
+        if (leaf.getMappedMatrix() != null) {
+            return new Shape(leaf.getMappedMatrix().rows(), leaf.getMappedMatrix().cols());
+        }
+        if (leaf.getSparseMatrix() != null) {
+            return new Shape(leaf.getSparseMatrix().rows(), leaf.getSparseMatrix().cols());
+        }
+        double[][] matrix = leaf.getMatrix();
+        if (matrix.length == 0 || matrix[0] == null || matrix[0].length == 0) {
+            return null;
+        }
+        return new Shape(matrix.length, matrix[0].length);
+    }
+}
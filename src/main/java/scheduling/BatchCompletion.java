@@ -0,0 +1,47 @@
+package scheduling;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The completion of one batch of tasks: its own counter of unfinished tasks and its first failure.
+ * The future completes when the last task is done, exceptionally with the first exception a task threw.
+ * Every batch has its own, so concurrent batches never wait for each other.
+ */
+final class BatchCompletion {
+
+    final CompletableFuture<Void> future = new CompletableFuture<>();
+    private final AtomicInteger remaining;
+    private final AtomicReference<RuntimeException> failure = new AtomicReference<>(null);
+
+    BatchCompletion(int tasks) {
+        remaining = new AtomicInteger(tasks);
+        if (tasks == 0) {
+            future.complete(null);
+        }
+    }
+
+    //Runs a task of the batch, keeping its exception for the future instead of letting it kill the worker
+    void run(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            failure.compareAndSet(null, e);
+        }
+    }
+
+    //Marks tasks as done, returns true for the call that finished the batch, which then calls complete
+    boolean done(int tasks) {
+        return remaining.addAndGet(-tasks) == 0;
+    }
+
+    void complete() {
+        RuntimeException first = failure.get();
+        if (first != null) {
+            future.completeExceptionally(first);
+        } else {
+            future.complete(null);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package scheduling;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * The executors the engine can run on, selected on the command line with --executor=name.
+ */
+public enum ExecutorMode {
+    TIRED,
+    STEALING,
+    VIRTUAL;
+
+    public TaskExecutor create(int numThreads) {
+        switch (this) {
+            case STEALING:
+                return new WorkStealingExecutor(numThreads);
+            case VIRTUAL:
+                return virtualThreadExecutor(numThreads);
+            case TIRED:
+            default:
+                return new TiredExecutor(numThreads);
+        }
+    }
+
+    //VirtualThreadExecutor is only compiled and only loadable on JDK 21+, so it is looked up by name
+    private static TaskExecutor virtualThreadExecutor(int numThreads) {
+        try {
+            Class<?> executor = Class.forName("scheduling.VirtualThreadExecutor");
+            return (TaskExecutor) executor.getConstructor(int.class).newInstance(numThreads);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            throw new IllegalArgumentException("The virtual executor needs the engine built and run on JDK 21 or newer");
+        }
+    }
+
+    //Mode from its name on the command line, case insensitive
+    public static ExecutorMode fromName(String name) {
+        for (ExecutorMode mode : values()) {
+            if (mode.name().equals(name.toUpperCase(Locale.ROOT))) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("Unknown executor " + name + ", expected one of "
+                + Arrays.toString(values()).toLowerCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,44 @@
+package scheduling;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * What the engine needs from an executor: run batches of independent tasks.
+ * Implemented by TiredExecutor (an idle heap of workers fed through one-slot handoffs),
+ * WorkStealingExecutor (a deque per worker, idle workers steal) and, on JDK 21+, VirtualThreadExecutor.
+ * See ExecutorMode.
+ * Submitting never waits for the workers: every batch gets its own future, completed when its last task is done,
+ * or exceptionally with the first exception one of its tasks threw. Batches submitted from different threads,
+ * or one after the other without waiting, run side by side.
+ * The future may be completed on a worker thread, so work chained on it should be short or async.
+ */
+public interface TaskExecutor {
+
+    //Starts one task, the future completes when it is done
+    CompletableFuture<Void> submit(Runnable task);
+
+    //Starts all the tasks, the future completes when all of them are done
+    CompletableFuture<Void> submitAllAsync(Iterable<Runnable> tasks);
+
+    /**
+     * Runs all the tasks and returns once they are done. The first exception thrown by a task is rethrown here.
+     * The wait is not cut short by an interrupt, since the tasks are still using their operands,
+     * but the interrupt status is kept for the caller.
+     */
+    default void submitAll(Iterable<Runnable> tasks) {
+        try {
+            submitAllAsync(tasks).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    //Lets the workers finish the submitted batches and waits for them to exit
+    void shutdown() throws InterruptedException;
+
+    String getWorkerReport();
+}
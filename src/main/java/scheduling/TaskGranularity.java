@@ -0,0 +1,77 @@
+package scheduling;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.IntToLongFunction;
+
+/**
+ * Sizes the tasks the engine hands to its executor.
+ * Every task costs a handoff (heap take/offer, a queue slot, an atomic counter) whatever it does, so a task
+ * of one short row is mostly overhead, while too few tasks leave workers idle and can't make up for a slow one.
+ * The engine asks for taskCount(totalFlops): about TASKS_PER_THREAD tasks per worker, but none smaller than
+ * MIN_FLOPS_PER_TASK. split then cuts the rows into that many blocks of roughly equal FLOPs, from the
+ * cumulative cost of the rows, which is linear for dense operands and follows the non zeros for sparse ones.
+ * The last choice of every operation is kept for the worker report.
+ */
+public class TaskGranularity {
+
+    public static final long MIN_FLOPS_PER_TASK = 1 << 15; // below this the handoff costs about as much as the work
+    public static final int TASKS_PER_THREAD = 4; // enough tasks per worker to even out a slow one
+
+    private final int numThreads;
+    private final Map<String, String> lastChoices = new LinkedHashMap<>(); // by operation
+
+    public TaskGranularity(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    //Number of tasks for an operation of the given cost
+    public int taskCount(long totalFlops) {
+        long bySize = totalFlops / MIN_FLOPS_PER_TASK;
+        return (int) Math.max(1, Math.min((long) numThreads * TASKS_PER_THREAD, bySize));
+    }
+
+    /**
+     * Cuts [0, length) into at most parts non-empty blocks of roughly equal cost and returns the boundaries:
+     * block b is [bounds[b], bounds[b + 1]). cumulativeFlops(i) is the cost of [0, i) and never decreases.
+     */
+    public static int[] split(int length, IntToLongFunction cumulativeFlops, int parts) {
+        parts = Math.max(1, Math.min(parts, length));
+        int[] bounds = new int[parts + 1];
+        bounds[parts] = length;
+        long total = cumulativeFlops.applyAsLong(length);
+        for (int p = 1; p < parts; p++) {
+            long target = (long) ((double) total * p / parts);
+            //first i whose prefix reaches the target, leaving at least one index for every later block
+            int low = bounds[p - 1] + 1;
+            int high = length - (parts - p);
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (cumulativeFlops.applyAsLong(middle) >= target) {
+                    high = middle;
+                } else {
+                    low = middle + 1;
+                }
+            }
+            bounds[p] = low;
+        }
+        return bounds;
+    }
+
+    //Remembers the granularity chosen for an operation, for getReport
+    public synchronized void record(String operation, int rows, int cols, int tasks, long totalFlops) {
+        lastChoices.put(operation, rows + "x" + cols + " in " + tasks + (tasks == 1 ? " task" : " tasks")
+                + String.format(", ~%.0f FLOPs per task", (double) totalFlops / tasks));
+    }
+
+    public synchronized String getReport() {
+        StringBuilder report = new StringBuilder("task granularity (last of each operation):\n");
+        if (lastChoices.isEmpty()) {
+            report.append("  no tasks yet\n");
+        }
+        for (Map.Entry<String, String> choice : lastChoices.entrySet()) {
+            report.append("  ").append(choice.getKey()).append(": ").append(choice.getValue()).append('\n');
+        }
+        return report.toString();
+    }
+}
@@ -1,88 +1,256 @@
 package scheduling;
 
 import java.util.concurrent.PriorityBlockingQueue;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
 
-public class TiredExecutor {
+/**
+ * Runs batches of tasks on TiredThreads. An idle worker waits in a min-heap ordered by fatigue,
+ * so every handoff goes to the least fatigued idle worker.
+ * The executor also learns how fast every worker really is: after each batch it compares the time a worker
+ * spent per task (timeUsed / tasks run) with the batch average, and keeps a moving average of that ratio
+ * (its slowness, 1 = average). Batches are handed out chunk by chunk, sized to match:
+ *  - a handoff is a chunk of consecutive tasks, guided self-scheduling style: a share of the remaining tasks,
+ *    divided by the worker's slowness, so slow workers take smaller chunks and the chunks shrink towards the end.
+ *  - at the tail of a batch a slow worker gets no more work while a faster worker can take the last tasks,
+ *    so the batch does not wait for a slow worker on its last task.
+ * Submitting only queues the batch: idle workers get their chunks right away and busy ones pick up the rest
+ * when they come back idle, so the caller never blocks on the heap. Every batch has its own counter and future
+ * (see BatchCompletion), so batches of concurrent callers don't wait for each other.
+ */
+public class TiredExecutor implements TaskExecutor {
+
+    private static final int CHUNKS_PER_WORKER = 2; // a chunk is at most remaining / (CHUNKS_PER_WORKER * workers) tasks
+    private static final double SLOW_WORKER = 1.5; // slowness above which a worker is kept out of the tail of a batch
+    private static final double LEARNING_RATE = 0.5; // weight of the last batch in the slowness average
 
     private final TiredThread[] workers;
     private final PriorityBlockingQueue<TiredThread> idleMinHeap = new PriorityBlockingQueue<>();
-    private final AtomicInteger inFlight = new AtomicInteger(0);
+    //Batches with tasks not handed out yet, oldest first. Guarded by this, like the dispatch itself.
+    private final ArrayDeque<PendingBatch> pending = new ArrayDeque<>();
+    //Batches not completed yet, waited for by shutdown
+    private final Set<CompletableFuture<Void>> running = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLongArray tasksRun; // tasks run by every worker, by worker id
+    private final double[] slowness; // learned time per task relative to the batch average, by worker id
+
+    //A submitted batch: its tasks, how far they are handed out, its completion and what every worker spent on it
+    private static final class PendingBatch {
+        private final List<Runnable> tasks;
+        private final BatchCompletion completion;
+        private final AtomicLongArray time; // nanoseconds, by worker id
+        private final AtomicLongArray count; // tasks, by worker id
+        private int next = 0; // first task not handed out yet, guarded by the executor
+
+        private PendingBatch(List<Runnable> tasks, int numWorkers) {
+            this.tasks = tasks;
+            this.completion = new BatchCompletion(tasks.size());
+            this.time = new AtomicLongArray(numWorkers);
+            this.count = new AtomicLongArray(numWorkers);
+        }
+    }
 
     public TiredExecutor(int numThreads) {
-        workers = new TiredThread[numThreads]; 
+        this(randomFatigueFactors(numThreads));
+    }
+
+    //Workers with the given fatigue factors, one worker per factor
+    public TiredExecutor(double[] fatigueFactors) {
+        int numThreads = fatigueFactors.length;
+        workers = new TiredThread[numThreads];
+        tasksRun = new AtomicLongArray(numThreads);
+        slowness = new double[numThreads];
         for(int i=0; i<numThreads;i++){
-            workers[i] = new TiredThread(i,Math.random()+0.5);
+            //the worker puts itself back in the heap once its time is counted, so its fatigue is final
+            workers[i] = new TiredThread(i, fatigueFactors[i], this::workerIdle);
+            slowness[i] = 1.0;
             workers[i].start();
             idleMinHeap.add(workers[i]);
         }
     }
 
-    public void submit(Runnable task) {
-        try{
-            //add ot in flight and take from heap thread
-        inFlight.addAndGet(1);
-        TiredThread toSubmTiredThread = idleMinHeap.take();
-        //wraps the task and add to heap in the end
+    static double[] randomFatigueFactors(int numThreads) {
+        double[] factors = new double[numThreads];
+        for(int i=0; i<numThreads;i++){
+            factors[i] = Math.random()+0.5;
+        }
+        return factors;
+    }
+
+    public CompletableFuture<Void> submit(Runnable task) {
+        return submitAllAsync(List.of(task));
+    }
+
+    /**
+     * Queues the batch and hands out as much of it as there are idle workers, without waiting for any.
+     * The rest is handed out by the workers themselves when they come back idle (see workerIdle),
+     * so the caller is free as soon as the batch is queued.
+     */
+    public CompletableFuture<Void> submitAllAsync(Iterable<Runnable> tasks) {
+        List<Runnable> batchTasks = new ArrayList<>();
+        for (Runnable task : tasks){
+            batchTasks.add(task);
+        }
+        PendingBatch batch = new PendingBatch(batchTasks, workers.length);
+        if(batchTasks.isEmpty()){
+            return batch.completion.future;
+        }
+        running.add(batch.completion.future);
+        synchronized(this){
+            pending.add(batch);
+        }
+        dispatchIdle();
+        return batch.completion.future;
+    }
+
+    //Hands chunks of the pending batches to the idle workers, least fatigued first, until one of them runs out
+    private synchronized void dispatchIdle() {
+        int fastWorkers = 0;
+        for(double s : slowness){
+            if(s <= SLOW_WORKER){
+                fastWorkers++;
+            }
+        }
+        //slow workers kept out of the tail of a batch, back in the heap for the next round
+        List<TiredThread> benched = new ArrayList<>();
+        while(!pending.isEmpty()){
+            TiredThread worker = idleMinHeap.poll();
+            if(worker == null){
+                break;
+            }
+            PendingBatch batch = pending.peek();
+            int remaining = batch.tasks.size() - batch.next;
+            if(isSlow(worker) && fastWorkers > 0 && remaining <= fastWorkers){
+                benched.add(worker);
+                continue;
+            }
+            int chunk = chunkSize(worker.getWorkerId(), remaining);
+            List<Runnable> part = batch.tasks.subList(batch.next, batch.next + chunk);
+            batch.next += chunk;
+            if(batch.next == batch.tasks.size()){
+                pending.poll();
+            }
+            dispatch(worker, batch, part);
+        }
+        idleMinHeap.addAll(benched);
+    }
+
+    //Hands a chunk of tasks to an idle worker as one handoff
+    private void dispatch(TiredThread worker, PendingBatch batch, List<Runnable> chunk) {
+        int id = worker.getWorkerId();
         Runnable wrapedTask = () -> {
-            try{
-                task.run();
-            } finally{
-                int reamin = inFlight.decrementAndGet();
-                idleMinHeap.offer(toSubmTiredThread);
-                if(reamin ==0){
-                    synchronized(this){
-                        this.notifyAll();
-                    }
-                }
-            };
+            long start = System.nanoTime();
+            for (Runnable task : chunk){
+                //an exception escaping the task would kill the worker before it is back in the idle heap,
+                //so it is kept for the batch's future instead
+                batch.completion.run(task);
+            }
+            batch.time.addAndGet(id, System.nanoTime() - start);
+            batch.count.addAndGet(id, chunk.size());
+            tasksRun.addAndGet(id, chunk.size());
+            if(batch.completion.done(chunk.size())){
+                learn(batch);
+                running.remove(batch.completion.future);
+                batch.completion.complete();
+            }
         };
         //submit to thread
-        toSubmTiredThread.newTask(wrapedTask);
-        }catch(InterruptedException e){
+        worker.newTask(wrapedTask);
+    }
 
+    //Called by a worker once it is done with a handoff and its time is counted
+    private void workerIdle(TiredThread worker) {
+        idleMinHeap.offer(worker);
+        dispatchIdle();
+    }
+
+    private boolean isSlow(TiredThread worker) {
+        return slowness[worker.getWorkerId()] > SLOW_WORKER;
+    }
+
+    //Package-private, like learn, so the tests can check the sizing without timing real tasks
+    synchronized int chunkSize(int workerId, int remaining) {
+        double share = (double) remaining / (CHUNKS_PER_WORKER * workers.length) / slowness[workerId];
+        return (int) Math.max(1, Math.min(remaining, share));
+    }
+
+    //Updates the slowness of the workers from their time per task in a batch that just finished
+    private void learn(PendingBatch batch) {
+        long[] time = new long[workers.length];
+        long[] count = new long[workers.length];
+        for(int id = 0; id < workers.length; id++){
+            time[id] = batch.time.get(id);
+            count[id] = batch.count.get(id);
         }
+        learn(time, count);
     }
 
-    public void submitAll(Iterable<Runnable> tasks) {
-        for (Runnable task : tasks){
-            submit(task);
+    //Same from the time (nanoseconds) and number of tasks of every worker in a batch.
+    //Package-private so the tests can feed it recorded times instead of timing real tasks.
+    synchronized void learn(long[] time, long[] count) {
+        long batchTime = 0;
+        long batchTasks = 0;
+        int workersUsed = 0;
+        for(int id = 0; id < workers.length; id++){
+            if(count[id] > 0){
+                batchTime += time[id];
+                batchTasks += count[id];
+                workersUsed++;
+            }
         }
-        synchronized(this){
-            while(inFlight.get()>0){
-                try{
-                    wait();
-                }catch(InterruptedException e){
-                    System.out.print(e);
-                }
-                
+        //one worker alone has nothing to be compared with
+        if(workersUsed < 2 || batchTime == 0){
+            return;
+        }
+        double averageTime = (double) batchTime / batchTasks;
+        for(int id = 0; id < workers.length; id++){
+            if(count[id] > 0){
+                double ratio = ((double) time[id] / count[id]) / averageTime;
+                slowness[id] = (1 - LEARNING_RATE) * slowness[id] + LEARNING_RATE * ratio;
             }
         }
     }
 
+    //Learned time per task of a worker relative to the average worker, 1 until it has run a batch with others
+    public synchronized double getSlowness(int workerId) {
+        return slowness[workerId];
+    }
+
+    public long getTasksRun(int workerId) {
+        return tasksRun.get(workerId);
+    }
+
     public void shutdown() throws InterruptedException {
+        //the batches still running are finished first, their failures are for their own futures
+        CompletableFuture.allOf(running.toArray(new CompletableFuture<?>[0])).handle((result, failure) -> null).join();
+        //every worker finishes its current task and then takes the poison pill, so a worker that is
+        //still marked busy right after the last batch is not an error. waiting for all of them to exit
         for(TiredThread worker : workers){
-            if(worker.isBusy()){
-                throw new InterruptedException("thread interapted while working");
-            }
             worker.shutdown();
         }
+        for(TiredThread worker : workers){
+            worker.join();
+        }
     }
 
     public synchronized String getWorkerReport() {
         StringBuilder report = new StringBuilder();
         for(TiredThread worker: workers){
             report.append(
-                "worker " + worker.getWorkerId() + " is now busy(true/false) -" + worker.isBusy() + 
+                "worker " + worker.getWorkerId() + " is now busy(true/false) -" + worker.isBusy() +
                 " has worked " + worker.getTimeUsed() + " nanoseconds, "
                 +"has rested for " + worker.getTimeIdle() + " nanoseconds"
-                 +" and with fatigue score of " + worker.getFatigue()+ '\n' 
+                 +" and with fatigue score of " + worker.getFatigue()
+                 + ", ran " + tasksRun.get(worker.getWorkerId()) + " tasks"
+                 + String.format(" at %.2fx the average time per task", slowness[worker.getWorkerId()]) + '\n'
             );
-            
-            
+
+
         }
         return report.toString();
     }
@@ -4,6 +4,7 @@ import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 public class TiredThread extends Thread implements Comparable<TiredThread> {
 
@@ -16,6 +17,8 @@ public class TiredThread extends Thread implements Comparable<TiredThread> {
 
     // Single-slot handoff queue; executor will put tasks here
     private final BlockingQueue<Runnable> handoff = new ArrayBlockingQueue<>(1);
+    //Guards the handoff against shutdown, so a task is either accepted before the shutdown or rejected after it
+    private final Object handoffLock = new Object();
 
     private final AtomicBoolean busy = new AtomicBoolean(false); // Indicates if the worker is currently executing a task
 
@@ -23,9 +26,22 @@ public class TiredThread extends Thread implements Comparable<TiredThread> {
     private final AtomicLong timeIdle = new AtomicLong(0); // Total time spent idle
     private final AtomicLong idleStartTime = new AtomicLong(0); // Timestamp when the worker became idle
 
+    //Called by the worker itself after a task, once its time is accounted for, see run
+    private final Consumer<TiredThread> onIdle;
+
     public TiredThread(int id, double fatigueFactor) {
+        this(id, fatigueFactor, null);
+    }
+
+    /**
+     * Worker that calls onIdle after every task, once timeUsed (and so the fatigue) is up to date.
+     * The executor uses it to put the worker back in its idle heap: the heap is ordered by fatigue,
+     * so the fatigue must not change while the worker is in it.
+     */
+    public TiredThread(int id, double fatigueFactor, Consumer<TiredThread> onIdle) {
         this.id = id;
         this.fatigueFactor = fatigueFactor;
+        this.onIdle = onIdle;
         this.idleStartTime.set(System.nanoTime());
         setName(String.format("FF=%.2f", fatigueFactor));
     }
@@ -38,6 +54,10 @@ public class TiredThread extends Thread implements Comparable<TiredThread> {
         return fatigueFactor * timeUsed.get();
     }
 
+    public double getFatigueFactor() {
+        return fatigueFactor;
+    }
+
     public boolean isBusy() {
         return busy.get();
     }
@@ -53,30 +73,33 @@ public class TiredThread extends Thread implements Comparable<TiredThread> {
     /**
      * Assign a task to this worker.
      * This method is non-blocking: if the worker is not ready to accept a task,
-     * it throws IllegalStateException.
+     * or was already shut down, it throws IllegalStateException.
      */
     public void newTask(Runnable task) {
-        //cheaks if busy if so throws exseption
-       if(busy.get()){
-        throw new IllegalStateException();
+        //the worker goes back to the idle heap from onIdle, right after its last task and before it waits on
+        //the handoff again, so the worker is ready as long as its handoff slot is free. if the slot is taken throws exseption
+       synchronized(handoffLock){
+        if(!alive.get()){
+            throw new IllegalStateException("worker " + id + " is shut down");
+        }
+        if(!handoff.offer(task)){
+            throw new IllegalStateException("worker " + id + " already has a pending task");
+        }
        }
-       handoff.add(task);
     }
 
     /**
      * Request this worker to stop after finishing current task.
      * Inserts a poison pill so the worker wakes up and exits.
+     * A task that was already accepted is still run first, tasks handed over afterwards are rejected.
      */
     public void shutdown() {
-       alive.compareAndSet(true,false);
-       try{
-        newTask(POISON_PILL);
-       }catch(IllegalStateException e){
-        handoff.clear();
-        handoff.add(POISON_PILL);
+       synchronized(handoffLock){
+        alive.set(false);
+        //if the slot is taken by a pending task, no pill is needed: the worker runs the task
+        //and then leaves the loop, since it is no longer alive and the handoff is empty
+        handoff.offer(POISON_PILL);
        }
-       
-       
     }
 
     @Override
@@ -84,26 +107,44 @@ public class TiredThread extends Thread implements Comparable<TiredThread> {
        try{
         while(alive.get() || !handoff.isEmpty()){
             Runnable newTask = handoff.take();
-            long idleSoFar = System.nanoTime()-idleStartTime.get();
-            timeIdle.addAndGet(idleSoFar);
-            if(newTask == POISON_PILL) break;
-
-            busy.set(true);
-            long startTime = System.nanoTime();
-            newTask.run();
-            long finishTime = System.nanoTime();
-            timeUsed.addAndGet(finishTime-startTime);
-            busy.set(false);
-            idleStartTime.set(System.nanoTime());
+            if(newTask == POISON_PILL){
+                timeIdle.addAndGet(System.nanoTime()-idleStartTime.get());
+                break;
+            }
+            runTask(newTask);
+            if(onIdle != null){
+                onIdle.accept(this);
+            }
         }
        }catch(InterruptedException e){
         
        }
     }
 
+    /**
+     * Runs one task on this thread with the time and fatigue accounting of run.
+     * For subclasses that get their tasks another way than the handoff slot, see WorkStealingExecutor.
+     */
+    protected void runTask(Runnable task) {
+        timeIdle.addAndGet(System.nanoTime()-idleStartTime.get());
+        busy.set(true);
+        long startTime = System.nanoTime();
+        try{
+            task.run();
+        }finally{
+            timeUsed.addAndGet(System.nanoTime()-startTime);
+            busy.set(false);
+            idleStartTime.set(System.nanoTime());
+        }
+    }
+
     @Override
     public int compareTo(TiredThread o) {
-        // TODO
-        return 0;
+        // DONE: the least fatigued worker comes first, ties broken by id so the order is total
+        int byFatigue = Double.compare(getFatigue(), o.getFatigue());
+        if(byFatigue != 0){
+            return byFatigue;
+        }
+        return Integer.compare(id, o.id);
     }
 }
\ No newline at end of file
@@ -0,0 +1,192 @@
+package scheduling;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Executor in which every worker owns a deque of tasks.
+ * submitAll splits the batch into one contiguous block per worker, the least fatigued workers first,
+ * pushes the blocks without waiting for any worker, wakes the workers up and returns the batch's future. A worker takes its own tasks
+ * from the front of its deque; once it is empty it steals from the back of the other workers' deques,
+ * so the neighbouring rows of a block stay on one worker and an idle worker unloads a busy one.
+ * The workers are TiredThreads, their time and fatigue are accounted like in TiredExecutor (see TiredThread.runTask).
+ */
+public class WorkStealingExecutor implements TaskExecutor {
+
+    private final Worker[] workers;
+    //Batches not completed yet, waited for by shutdown
+    private final Set<CompletableFuture<Void>> running = ConcurrentHashMap.newKeySet();
+
+    private final class Worker extends TiredThread {
+        private final ConcurrentLinkedDeque<Runnable> deque = new ConcurrentLinkedDeque<>();
+        private final AtomicLong tasksRun = new AtomicLong(0);
+        private final AtomicLong tasksStolen = new AtomicLong(0);
+        private volatile boolean running = true;
+
+        private Worker(int id, double fatigueFactor) {
+            super(id, fatigueFactor);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Runnable task = deque.pollFirst();
+                if (task == null) {
+                    task = steal();
+                }
+                if (task != null) {
+                    runTask(task);
+                    tasksRun.incrementAndGet();
+                    continue;
+                }
+                if (!running) {
+                    //the deques are drained before the worker exits
+                    return;
+                }
+                //a task pushed after the scan unparks the worker, so the park returns at once
+                LockSupport.park(this);
+            }
+        }
+
+        //Takes a task from the back of another worker's deque, the next worker first
+        private Runnable steal() {
+            for (int i = 1; i < workers.length; i++) {
+                Worker victim = workers[(getWorkerId() + i) % workers.length];
+                Runnable task = victim.deque.pollLast();
+                if (task != null) {
+                    tasksStolen.incrementAndGet();
+                    return task;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public void newTask(Runnable task) {
+            deque.addLast(task);
+            wakeAll();
+        }
+
+        @Override
+        public void shutdown() {
+            running = false;
+            LockSupport.unpark(this);
+        }
+    }
+
+    public WorkStealingExecutor(int numThreads) {
+        this(TiredExecutor.randomFatigueFactors(numThreads));
+    }
+
+    //Workers with the given fatigue factors, one worker per factor
+    public WorkStealingExecutor(double[] fatigueFactors) {
+        workers = new Worker[fatigueFactors.length];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(i, fatigueFactors[i]);
+        }
+        //the workers steal from each other, all of them exist before any starts
+        for (Worker worker : workers) {
+            worker.start();
+        }
+    }
+
+    private void wakeAll() {
+        for (Worker worker : workers) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    //Workers ordered by fatigue, the least fatigued first. Busy workers get more tired while they are
+    //sorted, so the order is taken on a snapshot of the fatigue scores.
+    private Worker[] byFatigue() {
+        double[] fatigue = new double[workers.length];
+        Integer[] ids = new Integer[workers.length];
+        for (int i = 0; i < workers.length; i++) {
+            fatigue[i] = workers[i].getFatigue();
+            ids[i] = i;
+        }
+        Arrays.sort(ids, Comparator.<Integer>comparingDouble(id -> fatigue[id]).thenComparing(id -> id));
+        Worker[] ordered = new Worker[workers.length];
+        for (int i = 0; i < workers.length; i++) {
+            ordered[i] = workers[ids[i]];
+        }
+        return ordered;
+    }
+
+    @Override
+    public CompletableFuture<Void> submit(Runnable task) {
+        BatchCompletion completion = new BatchCompletion(1);
+        running.add(completion.future);
+        byFatigue()[0].newTask(() -> runInBatch(task, completion));
+        return completion.future;
+    }
+
+    //Runs a task for its batch, the last task of the batch completes it
+    private void runInBatch(Runnable task, BatchCompletion completion) {
+        completion.run(task);
+        if (completion.done(1)) {
+            running.remove(completion.future);
+            completion.complete();
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> submitAllAsync(Iterable<Runnable> tasks) {
+        List<Runnable> batch = new ArrayList<>();
+        for (Runnable task : tasks) {
+            batch.add(task);
+        }
+        BatchCompletion completion = new BatchCompletion(batch.size());
+        if (batch.isEmpty()) {
+            return completion.future;
+        }
+        running.add(completion.future);
+        Worker[] ordered = byFatigue();
+        int blockSize = (batch.size() + ordered.length - 1) / ordered.length;
+        for (int w = 0; w < ordered.length; w++) {
+            int start = w * blockSize;
+            int end = Math.min(start + blockSize, batch.size());
+            for (int i = start; i < end; i++) {
+                Runnable task = batch.get(i);
+                ordered[w].deque.addLast(() -> runInBatch(task, completion));
+            }
+        }
+        wakeAll();
+        return completion.future;
+    }
+
+    @Override
+    public void shutdown() throws InterruptedException {
+        //the workers drain their deques before they exit, the batches are waited for to be sure they are done
+        CompletableFuture.allOf(running.toArray(new CompletableFuture<?>[0])).handle((result, failure) -> null).join();
+        for (Worker worker : workers) {
+            worker.shutdown();
+        }
+        for (Worker worker : workers) {
+            worker.join();
+        }
+    }
+
+    @Override
+    public synchronized String getWorkerReport() {
+        StringBuilder report = new StringBuilder();
+        for (Worker worker : workers) {
+            report.append(
+                "worker " + worker.getWorkerId() + " is now busy(true/false) -" + worker.isBusy() +
+                " has worked " + worker.getTimeUsed() + " nanoseconds, "
+                + "has rested for " + worker.getTimeIdle() + " nanoseconds"
+                + " and with fatigue score of " + worker.getFatigue()
+                + ", ran " + worker.tasksRun.get() + " tasks, " + worker.tasksStolen.get() + " of them stolen" + '\n'
+            );
+        }
+        return report.toString();
+    }
+}
@@ -0,0 +1,220 @@
+package spl.lae;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import cache.ResultCache;
+import parser.InputParser;
+import scheduling.ExecutorMode;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Batch entry point: evaluates many input files in one JVM, on one engine and executor.
+ * Saves the JVM start, JIT warm-up and thread creation that running Main once per file pays every time.
+ *
+ * Usage: BatchMain numThreads manifest outputDir [--compact] [--sequential] [--cache=dir] [--cache-size-mb=n] [--executor=tired|stealing|virtual]
+ * (or Main --batch ...)
+ * The manifest is one of:
+ *  - a directory: every *.json file under it
+ *  - a glob, e.g. inputs/**.json or "inputs/day-*.json"
+ *  - a .jsonl file with one {"input": "in.json", "output": "out.json"} object per line,
+ *    output is optional and relative paths are resolved against the manifest's directory
+ * Results go to the output given in the manifest, or to outputDir under the input's path relative to the
+ * manifest directory (just its file name for .jsonl manifests). A failing file gets its error JSON like with Main
+ * and doesn't stop the batch. A summary with throughput numbers is printed at the end.
+ * Files go through the parse/compute/write pipeline of BatchPipeline, --sequential runs them one after the other.
+ */
+public class BatchMain {
+
+    private static final String USAGE = "Usage: BatchMain numThreads manifest outputDir [--compact] [--sequential] "
+            + "[--cache=dir] [--cache-size-mb=n] [--executor=tired|stealing|virtual]";
+
+    //One input file and where its result goes
+    static class Job {
+        final Path input;
+        final Path output;
+
+        Job(Path input, Path output) {
+            this.input = input;
+            this.output = output;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.out.println(USAGE);
+            return;
+        }
+        Path outputDir = Paths.get(args[2]);
+        boolean compact = false;
+        boolean sequential = false;
+        String cacheDir = null;
+        long cacheSizeMb = Main.DEFAULT_CACHE_SIZE_MB;
+        ExecutorMode executorMode = ExecutorMode.TIRED;
+        List<Job> jobs = readManifest(args[1], outputDir);
+        LinearAlgebraEngine LAE;
+        try {
+            int numThreads = Integer.parseInt(args[0]);
+            for (int i = 3; i < args.length; i++) {
+                if (args[i].equals("--compact")) {
+                    compact = true;
+                } else if (args[i].equals("--sequential")) {
+                    sequential = true;
+                } else if (args[i].startsWith("--cache=")) {
+                    cacheDir = args[i].substring("--cache=".length());
+                } else if (args[i].startsWith("--cache-size-mb=")) {
+                    cacheSizeMb = Long.parseLong(args[i].substring("--cache-size-mb=".length()));
+                } else if (args[i].startsWith("--executor=")) {
+                    executorMode = ExecutorMode.fromName(args[i].substring("--executor=".length()));
+                } else {
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+            LAE = new LinearAlgebraEngine(numThreads, executorMode);
+        } catch (IllegalArgumentException e) {
+            //there is no single output file to put the error in, so it goes with the usage
+            System.out.println(e.getMessage());
+            System.out.println(USAGE);
+            return;
+        }
+        if (cacheDir != null) {
+            LAE.setResultCache(new ResultCache(Paths.get(cacheDir), cacheSizeMb << 20));
+        }
+        try {
+            if (sequential) {
+                System.out.print(run(LAE, jobs, compact));
+            } else {
+                System.out.print(new BatchPipeline().run(LAE, jobs, compact));
+            }
+        } finally {
+            try {
+                LAE.shutdownExecutor();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Evaluates all the jobs on the engine, one after the other, and returns the summary.
+     * The executor is left running.
+     */
+    static String run(LinearAlgebraEngine LAE, List<Job> jobs, boolean compact) throws IOException {
+        InputParser parser = new InputParser();
+        List<String> failures = new ArrayList<>();
+        long inputBytes = 0;
+        long slowestNanos = 0;
+        Path slowest = null;
+        long start = System.nanoTime();
+        for (Job job : jobs) {
+            long jobStart = System.nanoTime();
+            if (job.output.getParent() != null) {
+                Files.createDirectories(job.output.getParent());
+            }
+            String error = Main.evaluateFile(LAE, parser, job.input.toString(), job.output.toString(), compact);
+            if (error != null) {
+                failures.add(job.input + ": " + error);
+            }
+            if (Files.exists(job.input)) {
+                inputBytes += Files.size(job.input);
+            }
+            long jobNanos = System.nanoTime() - jobStart;
+            if (jobNanos >= slowestNanos) {
+                slowestNanos = jobNanos;
+                slowest = job.input;
+            }
+        }
+        double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+        String summary = summary(LAE, jobs.size(), failures, inputBytes, seconds);
+        if (slowest != null) {
+            summary += String.format("slowest: %s (%.3f ms)%n", slowest, slowestNanos / 1e6);
+        }
+        return summary;
+    }
+
+    //Counts, throughput and failures of a finished batch
+    static String summary(LinearAlgebraEngine LAE, int files, List<String> failures, long inputBytes, double seconds) {
+        StringBuilder summary = new StringBuilder();
+        summary.append(String.format("batch: %d files, %d succeeded, %d failed in %.3f s%n",
+                files, files - failures.size(), failures.size(), seconds));
+        summary.append(String.format("throughput: %.1f files/s, %.2f MB/s of input, %.3f ms per file on average%n",
+                files / seconds, inputBytes / 1e6 / seconds, files == 0 ? 0.0 : seconds * 1e3 / files));
+        for (String failure : failures) {
+            summary.append("failed: ").append(failure).append('\n');
+        }
+        summary.append(LAE.getAllocationReport());
+        summary.append(LAE.getCacheReport());
+        return summary.toString();
+    }
+
+    static List<Job> readManifest(String manifest, Path outputDir) throws IOException {
+        Path path = Paths.get(manifest);
+        if (Files.isDirectory(path)) {
+            return matching(path, path.getFileSystem().getPathMatcher("glob:**.json"), outputDir);
+        }
+        if (manifest.endsWith(".jsonl") && Files.isRegularFile(path)) {
+            return readJsonLines(path, outputDir);
+        }
+        //a glob: the part before the first wildcard is the directory to search
+        int wildcard = firstWildcard(manifest);
+        if (wildcard == -1) {
+            throw new IllegalArgumentException("The manifest must be a directory, a glob or a .jsonl file: " + manifest);
+        }
+        int separator = manifest.lastIndexOf('/', wildcard);
+        Path base = separator == -1 ? Paths.get(".") : Paths.get(manifest.substring(0, separator + 1));
+        String pattern = manifest.substring(separator + 1);
+        return matching(base, base.getFileSystem().getPathMatcher("glob:" + pattern), outputDir);
+    }
+
+    private static int firstWildcard(String glob) {
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' || c == '?' || c == '[' || c == '{') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    //Files under base whose path relative to base matches, in a stable order
+    private static List<Job> matching(Path base, PathMatcher matcher, Path outputDir) throws IOException {
+        try (Stream<Path> files = Files.walk(base)) {
+            return files.filter(Files::isRegularFile)
+                    .filter(file -> matcher.matches(base.relativize(file)))
+                    .sorted()
+                    .map(file -> new Job(file, outputDir.resolve(base.relativize(file).toString())))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static List<Job> readJsonLines(Path manifest, Path outputDir) throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        Path dir = manifest.toAbsolutePath().getParent();
+        List<Job> jobs = new ArrayList<>();
+        int lineNumber = 0;
+        for (String line : Files.readAllLines(manifest)) {
+            lineNumber++;
+            if (line.isBlank()) {
+                continue;
+            }
+            JsonNode entry = mapper.readTree(line);
+            if (entry == null || !entry.hasNonNull("input")) {
+                throw new IllegalArgumentException("Manifest line " + lineNumber + " has no input: " + line);
+            }
+            Path input = dir.resolve(entry.get("input").asText());
+            Path output = entry.hasNonNull("output")
+                    ? dir.resolve(entry.get("output").asText())
+                    : outputDir.resolve(input.getFileName().toString());
+            jobs.add(new Job(input, output));
+        }
+        return jobs;
+    }
+}
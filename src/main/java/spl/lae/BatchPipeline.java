@@ -0,0 +1,199 @@
+package spl.lae;
+
+import parser.ComputationNode;
+import parser.InputParser;
+import parser.OutputWriter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Three-stage batch driver: a parser thread, the engine on the calling thread and a writer thread,
+ * connected by bounded queues. While file N computes, file N+1 is parsed and file N-1 is written,
+ * and at most QUEUE_CAPACITY parsed trees (and as many results) wait between two stages, which caps the memory.
+ * Errors travel down the pipeline with their file, so a failing file only gets its error JSON like with Main.
+ * Every stage keeps its busy time and the time it spent waiting on the queues, to show which one limits throughput.
+ */
+public class BatchPipeline {
+
+    private static final int QUEUE_CAPACITY = 2; // files waiting between two stages
+
+    //A file on its way through the pipeline
+    private static class Item {
+        final BatchMain.Job job;
+        ComputationNode node; // the parsed tree, then the result
+        String error; // set by the first stage that fails
+
+        Item(BatchMain.Job job) {
+            this.job = job;
+        }
+    }
+
+    private static final Item END = new Item(null); // sent after the last file
+
+    //Busy and waiting time of one stage
+    private static class StageTimes {
+        final String name;
+        long busyNanos = 0;
+        long waitNanos = 0;
+
+        StageTimes(String name) {
+            this.name = name;
+        }
+    }
+
+    private final StageTimes parse = new StageTimes("parse");
+    private final StageTimes compute = new StageTimes("compute");
+    private final StageTimes write = new StageTimes("write");
+
+    private final BlockingQueue<Item> parsed = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final BlockingQueue<Item> computed = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final List<String> failures = new ArrayList<>();
+    private long inputBytes = 0;
+
+    /**
+     * Runs all the jobs through the pipeline and returns the summary. The engine's executor is left running.
+     */
+    public String run(LinearAlgebraEngine LAE, List<BatchMain.Job> jobs, boolean compact) throws IOException {
+        Thread parser = new Thread(() -> parseAll(jobs), "batch-parser");
+        Thread writer = new Thread(() -> writeAll(compact), "batch-writer");
+        parser.setDaemon(true);
+        writer.setDaemon(true);
+        long start = System.nanoTime();
+        parser.start();
+        writer.start();
+        try {
+            computeAll(LAE);
+            writer.join();
+            parser.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Batch interrupted", e);
+        } finally {
+            //only does something if the compute stage failed unexpectedly, the stages would block otherwise
+            parser.interrupt();
+            writer.interrupt();
+        }
+        double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+
+        StringBuilder stages = new StringBuilder();
+        StageTimes bottleneck = parse;
+        for (StageTimes stage : List.of(parse, compute, write)) {
+            stages.append(String.format("%-7s stage: busy %.3f s, waiting %.3f s%n",
+                    stage.name, stage.busyNanos / 1e9, stage.waitNanos / 1e9));
+            if (stage.busyNanos > bottleneck.busyNanos) {
+                bottleneck = stage;
+            }
+        }
+        stages.append("bottleneck: ").append(bottleneck.name).append(" stage\n");
+        return BatchMain.summary(LAE, jobs.size(), failures, inputBytes, seconds) + stages;
+    }
+
+    private void parseAll(List<BatchMain.Job> jobs) {
+        //creating the parser loads and sets up Jackson, which is part of the parse stage too
+        long setup = System.nanoTime();
+        InputParser inputParser = new InputParser();
+        parse.busyNanos += System.nanoTime() - setup;
+        try {
+            for (BatchMain.Job job : jobs) {
+                long begin = System.nanoTime();
+                Item item = new Item(job);
+                try {
+                    item.node = inputParser.parse(job.input.toString());
+                } catch (ParseException | IllegalArgumentException e) {
+                    item.error = e.getMessage();
+                } catch (Exception e) {
+                    item.error = "An error occurred during computation: " + e.getMessage();
+                }
+                try {
+                    if (Files.exists(job.input)) {
+                        inputBytes += Files.size(job.input);
+                    }
+                } catch (IOException e) {
+                    //the size is only for the summary
+                }
+                long parsedAt = System.nanoTime();
+                parse.busyNanos += parsedAt - begin;
+                parsed.put(item);
+                parse.waitNanos += System.nanoTime() - parsedAt;
+            }
+            parsed.put(END);
+        } catch (InterruptedException e) {
+            //the batch was aborted
+        }
+    }
+
+    //The engine runs on the calling thread, its executor's workers do the actual work
+    private void computeAll(LinearAlgebraEngine LAE) throws InterruptedException {
+        while (true) {
+            long waitStart = System.nanoTime();
+            Item item = parsed.take();
+            long begin = System.nanoTime();
+            compute.waitNanos += begin - waitStart;
+            if (item == END) {
+                computed.put(END);
+                return;
+            }
+            if (item.error == null) {
+                try {
+                    item.node = LAE.evaluate(item.node);
+                } catch (IllegalArgumentException e) {
+                    item.error = e.getMessage();
+                } catch (Exception e) {
+                    item.error = "An error occurred during computation: " + e.getMessage();
+                }
+            }
+            long computedAt = System.nanoTime();
+            compute.busyNanos += computedAt - begin;
+            computed.put(item);
+            compute.waitNanos += System.nanoTime() - computedAt;
+        }
+    }
+
+    private void writeAll(boolean compact) {
+        try {
+            while (true) {
+                long waitStart = System.nanoTime();
+                Item item = computed.take();
+                long begin = System.nanoTime();
+                write.waitNanos += begin - waitStart;
+                if (item == END) {
+                    return;
+                }
+                String output = item.job.output.toString();
+                try {
+                    if (item.job.output.getParent() != null) {
+                        Files.createDirectories(item.job.output.getParent());
+                    }
+                    if (item.error == null) {
+                        try {
+                            OutputWriter.write(item.node, output, compact);
+                        } catch (Exception e) {
+                            item.error = "An error occurred during computation: " + e.getMessage();
+                        }
+                    }
+                    if (item.error != null) {
+                        OutputWriter.write(item.error, output, compact);
+                    }
+                } catch (IOException e) {
+                    if (item.error == null) {
+                        item.error = "Failed to write " + output + ": " + e.getMessage();
+                    }
+                }
+                if (item.error != null) {
+                    failures.add(item.job.input + ": " + item.error);
+                }
+                //drops the result before waiting for the next one
+                item.node = null;
+                write.busyNanos += System.nanoTime() - begin;
+            }
+        } catch (InterruptedException e) {
+            //the batch was aborted
+        }
+    }
+}
@@ -1,34 +1,90 @@
 package spl.lae;
 
+import cache.*;
 import parser.*;
 import memory.*;
+import planner.*;
 import scheduling.*;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.IntToLongFunction;
 
 public class LinearAlgebraEngine {
 
-    private SharedMatrix leftMatrix = new SharedMatrix();
-    private SharedMatrix rightMatrix = new SharedMatrix();
-    private TiredExecutor executor;
+    //Buffers of intermediate matrices are borrowed from this pool. Operand copies are given back after every step,
+    //a result buffer is detached and handed to its node as it is (see SharedMatrix.detach), so it is never copied out
+    private final BufferPool pool = new BufferPool();
+    private SharedMatrix leftMatrix = new SharedMatrix(pool);
+    private SharedMatrix rightMatrix = new SharedMatrix(pool);
+    private final TaskExecutor executor;
+    private final TaskGranularity granularity; // sizes the tasks from the operation cost and the thread count
+    private final AlgebraicRewriter rewriter = new AlgebraicRewriter();
+    private final MatrixChainOptimizer chainOptimizer = new MatrixChainOptimizer();
+    private final CommonSubexpressionEliminator subexpressions = new CommonSubexpressionEliminator();
+    private final OperatorFusion fusion = new OperatorFusion();
+    private boolean fuseOperators = true; // see setOperatorFusion
+    private ResultCache resultCache = null; // opt-in, see setResultCache
+    private Fingerprinter fingerprints = null; // fingerprints of the tree being evaluated, only with a cache
+    private int maxNodesInFlight; // independent nodes computed at once, see computeAll
+    private int peakNodesInFlight = 0;
+    private boolean explain = false; // see setExplain
+    private PhysicalPlan lastPlan = null; // plan of the last tree, only with explain
 
     public LinearAlgebraEngine(int numThreads) {
         // Done: create executor with given thread count
         //The rest of the fields are already initialized.
-        executor = new TiredExecutor(numThreads);
+        this(numThreads, ExecutorMode.TIRED);
 
     }
 
+    //Engine running its tasks on the given kind of executor, see ExecutorMode
+    public LinearAlgebraEngine(int numThreads, ExecutorMode executorMode) {
+        this(numThreads, executorMode.create(numThreads));
+    }
+
+    //Engine on an executor made by the caller, numThreads is the number of threads it runs the tasks on
+    LinearAlgebraEngine(int numThreads, TaskExecutor executor) {
+        this.executor = executor;
+        granularity = new TaskGranularity(numThreads);
+        maxNodesInFlight = Math.max(2, numThreads);
+    }
+
+    //Keeps the physical plan of every tree with its estimated and actual cost per step, see getExplainReport
+    public void setExplain(boolean explain) {
+        this.explain = explain;
+    }
+
+    //Turns the fused steps of OperatorFusion on or off, they are on by default
+    public void setOperatorFusion(boolean fuseOperators) {
+        this.fuseOperators = fuseOperators;
+    }
+
+    /**
+     * How many ready nodes are computed at once (at least 1). Every node in flight holds its operands and result,
+     * so this bounds the extra memory as well. 1 computes the tree one node at a time.
+     */
+    public void setMaxNodesInFlight(int maxNodesInFlight) {
+        if (maxNodesInFlight < 1) {
+            throw new IllegalArgumentException("At least one node has to be in flight");
+        }
+        this.maxNodesInFlight = maxNodesInFlight;
+    }
+
     public ComputationNode run(ComputationNode computationRoot) {
         // DONE: resolve computation tree step by step until final matrix is produced
-        if (computationRoot == null) {
-            throw new NullPointerException("computationRoot is null");
-        }
-        while (computationRoot.getNodeType() != ComputationNodeType.MATRIX) {
-            loadAndCompute(computationRoot);
-        }
+        evaluate(computationRoot);
+        //The pooled buffers are only needed while the tree is computed
+        pool.clear();
         try{
             executor.shutdown();
         }
@@ -38,6 +94,41 @@ public class LinearAlgebraEngine {
         return computationRoot;
     }
 
+    /**
+     * Resolves the tree like run, but keeps the executor (and the pooled buffers) alive,
+     * so one engine can evaluate many trees one after the other, see BatchMain.
+     * The caller shuts the executor down with shutdownExecutor when it is done.
+     */
+    public ComputationNode evaluate(ComputationNode computationRoot) {
+        if (computationRoot == null) {
+            throw new NullPointerException("computationRoot is null");
+        }
+        lastPlan = null;
+        //Planning: dimension mismatches anywhere in the tree are rejected before any work is done
+        ShapeInference.validate(computationRoot);
+        //identities like T(T(A)) -> A remove nodes before anything else looks at the tree
+        rewriter.rewrite(computationRoot);
+        //multiplication chains are ordered by cost before associativeNesting makes them binary
+        chainOptimizer.optimize(computationRoot);
+        //Repeated subtrees become one shared node, computed once
+        subexpressions.eliminate(computationRoot);
+        if (resultCache != null) {
+            //subtrees computed by an earlier run are loaded, the rest is fingerprinted to be stored
+            computationRoot.associativeNesting();
+            fingerprints = new Fingerprinter();
+            loadCached(computationRoot, Collections.newSetFromMap(new IdentityHashMap<>()));
+        }
+        try {
+            computeAll(computationRoot);
+        }
+        finally {
+            //the steps release their own buffers, leftMatrix and rightMatrix are only loaded through the create*Tasks API
+            releaseMatrices();
+            fingerprints = null;
+        }
+        return computationRoot;
+    }
+
     public void loadAndCompute(ComputationNode node) {
         // DONE: load operand matrices
         // DONE: create compute tasks & submit tasks to executor
@@ -50,34 +141,435 @@ public class LinearAlgebraEngine {
         node.associativeNesting();
         //Finding the next node to resolve and preparing a list for his task.
         ComputationNode resolvable = node.findResolvable();
-        List<Runnable> tasks;
+        finish(start(resolvable, null));
+    }
+
+    //A node in flight. Its operands are loaded into the step's own matrices, not into leftMatrix and rightMatrix,
+    //so several nodes can be computed at once. resolve runs on the engine's thread once the tasks are done.
+    private final class Step {
+        private final ComputationNode node;
+        private final SharedMatrix left = new SharedMatrix(pool);
+        private final SharedMatrix right = new SharedMatrix(pool);
+        private SharedMatrix product = null; // pooled result of a multiplication
+        private CompletableFuture<Void> tasks = CompletableFuture.completedFuture(null);
+        private Runnable resolve = () -> { };
+        private final long started = System.nanoTime();
+        private int taskCount = 0;
+
+        private Step(ComputationNode node) {
+            this.node = node;
+        }
+
+        private void run(List<Runnable> tasks, Runnable resolve) {
+            taskCount = tasks.size();
+            this.tasks = executor.submitAllAsync(tasks);
+            this.resolve = resolve;
+        }
+
+        //The result was detached and handed to the node (or the step failed), the rest can be reused by the next steps
+        private void release() {
+            left.release();
+            right.release();
+            if (product != null) {
+                product.release();
+            }
+        }
+    }
+
+    //Loads the operands of a resolvable node (all its operands are matrices) and submits its tasks without waiting.
+    //A fused node is resolvable once the operands of the fusion are, its absorbed children are never computed.
+    private Step start(ComputationNode resolvable, OperatorFusion.Fusion fused) {
+        Step step = new Step(resolvable);
+        try {
+            if (fused != null) {
+                startFused(step, fused);
+            } else if (hasSparseOperand(resolvable.getChildren())) {
+                //Sparse operands go to the sparse kernels
+                startSparse(step);
+            } else {
+                startDense(step);
+            }
+        } catch (RuntimeException e) {
+            step.release();
+            throw e;
+        }
+        return step;
+    }
+
+    private void startDense(Step step) {
+        ComputationNode resolvable = step.node;
         //Loading the matrices and preparing the tasks according to the operation type:
         //We will use switch to keep a clean code with multiple scenarios
+        List<ComputationNode> operands = resolvable.getChildren();
         switch (resolvable.getNodeType()) {
             case ADD:
-                leftMatrix.loadRowMajor(resolvable.getChildren().get(0).getMatrix());
-                rightMatrix.loadRowMajor(resolvable.getChildren().get(1).getMatrix());
-                tasks = createAddTasks();
+                loadWritable(step.left, operands.get(0));
+                loadRowMajor(step.right, operands.get(1));
+                //Updating the value of the result in the left Matrix to keep in-place attitude
+                step.run(addTasks(step.left, step.right, false), () -> resolvable.resolve(step.left.detach()));
                 break;
             case MULTIPLY:
-                leftMatrix.loadRowMajor(resolvable.getChildren().get(0).getMatrix());
-                rightMatrix.loadColumnMajor(resolvable.getChildren().get(1).getMatrix());
-                tasks = createMultiplyTasks();
+                loadRowMajor(step.left, operands.get(0));
+                loadColumnMajor(step.right, operands.get(1));
+                checkMultiplyOperands(step.left, step.right);
+                step.product = new SharedMatrix(step.left.length(), step.right.length(), VectorOrientation.ROW_MAJOR, pool);
+                step.run(multiplyTasks(step.left, step.right, step.product),
+                        () -> resolvable.resolve(step.product.detach()));
                 break;
             case NEGATE:
-                leftMatrix.loadRowMajor(resolvable.getChildren().get(0).getMatrix());
-                tasks = createNegateTasks();
+                loadWritable(step.left, operands.get(0));
+                step.run(negateTasks(step.left), () -> resolvable.resolve(step.left.detach()));
                 break;
             case TRANSPOSE:
-                leftMatrix.loadRowMajor(resolvable.getChildren().get(0).getMatrix());
-                tasks = createTransposeTasks();
+                //Transpose is a view over the operand: only the orientation is flipped, in O(1).
+                //No tasks are submitted and nothing is copied, the next operator reads the view directly.
+                step.resolve = () -> resolvable.resolve(toSharedMatrix(operands.get(0)).transposed());
                 break;
             default:
                 throw new IllegalArgumentException("Unknown nodeType");
         }
-        executor.submitAll(tasks);
-        //Updating the value of the result in the left Matrix to keep in-place attitude and prevent a double call
-        resolvable.resolve(leftMatrix.readRowMajor());
+    }
+
+    //Starts a fused step of OperatorFusion, every fused pattern is one pass over the result
+    private void startFused(Step step, OperatorFusion.Fusion fused) {
+        ComputationNode resolvable = step.node;
+        if (fused.isNegatedSum()) {
+            //-(A + B): the sum is negated while it is added, in the left matrix
+            loadWritable(step.left, fused.getLeft());
+            loadRowMajor(step.right, fused.getRight());
+            step.run(addTasks(step.left, step.right, true), () -> resolvable.resolve(step.left.detach()));
+            return;
+        }
+        loadRowMajor(step.left, fused.getLeft());
+        SharedMatrix right = step.right;
+        if (fused.isRightTransposed()) {
+            //A * T(B): B loaded row-major is T(B) column-major, the kernel reads it through the view as it is
+            loadRowMajor(step.right, fused.getRight());
+            right = step.right.transposed();
+        } else {
+            loadColumnMajor(step.right, fused.getRight());
+        }
+        checkMultiplyOperands(step.left, right);
+        if (fused.getAccumulated() != null) {
+            //A * B + C: the product starts as a copy of C and the kernel adds A * B to it
+            step.product = new SharedMatrix(pool);
+            loadWritable(step.product, fused.getAccumulated());
+            checkAddShapes(step.left.length(), right.length(), step.product.rows(), step.product.cols());
+        } else {
+            step.product = new SharedMatrix(step.left.length(), right.length(), VectorOrientation.ROW_MAJOR, pool);
+        }
+        step.run(multiplyTasks(step.left, right, step.product), () -> resolvable.resolve(step.product.detach()));
+    }
+
+    //Waits for the step's tasks, resolves its node and stores the result in the cache. The first exception
+    //thrown by a task is rethrown. The step's buffers are released either way.
+    private void finish(Step step) {
+        try {
+            step.tasks.join();
+            step.resolve.run();
+            //transposes are O(1) views, not worth a cache entry
+            if (resultCache != null && fingerprints != null && step.node.getNodeType() != ComputationNodeType.TRANSPOSE) {
+                resultCache.store(fingerprints.fingerprint(step.node), step.node);
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        } finally {
+            step.release();
+        }
+    }
+
+    /**
+     * Computes every operator node of the tree, dependency driven: all the ready nodes (whose operands are matrices)
+     * are started at once, up to maxNodesInFlight, and a node is started as soon as the last of its children is done.
+     * Independent subtrees like the two products of (A*B) + (C*D) run side by side on the executor, so small nodes
+     * don't leave most workers idle. Loading, resolving and the cache stay on this thread, the steps only share
+     * the executor. After a failure no new node is started, the ones in flight are waited for before rethrowing.
+     */
+    private void computeAll(ComputationNode root) {
+        root.associativeNesting();
+        Map<ComputationNode, OperatorFusion.Fusion> fusions = fuseOperators ? fusion.fuse(root) : Map.of();
+        NodeDependencies dependencies = new NodeDependencies(root, fusions);
+        lastPlan = explain ? PhysicalPlan.build(root, fusions, granularity::taskCount, maxNodesInFlight) : null;
+        BlockingQueue<Step> done = new LinkedBlockingQueue<>();
+        int inFlight = 0;
+        RuntimeException failure = null;
+        boolean interrupted = false;
+        while (true) {
+            while (failure == null && inFlight < maxNodesInFlight && dependencies.hasReady()) {
+                try {
+                    ComputationNode next = dependencies.nextReady();
+                    Step step = start(next, fusions.get(next));
+                    step.tasks.whenComplete((result, error) -> done.add(step));
+                    inFlight++;
+                    peakNodesInFlight = Math.max(peakNodesInFlight, inFlight);
+                } catch (RuntimeException e) {
+                    failure = e;
+                }
+            }
+            if (inFlight == 0) {
+                break;
+            }
+            Step step;
+            try {
+                step = done.take();
+            } catch (InterruptedException e) {
+                //the tasks in flight still use their operands, the interrupt is kept for the caller
+                interrupted = true;
+                continue;
+            }
+            inFlight--;
+            try {
+                finish(step);
+                if (lastPlan != null) {
+                    lastPlan.recordActual(step.node, step.taskCount, System.nanoTime() - step.started);
+                }
+                dependencies.resolved(step.node);
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    //Resolves the topmost subtrees whose results are in the cache, each node is looked up once
+    private void loadCached(ComputationNode node, Set<ComputationNode> visited) {
+        if (node.getNodeType() == ComputationNodeType.MATRIX || !visited.add(node)) {
+            return;
+        }
+        MappedMatrix cached = resultCache.lookup(fingerprints.fingerprint(node));
+        if (cached != null) {
+            node.resolve(cached);
+            return;
+        }
+        for (ComputationNode child : node.getChildren()) {
+            loadCached(child, visited);
+        }
+    }
+
+    /**
+     * Turns on the persistent result cache: every computed subtree is stored under its fingerprint,
+     * and subtrees found in the cache are loaded instead of computed.
+     */
+    public void setResultCache(ResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    //Gives the buffers of leftMatrix and rightMatrix back to the pool. Releasing an empty matrix does nothing.
+    private void releaseMatrices() {
+        leftMatrix.release();
+        rightMatrix.release();
+    }
+
+    //Loads an operand as row-major. Operands that are already in the engine format (the results of earlier steps
+    //and transposed views of them) are consumed directly and are only copied if their layout doesn't match.
+    private void loadRowMajor(SharedMatrix target, ComputationNode operand) {
+        if (operand.getSharedMatrix() != null) {
+            target.loadRowMajor(operand.getSharedMatrix());
+        } else if (operand.getMappedMatrix() != null) {
+            target.loadRowMajor(operand.getMappedMatrix());
+        } else {
+            target.loadRowMajor(operand.getMatrix());
+        }
+    }
+
+    //Loads an operand as row-major into a matrix the step computes in place. An engine-side operand is copied
+    //instead of shared: it may be a view of another node's result, or shared by several parents of the DAG.
+    private void loadWritable(SharedMatrix target, ComputationNode operand) {
+        if (operand.getSharedMatrix() != null) {
+            target.loadRowMajorCopy(operand.getSharedMatrix());
+        } else {
+            loadRowMajor(target, operand);
+        }
+    }
+
+    private void loadColumnMajor(SharedMatrix target, ComputationNode operand) {
+        if (operand.getSharedMatrix() != null) {
+            target.loadColumnMajor(operand.getSharedMatrix());
+        } else if (operand.getMappedMatrix() != null) {
+            target.loadColumnMajor(operand.getMappedMatrix());
+        } else {
+            target.loadColumnMajor(operand.getMatrix());
+        }
+    }
+
+    private SharedMatrix toSharedMatrix(ComputationNode operand) {
+        if (operand.getSharedMatrix() != null) {
+            return operand.getSharedMatrix();
+        }
+        if (operand.getMappedMatrix() != null) {
+            SharedMatrix loaded = new SharedMatrix();
+            loaded.loadRowMajor(operand.getMappedMatrix());
+            return loaded;
+        }
+        return new SharedMatrix(operand.getMatrix());
+    }
+
+    private boolean hasSparseOperand(List<ComputationNode> operands) {
+        for (ComputationNode operand : operands) {
+            if (operand.getSparseMatrix() != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //Starts a node with at least one sparse operand. Sparse results stay sparse while they are sparse enough.
+    private void startSparse(Step step) {
+        ComputationNode resolvable = step.node;
+        List<ComputationNode> operands = resolvable.getChildren();
+        ComputationNode first = operands.get(0);
+        switch (resolvable.getNodeType()) {
+            case TRANSPOSE:
+                //CSR of a matrix is the CSC of its transpose, the node converts it to CSR once when it is resolved
+                step.resolve = () -> resolvable.resolve(first.getSparseMatrix().transposed());
+                return;
+            case NEGATE: {
+                SparseMatrix operand = first.getSparseMatrix().toCsr();
+                double[] negated = new double[operand.nonZeros()];
+                step.run(createSparseNegateTasks(operand, negated), () -> resolvable.resolve(operand.withValues(negated)));
+                return;
+            }
+            case ADD: {
+                ComputationNode second = operands.get(1);
+                if (first.getSparseMatrix() != null && second.getSparseMatrix() != null) {
+                    SparseMatrix left = first.getSparseMatrix().toCsr();
+                    SparseMatrix right = second.getSparseMatrix().toCsr();
+                    checkAddShapes(left.rows(), left.cols(), right.rows(), right.cols());
+                    SparseMatrix.Builder sum = new SparseMatrix.Builder(left.rows(), left.cols());
+                    step.run(createSparseAddTasks(left, right, sum), () -> resolveSparse(resolvable, sum.build()));
+                } else {
+                    //sparse + dense is dense: the dense operand is loaded into the left matrix and the
+                    //non zeros of the sparse one are added to it
+                    ComputationNode dense = first.getSparseMatrix() != null ? second : first;
+                    SparseMatrix sparse = (first.getSparseMatrix() != null ? first : second).getSparseMatrix().toCsr();
+                    loadWritable(step.left, dense);
+                    checkAddShapes(step.left.rows(), step.left.cols(), sparse.rows(), sparse.cols());
+                    step.run(createSparseAddTasks(sparse, step.left), () -> resolvable.resolve(step.left.detach()));
+                }
+                return;
+            }
+            case MULTIPLY: {
+                ComputationNode second = operands.get(1);
+                if (first.getSparseMatrix() != null && second.getSparseMatrix() != null) {
+                    SparseMatrix left = first.getSparseMatrix().toCsr();
+                    SparseMatrix right = second.getSparseMatrix().toCsr();
+                    checkMultiplyShapes(left.cols(), right.rows());
+                    SparseMatrix.Builder product = new SparseMatrix.Builder(left.rows(), right.cols());
+                    step.run(createSparseMultiplyTasks(left, right, product), () -> resolveSparse(resolvable, product.build()));
+                } else if (first.getSparseMatrix() != null) {
+                    SparseMatrix left = first.getSparseMatrix().toCsr();
+                    loadRowMajor(step.right, second);
+                    checkMultiplyShapes(left.cols(), step.right.rows());
+                    step.product = new SharedMatrix(left.rows(), step.right.cols(), VectorOrientation.ROW_MAJOR, pool);
+                    step.run(createSparseMultiplyTasks(left, step.right, step.product),
+                            () -> resolvable.resolve(step.product.detach()));
+                } else {
+                    SparseMatrix right = second.getSparseMatrix().toCsr();
+                    loadRowMajor(step.left, first);
+                    checkMultiplyShapes(step.left.cols(), right.rows());
+                    step.product = new SharedMatrix(step.left.rows(), right.cols(), VectorOrientation.ROW_MAJOR, pool);
+                    step.run(createSparseMultiplyTasks(step.left, right, step.product),
+                            () -> resolvable.resolve(step.product.detach()));
+                }
+                return;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown nodeType");
+        }
+    }
+
+    //Keeps a sparse result sparse only if it is still sparse enough, otherwise the dense kernels are faster
+    private void resolveSparse(ComputationNode resolvable, SparseMatrix result) {
+        if (result.density() <= SparseMatrix.DENSITY_THRESHOLD) {
+            resolvable.resolve(result);
+        } else {
+            resolvable.resolve(result.readRowMajor());
+        }
+    }
+
+    private void checkAddShapes(int leftRows, int leftCols, int rightRows, int rightCols) {
+        if (leftRows != rightRows || leftCols != rightCols) {
+            throw new IllegalArgumentException("Addition is only performed for same size matrices.");
+        }
+    }
+
+    private void checkMultiplyShapes(int leftCols, int rightRows) {
+        if (leftCols != rightRows) {
+            throw new IllegalArgumentException("the sizes of the matrices are not suitable for multiplication.");
+        }
+    }
+
+    //Splits the rows into tasks of about equal FLOPs (see TaskGranularity) and records the choice for the worker report
+    private int[] rowBlocks(String operation, int rows, int cols, IntToLongFunction cumulativeFlops) {
+        long totalFlops = cumulativeFlops.applyAsLong(rows);
+        int[] bounds = TaskGranularity.split(rows, cumulativeFlops, granularity.taskCount(totalFlops));
+        granularity.record(operation, rows, cols, bounds.length - 1, totalFlops);
+        return bounds;
+    }
+
+    //One task per block of rows [bounds[b], bounds[b + 1])
+    private static List<Runnable> blockTasks(int[] bounds, RowBlock block) {
+        List<Runnable> tasks = new ArrayList<>(bounds.length - 1);
+        for (int b = 0; b + 1 < bounds.length; b++) {
+            final int start = bounds[b];
+            final int end = bounds[b + 1];
+            tasks.add(() -> block.run(start, end));
+        }
+        return tasks;
+    }
+
+    private interface RowBlock {
+        void run(int rowStart, int rowEnd);
+    }
+
+    //The cost of the sparse rows follows their non zeros, plus one for the row itself
+    public List<Runnable> createSparseNegateTasks(SparseMatrix operand, double[] negated) {
+        int[] bounds = rowBlocks("sparse NEGATE", operand.rows(), operand.cols(), i -> operand.rowPointer(i) + i);
+        return blockTasks(bounds, (start, end) -> operand.negateRows(negated, start, end));
+    }
+
+    public List<Runnable> createSparseAddTasks(SparseMatrix left, SparseMatrix right, SparseMatrix.Builder sum) {
+        int[] bounds = rowBlocks("sparse ADD", left.rows(), left.cols(),
+                i -> (long) left.rowPointer(i) + right.rowPointer(i) + i);
+        return blockTasks(bounds, (start, end) -> left.addRows(right, sum, start, end));
+    }
+
+    public List<Runnable> createSparseAddTasks(SparseMatrix sparse, SharedMatrix dense) {
+        int[] bounds = rowBlocks("sparse ADD", sparse.rows(), sparse.cols(), i -> sparse.rowPointer(i) + i);
+        return blockTasks(bounds, (start, end) -> sparse.addRows(dense, start, end));
+    }
+
+    public List<Runnable> createSparseMultiplyTasks(SparseMatrix left, SparseMatrix right, SparseMatrix.Builder product) {
+        //every non zero of a left row meets a row of right, counted at the average length of right's rows
+        long averageRightRow = Math.max(1, right.nonZeros() / right.rows());
+        int[] bounds = rowBlocks("sparse MULTIPLY", left.rows(), right.cols(),
+                i -> 2L * left.rowPointer(i) * averageRightRow + i);
+        return blockTasks(bounds, (start, end) -> left.multiplyRows(right, product, start, end));
+    }
+
+    public List<Runnable> createSparseMultiplyTasks(SparseMatrix left, SharedMatrix right, SharedMatrix product) {
+        int[] bounds = rowBlocks("sparse MULTIPLY", left.rows(), right.cols(),
+                i -> 2L * left.rowPointer(i) * right.cols() + i);
+        //found once here instead of in every task
+        int[] rightNonFinite = SparseMatrix.nonFinitePositions(right);
+        return blockTasks(bounds, (start, end) -> left.multiplyRows(right, rightNonFinite, product, start, end));
+    }
+
+    public List<Runnable> createSparseMultiplyTasks(SharedMatrix left, SparseMatrix right, SharedMatrix product) {
+        //a dense row meets all the non zeros of right
+        int[] bounds = rowBlocks("sparse MULTIPLY", left.rows(), right.cols(),
+                i -> 2L * i * right.nonZeros() + i);
+        return blockTasks(bounds, (start, end) -> SparseMatrix.multiplyRows(left, right, product, start, end));
     }
 
     public List<Runnable> createAddTasks() {
@@ -87,68 +579,127 @@ public class LinearAlgebraEngine {
         //this line is incurrect the lentgh is how many vectors we have in the list it dosent have to match : example 3x2 and 2x3
         // this bring a more genral cuastion do we need to add only if this is row major and colum major or we need to constracte new mertixses with
         // the right orientation?
-        if (leftMatrix.length() != rightMatrix.length()) {
+        return addTasks(leftMatrix, rightMatrix, false);
+    }
+
+    //left + right into left, or -(left + right) if negated
+    private List<Runnable> addTasks(SharedMatrix left, SharedMatrix right, boolean negated) {
+        if (left.length() != right.length()) {
             throw new IllegalArgumentException("Addition is only performed for same size matrices.");
         }
-        List<Runnable> tasks = new LinkedList<>();
-        for (int i = 0; i < leftMatrix.length(); i++) {
-            final int rowIndex = i;
-            tasks.add(() -> { //Lambada runnable function
-                leftMatrix.get(rowIndex).add(rightMatrix.get(rowIndex));
-            });
-        }
-        return tasks;
+        //A task adds a block of rows, sized by TaskGranularity instead of one task per row
+        int cols = left.get(0).length();
+        int[] bounds = rowBlocks(negated ? "-(ADD)" : "ADD", left.length(), cols, i -> (long) i * cols);
+        return blockTasks(bounds, (start, end) -> {
+            for (int rowIndex = start; rowIndex < end; rowIndex++) {
+                if (negated) {
+                    left.get(rowIndex).negateSum(right.get(rowIndex));
+                } else {
+                    left.get(rowIndex).add(right.get(rowIndex));
+                }
+            }
+        });
     }
 
     public List<Runnable> createMultiplyTasks() {
-        // DONE: return tasks that perform row × matrix multiplication
-        if (leftMatrix.length() == 0 || rightMatrix.length() == 0) {
+        // DONE: return tasks that perform tiled matrix multiplication
+        checkMultiplyOperands(leftMatrix, rightMatrix);
+        //The product matrix takes the place of the left matrix to keep the result-in-left attitude.
+        SharedMatrix product = new SharedMatrix(leftMatrix.length(), rightMatrix.length(), VectorOrientation.ROW_MAJOR, pool);
+        List<Runnable> tasks = multiplyTasks(leftMatrix, rightMatrix, product);
+        leftMatrix = product;
+        return tasks;
+    }
+
+    private void checkMultiplyOperands(SharedMatrix left, SharedMatrix right) {
+        if (left.length() == 0 || right.length() == 0) {
             throw new IllegalArgumentException("Multiplication can't be performed with empty matrices");
         }
-        // i think the cheak is complex , cheak if he is a colum major and the other is row major and the sizes are suitable for multiplication
-        // also do we need to abort it the ipoentetion is not suitable or we can create a new matrix with the right orientation?
-        if (!(leftMatrix.isRowMajor()) || rightMatrix.isRowMajor() ||
-                leftMatrix.get(0).length() != rightMatrix.get(0).length()) {
+        //The left matrix has to be row major and the right one column major, with the same vector length
+        if (!(left.isRowMajor()) || right.isRowMajor() || left.get(0).length() != right.get(0).length()) {
             throw new IllegalArgumentException("the sizes of the matrices are not suitable for multiplication.");
         }
-        List<Runnable> tasks = new LinkedList<>();
-        for (int i = 0; i < leftMatrix.length(); i++) {
-            final int rowIndex = i;
-            tasks.add(() -> { //Lambada runnable function
-                leftMatrix.get(rowIndex).vecMatMul(rightMatrix);
-            });
+    }
+
+    //The product is split into blocks of tiles, each block is one task of the executor (see GemmKernel)
+    private List<Runnable> multiplyTasks(SharedMatrix left, SharedMatrix right, SharedMatrix product) {
+        GemmKernel.checkOperands(left, right, product);
+        int numRows = product.length();
+        int numCols = right.length();
+        long flopsPerRow = 2L * left.get(0).length() * numCols;
+        long totalFlops = flopsPerRow * numRows;
+        //Row blocks first; a product with too few rows for the wanted number of tasks is split by columns too
+        int taskCount = granularity.taskCount(totalFlops);
+        int rowParts = Math.min(taskCount, numRows);
+        int colTiles = (numCols + GemmKernel.TILE_SIZE - 1) / GemmKernel.TILE_SIZE;
+        int colParts = Math.min((taskCount + rowParts - 1) / rowParts, colTiles);
+        int[] rowBounds = TaskGranularity.split(numRows, i -> i * flopsPerRow, rowParts);
+        int[] colBounds = TaskGranularity.split(colTiles, t -> t, colParts);
+        List<Runnable> tasks = new ArrayList<>();
+        for (int r = 0; r + 1 < rowBounds.length; r++) {
+            for (int c = 0; c + 1 < colBounds.length; c++) {
+                final int blockRowStart = rowBounds[r];
+                final int blockRowEnd = rowBounds[r + 1];
+                //column blocks are whole tiles, except the last one
+                final int blockColStart = colBounds[c] * GemmKernel.TILE_SIZE;
+                final int blockColEnd = Math.min(colBounds[c + 1] * GemmKernel.TILE_SIZE, numCols);
+                tasks.add(() -> { //Lambada runnable function
+                    GemmKernel.multiplyBlock(left, right, product, blockRowStart, blockRowEnd, blockColStart, blockColEnd);
+                });
+            }
         }
+        granularity.record("MULTIPLY", numRows, numCols, tasks.size(), totalFlops);
         return tasks;
 
     }
 
     public List<Runnable> createNegateTasks() {
         // DONE: return tasks that negate rows
-        List<Runnable> tasks = new LinkedList<>();
-        for (int i = 0; i < leftMatrix.length(); i++) {
-            final int rowIndex = i;
-            tasks.add(() -> { //Lambada runnable function
-                leftMatrix.get(rowIndex).negate();
-            });
-        }
-        return tasks;
+        return negateTasks(leftMatrix);
+    }
+
+    private List<Runnable> negateTasks(SharedMatrix operand) {
+        int cols = operand.get(0).length();
+        int[] bounds = rowBlocks("NEGATE", operand.length(), cols, i -> (long) i * cols);
+        return blockTasks(bounds, (start, end) -> {
+            for (int rowIndex = start; rowIndex < end; rowIndex++) {
+                operand.get(rowIndex).negate();
+            }
+        });
     }
 
     public List<Runnable> createTransposeTasks() {
-        // DONE: return tasks that transpose rows
-        List<Runnable> tasks = new LinkedList<>();
-        for (int i = 0; i < leftMatrix.length(); i++) {
-            final int rowIndex = i;
-            tasks.add(() -> { //Lambada runnable function
-                leftMatrix.get(rowIndex).transpose();
-            });
-        }
-        return tasks;
+        // DONE: transpose the left matrix
+        //Transposing only flips the orientation of the storage, so there is no per-row work to hand out
+        leftMatrix.transpose();
+        return new LinkedList<>();
     }
 
     public String getWorkerReport() {
         // DONE: return summary of worker activity
-        return executor.getWorkerReport();
+        return executor.getWorkerReport() + granularity.getReport()
+                + "nodes in flight: at most " + peakNodesInFlight + " at once (limit " + maxNodesInFlight + ")\n";
+    }
+
+    //The steps of the last tree with their kernel, estimated cost and actual tasks and time, needs setExplain
+    public String getExplainReport() {
+        return lastPlan == null ? "physical plan: none, explain is off or the tree was rejected\n" : lastPlan.explain();
+    }
+
+    //Hits, misses and bytes saved of the result cache
+    public String getCacheReport() {
+        return resultCache == null ? "result cache: disabled\n" : resultCache.getReport();
+    }
+
+    //The multiplication orders chosen by the chain optimizer, the FLOPs they save, the deduplicated subtrees,
+    //the fused steps and the algebraic rewrites applied
+    public String getPlanReport() {
+        return chainOptimizer.getReport() + subexpressions.getReport() + fusion.getReport() + rewriter.getReport();
+    }
+
+    //Summary of the buffer pool: how many intermediate buffers were allocated and how many were reused
+    public String getAllocationReport() {
+        return pool.getReport();
     }
 
     public void shutdownExecutor() throws InterruptedException {
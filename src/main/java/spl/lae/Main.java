@@ -1,48 +1,115 @@
 package spl.lae;
 import java.io.IOException;
 import java.text.ParseException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import cache.ResultCache;
 
 import parser.*;
-import scheduling.TiredExecutor;
+import scheduling.ExecutorMode;
 
 public class Main {
+
+    static final long DEFAULT_CACHE_SIZE_MB = 1024; // bound of the result cache unless --cache-size-mb says otherwise
+
     public static void main(String[] args) throws IOException {
 
+        //Batch mode: many input files on one long-lived engine, see BatchMain
+        if (args.length > 0 && args[0].equals("--batch")) {
+            BatchMain.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
         //Getting arguments from the JSON file
         if (args.length < 3) {
             System.out.println("No path to the input JSON file.");
             return;
         }
-        int numThreads = Integer.parseInt(args[0]);
         String inputPath = args[1];
         String outputPath = args[2];
-
-        //Initializing LAE (initialized tired executor)
-        LinearAlgebraEngine LAE = new LinearAlgebraEngine(numThreads);
+        //Optional flags after the paths
+        boolean compact = false;
+        String cacheDir = null;
+        long cacheSizeMb = DEFAULT_CACHE_SIZE_MB;
+        ExecutorMode executorMode = ExecutorMode.TIRED;
+        boolean explain = false;
+        LinearAlgebraEngine LAE;
+        try {
+            int numThreads = Integer.parseInt(args[0]);
+            for (int i = 3; i < args.length; i++) {
+                if (args[i].equals("--compact")) {
+                    //one-line JSON output instead of the indented format, smaller and faster to write
+                    compact = true;
+                } else if (args[i].startsWith("--cache=")) {
+                    //persistent result cache in this directory
+                    cacheDir = args[i].substring("--cache=".length());
+                } else if (args[i].startsWith("--cache-size-mb=")) {
+                    cacheSizeMb = Long.parseLong(args[i].substring("--cache-size-mb=".length()));
+                } else if (args[i].startsWith("--executor=")) {
+                    //tired (default), stealing or virtual (JDK 21+), see ExecutorMode
+                    executorMode = ExecutorMode.fromName(args[i].substring("--executor=".length()));
+                } else if (args[i].equals("--explain")) {
+                    //the physical plan with estimated and actual cost per step, printed after the run
+                    explain = true;
+                } else {
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+            //Initializing LAE (initialized tired executor)
+            LAE = new LinearAlgebraEngine(numThreads, executorMode);
+        } catch (IllegalArgumentException e) {
+            //a bad option or an executor this JVM can't run is reported like a bad input
+            OutputWriter.write(e.getMessage(), outputPath, compact);
+            return;
+        }
+        LAE.setExplain(explain);
+        if (cacheDir != null) {
+            LAE.setResultCache(new ResultCache(Paths.get(cacheDir), cacheSizeMb << 20));
+        }
         //Initializing input parser
         InputParser parser = new InputParser();
 
+        try {
+            evaluateFile(LAE, parser, inputPath, outputPath, compact);
+            if (explain) {
+                System.out.print(LAE.getExplainReport());
+            }
+        } finally {
+            try {
+                LAE.shutdownExecutor();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+    }
+
+    /**
+     * Parses one input file, computes it on the engine and writes the result.
+     * Errors are written to the output file instead of a result, the engine stays usable.
+     * Returns null on success and the error message otherwise.
+     */
+    static String evaluateFile(LinearAlgebraEngine LAE, InputParser parser, String inputPath, String outputPath,
+                               boolean compact) throws IOException {
+        String error;
         try {
             ComputationNode root = parser.parse(inputPath);
             //Performing the calculations
-            ComputationNode res = LAE.run(root);
+            ComputationNode res = LAE.evaluate(root);
             //Writing the result to the JSON file
-            OutputWriter.write(res.getMatrix(), outputPath);
+            OutputWriter.write(res, outputPath, compact);
+            return null;
 
         //Catching parse exception
         } catch (ParseException e) {
-            OutputWriter.write(e.getMessage(), outputPath);
+            error = e.getMessage();
         } catch (IllegalArgumentException e) {
-            OutputWriter.write(e.getMessage(), outputPath);
+            error = e.getMessage();
         } catch (Exception e) {
-            OutputWriter.write("An error occurred during computation: " + e.getMessage(), outputPath);
-        }finally {
-            try {
-                LAE.shutdownExecutor();
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
+            error = "An error occurred during computation: " + e.getMessage();
         }
-        
+        OutputWriter.write(error, outputPath, compact);
+        return error;
     }
-}
\ No newline at end of file
+}
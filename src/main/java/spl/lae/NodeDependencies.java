@@ -0,0 +1,75 @@
+package spl.lae;
+
+import parser.ComputationNode;
+import parser.ComputationNodeType;
+import planner.OperatorFusion;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The operator nodes of a tree that still have to be computed, and which of them are ready.
+ * After common subexpression elimination the tree is a DAG, so a node can have several parents and
+ * the same child twice (A * A): every node is counted once and waits for each of its distinct operator children once.
+ * A node is ready when all its children are matrices; resolved(node) makes its parents ready when it was the last
+ * child they were waiting for. Nodes are handed out in the order they got ready.
+ * A fused node (see OperatorFusion) waits for the operands of its fusion instead of its children.
+ * Only used by the engine's thread, it isn't thread safe.
+ */
+class NodeDependencies {
+
+    private final Map<ComputationNode, Integer> pending = new IdentityHashMap<>(); // children not resolved yet
+    private final Map<ComputationNode, List<ComputationNode>> parents = new IdentityHashMap<>();
+    private final ArrayDeque<ComputationNode> ready = new ArrayDeque<>();
+    private final Map<ComputationNode, OperatorFusion.Fusion> fusions; // by outer node
+
+    NodeDependencies(ComputationNode root, Map<ComputationNode, OperatorFusion.Fusion> fusions) {
+        this.fusions = fusions;
+        collect(root);
+    }
+
+    private void collect(ComputationNode node) {
+        if (node.getNodeType() == ComputationNodeType.MATRIX || pending.containsKey(node)) {
+            return;
+        }
+        int waitingFor = 0;
+        pending.put(node, 0);
+        OperatorFusion.Fusion fused = fusions.get(node);
+        for (ComputationNode child : fused != null ? fused.getOperands() : node.getChildren()) {
+            if (child.getNodeType() == ComputationNodeType.MATRIX) {
+                continue;
+            }
+            List<ComputationNode> childParents = parents.computeIfAbsent(child, c -> new ArrayList<>());
+            if (!childParents.contains(node)) {
+                childParents.add(node);
+                waitingFor++;
+            }
+            collect(child);
+        }
+        pending.put(node, waitingFor);
+        if (waitingFor == 0) {
+            ready.add(node);
+        }
+    }
+
+    boolean hasReady() {
+        return !ready.isEmpty();
+    }
+
+    ComputationNode nextReady() {
+        return ready.poll();
+    }
+
+    //The node was computed, the parents that were only waiting for it are ready now
+    void resolved(ComputationNode node) {
+        for (ComputationNode parent : parents.getOrDefault(node, List.of())) {
+            int waitingFor = pending.merge(parent, -1, Integer::sum);
+            if (waitingFor == 0) {
+                ready.add(parent);
+            }
+        }
+    }
+}
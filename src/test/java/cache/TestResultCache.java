@@ -0,0 +1,61 @@
+package cache;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import memory.MappedMatrix;
+import parser.*;
+
+import java.nio.file.Path;
+import java.util.List;
+
+public class TestResultCache {
+
+    @TempDir
+    Path dir;
+
+    private static final double[][] DATA = {
+        {1.0, 2.0, 3.0},
+        {4.0, 5.0, 6.0}
+    };
+
+    @Test
+    public void TestStoreAndLookup() throws Exception {
+        ResultCache cache = new ResultCache(dir, 1 << 20);
+        assertNull(cache.lookup("abc"));
+        cache.store("abc", new ComputationNode(DATA));
+        MappedMatrix hit = cache.lookup("abc");
+        assertArrayEquals(DATA, hit.readRowMajor());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(6 * 8, cache.getBytesSaved());
+        //a new cache over the same directory sees the entry
+        assertArrayEquals(DATA, new ResultCache(dir, 1 << 20).lookup("abc").readRowMajor());
+    }
+
+    @Test
+    public void TestLeastRecentlyUsedIsEvicted() throws Exception {
+        //room for two entries of 2x3 doubles
+        ResultCache cache = new ResultCache(dir, 2 * (16 + 48));
+        cache.store("a", new ComputationNode(DATA));
+        cache.store("b", new ComputationNode(DATA));
+        assertNotNull(cache.lookup("a"));
+        cache.store("c", new ComputationNode(DATA));
+        assertNull(cache.lookup("b"));
+        assertNotNull(cache.lookup("a"));
+        assertNotNull(cache.lookup("c"));
+    }
+
+    @Test
+    public void TestFingerprints(){
+        Fingerprinter fingerprinter = new Fingerprinter();
+        ComputationNode dense = new ComputationNode(DATA);
+        ComputationNode same = new ComputationNode(new double[][]{{1.0, 2.0, 3.0}, {4.0, 5.0, 6.0}});
+        ComputationNode other = new ComputationNode(new double[][]{{1.0, 2.0}, {3.0, 4.0}, {5.0, 6.0}});
+        assertEquals(fingerprinter.fingerprint(dense), fingerprinter.fingerprint(same));
+        //same values, other shape
+        assertNotEquals(fingerprinter.fingerprint(dense), fingerprinter.fingerprint(other));
+        ComputationNode negate = new ComputationNode(ComputationNodeType.NEGATE, List.of(dense));
+        ComputationNode transpose = new ComputationNode(ComputationNodeType.TRANSPOSE, List.of(same));
+        assertNotEquals(fingerprinter.fingerprint(negate), fingerprinter.fingerprint(transpose));
+    }
+}
@@ -0,0 +1,144 @@
+package memory;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Read contention benchmark for the vector read path, not part of the unit tests.
+ * Compares the previous read path (a ReentrantReadWriteLock per vector, and SharedMatrix.get taking
+ * the read lock of every vector) with the current one (optimistic StampedLock reads, lock-free get)
+ * for 1 to N reader threads.
+ *
+ * Run after mvn test-compile with:
+ * java -cp target/classes:target/test-classes memory.ReadContentionBenchmark [maxThreads] [millisPerRun]
+ */
+public class ReadContentionBenchmark {
+
+    private static final int ROWS = 512;
+    private static final int COLS = 512;
+
+    public static void main(String[] args) throws InterruptedException {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        long millis = args.length > 1 ? Long.parseLong(args[1]) : 500;
+
+        double[][] data = new double[ROWS][COLS];
+        for (int i = 0; i < ROWS; i++) {
+            for (int j = 0; j < COLS; j++) {
+                data[i][j] = i + j;
+            }
+        }
+        LockedMatrix before = new LockedMatrix(data);
+        SharedMatrix after = new SharedMatrix(data);
+
+        //warm up both paths so the JIT compiled code is measured
+        run(1, millis, (i, j) -> before.get(i).get(j));
+        run(1, millis, (i, j) -> after.get(i).get(j));
+
+        System.out.println("readers | before (Mreads/s) | after (Mreads/s) | speedup");
+        //1, 2, 4, ... readers, always ending with maxThreads
+        int threads = 1;
+        while (true) {
+            double beforeRate = run(threads, millis, (i, j) -> before.get(i).get(j));
+            double afterRate = run(threads, millis, (i, j) -> after.get(i).get(j));
+            System.out.printf("%7d | %17.2f | %16.2f | %6.2fx%n", threads, beforeRate, afterRate, afterRate / beforeRate);
+            if (threads >= maxThreads) {
+                break;
+            }
+            threads = Math.min(threads * 2, maxThreads);
+        }
+    }
+
+    private interface Reader {
+        double read(int row, int col);
+    }
+
+    //Runs threads readers for the given time and returns the total number of reads per second, in millions.
+    private static double run(int threads, long millis, Reader reader) throws InterruptedException {
+        LongAdder reads = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] readers = new Thread[threads];
+        long deadline = System.nanoTime() + millis * 1_000_000L;
+        for (int t = 0; t < threads; t++) {
+            final int seed = t;
+            readers[t] = new Thread(() -> {
+                int row = seed;
+                int col = seed * 7;
+                long count = 0;
+                double sink = 0;
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                while (System.nanoTime() < deadline) {
+                    for (int k = 0; k < 1024; k++) {
+                        row = (row + 1) % ROWS;
+                        col = (col + 3) % COLS;
+                        sink += reader.read(row, col);
+                    }
+                    count += 1024;
+                }
+                reads.add(count);
+                if (sink == -1) {
+                    System.out.print("");
+                }
+            });
+            readers[t].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread t : readers) {
+            t.join();
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        return reads.sum() / seconds / 1e6;
+    }
+
+    //The read path as it was before: one ReentrantReadWriteLock per vector
+    private static class LockedVector {
+        private final double[] vector;
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+        LockedVector(double[] vector) {
+            this.vector = vector;
+        }
+
+        double get(int index) {
+            lock.readLock().lock();
+            try {
+                return vector[index];
+            }
+            finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+
+    //The matrix read path as it was before: get takes the read lock of every vector
+    private static class LockedMatrix {
+        private final LockedVector[] vectors;
+
+        LockedMatrix(double[][] data) {
+            vectors = new LockedVector[data.length];
+            for (int i = 0; i < data.length; i++) {
+                vectors[i] = new LockedVector(data[i].clone());
+            }
+        }
+
+        LockedVector get(int index) {
+            for (LockedVector vector : vectors) {
+                vector.lock.readLock().lock();
+            }
+            try {
+                return vectors[index];
+            }
+            finally {
+                for (int i = vectors.length - 1; i >= 0; i--) {
+                    vectors[i].lock.readLock().unlock();
+                }
+            }
+        }
+    }
+}
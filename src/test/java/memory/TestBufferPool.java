@@ -0,0 +1,72 @@
+package memory;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestBufferPool {
+
+    @Test
+    public void TestReleasedBufferIsReused(){
+        BufferPool pool = new BufferPool();
+        double[] first = pool.borrow(100);
+        assertEquals(128, first.length);
+        pool.release(first);
+        //a slightly different size falls in the same bucket
+        double[] second = pool.borrow(120);
+        assertSame(first, second);
+        assertEquals(1, pool.getAllocated());
+        assertEquals(1, pool.getReused());
+        assertEquals(8L * 128, pool.getReusedBytes());
+    }
+
+    @Test
+    public void TestForeignBuffersAreIgnored(){
+        BufferPool pool = new BufferPool();
+        pool.release(new double[100]);
+        pool.borrow(100);
+        assertEquals(0, pool.getReused());
+        assertEquals(1, pool.getAllocated());
+    }
+
+    @Test
+    public void TestPooledMatrixRelease(){
+        BufferPool pool = new BufferPool();
+        double[][] data = {
+            {1.0, 2.0, 3.0},
+            {4.0, 5.0, 6.0}
+        };
+        SharedMatrix matrix = new SharedMatrix(pool);
+        matrix.loadColumnMajor(data);
+        assertArrayEquals(data, matrix.readRowMajor());
+        //a matrix sharing the storage must not give the buffer back
+        SharedMatrix sharing = new SharedMatrix(pool);
+        sharing.loadColumnMajor(matrix);
+        sharing.release();
+        assertEquals(0, sharing.length());
+        assertArrayEquals(data, matrix.readRowMajor());
+        matrix.release();
+        assertEquals(0, matrix.length());
+        //the zeroed constructor gets the released buffer back, cleared
+        SharedMatrix zeros = new SharedMatrix(2, 3, VectorOrientation.ROW_MAJOR, pool);
+        assertEquals(1, pool.getReused());
+        assertArrayEquals(new double[2][3], zeros.readRowMajor());
+    }
+
+    @Test
+    public void TestDetachedBufferStaysOut(){
+        BufferPool pool = new BufferPool();
+        double[][] data = {
+            {1.0, 2.0},
+            {3.0, 4.0}
+        };
+        SharedMatrix matrix = new SharedMatrix(pool);
+        matrix.loadRowMajor(data);
+        SharedMatrix detached = matrix.detach();
+        assertEquals(0, matrix.length());
+        //releasing the emptied matrix gives nothing back, so the next borrow can't overwrite the detached data
+        matrix.release();
+        SharedMatrix next = new SharedMatrix(2, 2, VectorOrientation.ROW_MAJOR, pool);
+        assertEquals(0, pool.getReused());
+        assertArrayEquals(new double[2][2], next.readRowMajor());
+        assertArrayEquals(data, detached.readRowMajor());
+    }
+}
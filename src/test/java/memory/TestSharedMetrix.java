@@ -119,4 +119,74 @@ public class TestSharedMetrix {
         assertEquals(false,ColMx.isRowMajor());
     }
 
+    @Test
+    public void TestVectorsAreViewsOfTheMatrix(){
+        double[][] data = {
+            {1.0, 2.0},
+            {3.0, 4.0},
+            {5.0, 6.0}
+        };
+        SharedMatrix sm = new SharedMatrix(data);
+        assertSame(sm.get(1), sm.get(1));
+        sm.get(1).negate();
+        double[][] expected = {
+            {1.0, 2.0},
+            {-3.0, -4.0},
+            {5.0, 6.0}
+        };
+        assertArrayEquals(expected, sm.readRowMajor());
+        //the input array is copied into the storage and is not changed
+        assertEquals(3.0, data[1][0]);
+    }
+
+    @Test
+    public void TestReadColumnMajor(){
+        double[][] data = {
+            {1.0, 2.0, 3.0},
+            {4.0, 5.0, 6.0}
+        };
+        SharedMatrix ColMx = new SharedMatrix();
+        ColMx.loadColumnMajor(data);
+        assertArrayEquals(data, ColMx.readRowMajor());
+    }
+
+    @Test
+    public void TestInconsistentRows(){
+        double[][] data = {
+            {1.0, 2.0, 3.0},
+            {4.0, 5.0}
+        };
+        SharedMatrix sm = new SharedMatrix();
+        assertThrows(IllegalArgumentException.class, () -> sm.loadRowMajor(data));
+        assertThrows(IllegalArgumentException.class, () -> sm.loadColumnMajor(data));
+    }
+
+    @Test
+    public void TestTransposeIsAView(){
+        double[][] data = {
+            {1.0, 2.0, 3.0},
+            {4.0, 5.0, 6.0}
+        };
+        SharedMatrix sm = new SharedMatrix(data);
+        SharedMatrix view = sm.transposed();
+        assertEquals(VectorOrientation.COLUMN_MAJOR, view.getOrientation());
+        assertEquals(3, view.rows());
+        assertEquals(2, view.cols());
+        double[][] expected = {
+            {1.0, 4.0},
+            {2.0, 5.0},
+            {3.0, 6.0}
+        };
+        assertArrayEquals(expected, view.readRowMajor());
+        //the view shares the data of the original matrix
+        sm.get(0).negate();
+        assertEquals(-2.0, view.readRowMajor()[1][0]);
+
+        SharedMatrix rowMajor = new SharedMatrix();
+        rowMajor.loadRowMajor(view);
+        assertEquals(VectorOrientation.ROW_MAJOR, rowMajor.getOrientation());
+        assertEquals(3, rowMajor.length());
+        assertArrayEquals(view.readRowMajor(), rowMajor.readRowMajor());
+    }
+
 }
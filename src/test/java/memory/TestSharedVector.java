@@ -69,6 +69,17 @@ public class TestSharedVector {
         assertEquals(-3.0, sv.get(2));
     }
 
+    @Test
+    public void TestNegateSum(){
+        //9 elements, so a SIMD build runs both the vector loop and the tail
+        SharedVector sv1 = new SharedVector(new double[]{1, 2, 3, 4, 5, 6, 7, 8, 9}, VectorOrientation.ROW_MAJOR);
+        SharedVector sv2 = new SharedVector(new double[]{1, 1, 1, 1, 1, 1, 1, 1, -10}, VectorOrientation.ROW_MAJOR);
+        sv1.negateSum(sv2);
+        assertArrayEquals(new double[]{-2, -3, -4, -5, -6, -7, -8, -9, 1}, sv1.getVector());
+        SharedVector column = new SharedVector(new double[9], VectorOrientation.COLUMN_MAJOR);
+        assertThrows(IllegalArgumentException.class, () -> sv1.negateSum(column));
+    }
+
     @Test
     public void testAddExceptions() {
         SharedVector v1 = new SharedVector(new double[]{1, 2}, VectorOrientation.ROW_MAJOR);
@@ -126,4 +137,28 @@ public class TestSharedVector {
         
 
     }
+
+    @Test
+    public void TestReadsDuringWrites() throws InterruptedException {
+        //readers never see a half negated vector: the optimistic reads are validated against the writes
+        double[] data = new double[256];
+        java.util.Arrays.fill(data, 1.0);
+        SharedVector sv = new SharedVector(data, VectorOrientation.ROW_MAJOR);
+        SharedVector ones = new SharedVector(data.clone(), VectorOrientation.COLUMN_MAJOR);
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 2000; i++) {
+                sv.negate();
+            }
+        });
+        writer.start();
+        for (int i = 0; i < 2000; i++) {
+            assertEquals(256.0, Math.abs(sv.dot(ones)), 0.0001);
+            double[] copy = sv.getVector();
+            for (double value : copy) {
+                assertEquals(copy[0], value);
+            }
+        }
+        writer.join();
+        assertEquals(1.0, sv.get(0));
+    }
 }
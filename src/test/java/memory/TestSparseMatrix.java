@@ -0,0 +1,161 @@
+package memory;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestSparseMatrix {
+
+    private static final double[][] DATA = {
+        {0.0, 2.0, 0.0},
+        {0.0, 0.0, 0.0},
+        {4.0, 0.0, 5.0}
+    };
+
+    @Test
+    public void TestFromRowMajor(){
+        SparseMatrix sm = SparseMatrix.fromRowMajor(DATA);
+        assertEquals(3, sm.nonZeros());
+        assertEquals(3, sm.rows());
+        assertEquals(3, sm.cols());
+        assertEquals(VectorOrientation.ROW_MAJOR, sm.getOrientation());
+        assertArrayEquals(DATA, sm.readRowMajor());
+    }
+
+    @Test
+    public void TestTransposeAndCsr(){
+        SparseMatrix sm = SparseMatrix.fromRowMajor(new double[][]{
+            {0.0, 2.0, 0.0},
+            {4.0, 0.0, 5.0}
+        });
+        SparseMatrix transposed = sm.transposed();
+        assertEquals(VectorOrientation.COLUMN_MAJOR, transposed.getOrientation());
+        double[][] expected = {
+            {0.0, 4.0},
+            {2.0, 0.0},
+            {0.0, 5.0}
+        };
+        assertArrayEquals(expected, transposed.readRowMajor());
+        SparseMatrix csr = transposed.toCsr();
+        assertEquals(VectorOrientation.ROW_MAJOR, csr.getOrientation());
+        assertArrayEquals(expected, csr.readRowMajor());
+    }
+
+    @Test
+    public void TestSparseTimesSparse(){
+        SparseMatrix sm = SparseMatrix.fromRowMajor(DATA);
+        SparseMatrix.Builder product = new SparseMatrix.Builder(3, 3);
+        sm.multiplyRows(sm, product, 0, 2);
+        sm.multiplyRows(sm, product, 2, 3);
+        double[][] expected = {
+            {0.0, 0.0, 0.0},
+            {0.0, 0.0, 0.0},
+            {20.0, 8.0, 25.0}
+        };
+        assertArrayEquals(expected, product.build().readRowMajor());
+    }
+
+    @Test
+    public void TestSparseWithDense(){
+        SparseMatrix sm = SparseMatrix.fromRowMajor(DATA);
+        double[][] dense = {
+            {1.0, 1.0, 1.0},
+            {1.0, 2.0, 3.0},
+            {1.0, 0.0, 1.0}
+        };
+        SharedMatrix sum = new SharedMatrix(dense);
+        sm.addRows(sum, 0, 3);
+        assertArrayEquals(new double[][]{{1.0, 3.0, 1.0}, {1.0, 2.0, 3.0}, {5.0, 0.0, 6.0}}, sum.readRowMajor());
+
+        SharedMatrix product = new SharedMatrix(3, 3, VectorOrientation.ROW_MAJOR);
+        sm.multiplyRows(new SharedMatrix(dense), product, 0, 3);
+        assertArrayEquals(new double[][]{{2.0, 4.0, 6.0}, {0.0, 0.0, 0.0}, {9.0, 4.0, 9.0}}, product.readRowMajor());
+
+        SharedMatrix product2 = new SharedMatrix(3, 3, VectorOrientation.ROW_MAJOR);
+        SparseMatrix.multiplyRows(new SharedMatrix(dense), sm, product2, 0, 3);
+        assertArrayEquals(new double[][]{{4.0, 2.0, 5.0}, {12.0, 2.0, 15.0}, {4.0, 2.0, 5.0}}, product2.readRowMajor());
+    }
+
+    @Test
+    public void TestDensitySelection(){
+        assertFalse(SparseMatrix.isSparseEnough(DATA)); //too small to be worth it
+        double[][] big = new double[64][64];
+        big[3][7] = 1.0;
+        assertTrue(SparseMatrix.isSparseEnough(big));
+        for (double[] row : big) {
+            java.util.Arrays.fill(row, 1.0);
+        }
+        assertFalse(SparseMatrix.isSparseEnough(big));
+    }
+
+    @Test
+    public void TestNegativeZeroIsStored(){
+        double[][] data = {{-0.0, 0.0}, {0.0, 1.0}};
+        SparseMatrix sm = SparseMatrix.fromRowMajor(data);
+        assertEquals(2, sm.nonZeros());
+        assertArrayEquals(data, sm.readRowMajor()); //compared bit by bit, so -0.0 has to come back as -0.0
+    }
+
+    @Test
+    public void TestZeroTimesInfinityIsNaN(){
+        double inf = Double.POSITIVE_INFINITY;
+        double[][] other = {
+            {1.0, 1.0, 1.0},
+            {1.0, inf, 1.0},
+            {1.0, 1.0, 1.0}
+        };
+        //what the dense kernels give: the missing zeros of DATA times inf are NaN
+        double[][] expected = {
+            {2.0, inf, 2.0},
+            {0.0, Double.NaN, 0.0},
+            {9.0, Double.NaN, 9.0}
+        };
+        assertArrayEquals(expected, multiplyAllWays(DATA, other));
+        //and inf times the missing zeros of DATA
+        double[][] expectedLeft = {
+            {4.0, 2.0, 5.0},
+            {Double.NaN, Double.NaN, Double.NaN},
+            {4.0, 2.0, 5.0}
+        };
+        assertArrayEquals(expectedLeft, multiplyAllWays(other, DATA));
+    }
+
+    //left · right with each of the sparse kernels, fails unless they all agree
+    private static double[][] multiplyAllWays(double[][] left, double[][] right){
+        int rows = left.length;
+        int cols = right[0].length;
+        SharedMatrix sparseDense = new SharedMatrix(rows, cols, VectorOrientation.ROW_MAJOR);
+        SparseMatrix.fromRowMajor(left).multiplyRows(new SharedMatrix(right), sparseDense, 0, rows);
+        SharedMatrix denseSparse = new SharedMatrix(rows, cols, VectorOrientation.ROW_MAJOR);
+        SparseMatrix.multiplyRows(new SharedMatrix(left), SparseMatrix.fromRowMajor(right), denseSparse, 0, rows);
+        SparseMatrix.Builder sparseSparse = new SparseMatrix.Builder(rows, cols);
+        SparseMatrix.fromRowMajor(left).multiplyRows(SparseMatrix.fromRowMajor(right), sparseSparse, 0, 1);
+        SparseMatrix.fromRowMajor(left).multiplyRows(SparseMatrix.fromRowMajor(right), sparseSparse, 1, rows);
+
+        double[][] result = sparseDense.readRowMajor();
+        assertArrayEquals(result, denseSparse.readRowMajor());
+        assertArrayEquals(result, sparseSparse.build().readRowMajor());
+        return result;
+    }
+
+    @Test
+    public void TestImplicitZerosStayPositive(){
+        //missing entries are +0.0, the one place where the sparse kernels differ from the dense ones
+        SparseMatrix sm = SparseMatrix.fromRowMajor(DATA);
+        double[] negated = new double[sm.nonZeros()];
+        sm.negateRows(negated, 0, 3);
+        double[][] expected = {
+            {0.0, -2.0, 0.0},
+            {0.0, 0.0, 0.0},
+            {-4.0, 0.0, -5.0}
+        };
+        assertArrayEquals(expected, sm.withValues(negated).readRowMajor()); //dense gives -0.0 for the zeros
+
+        SharedMatrix sum = new SharedMatrix(new double[][]{{-0.0, -0.0, -0.0}, {-0.0, -0.0, -0.0}, {-0.0, -0.0, -0.0}});
+        sm.addRows(sum, 0, 3);
+        double[][] expectedSum = {
+            {-0.0, 2.0, -0.0},
+            {-0.0, -0.0, -0.0},
+            {4.0, -0.0, 5.0}
+        };
+        assertArrayEquals(expectedSum, sum.readRowMajor()); //dense gives +0.0 for the zeros
+    }
+}
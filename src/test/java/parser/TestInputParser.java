@@ -0,0 +1,75 @@
+package parser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+
+public class TestInputParser {
+
+    @TempDir
+    Path dir;
+
+    private ComputationNode parse(String json) throws IOException, ParseException {
+        Path file = dir.resolve("input.json");
+        Files.writeString(file, json);
+        return new InputParser().parse(file.toString());
+    }
+
+    private String parseError(String json) throws IOException {
+        ParseException e = assertThrows(ParseException.class, () -> parse(json));
+        return e.getMessage();
+    }
+
+    @Test
+    public void TestParseTree() throws Exception {
+        ComputationNode root = parse("{\"operands\": [[[1, 2.5]], {\"operator\": \"T\", \"operands\": [[[3], [\"4\"]]]}],"
+                + " \"operator\": \"+\"}");
+        assertEquals(ComputationNodeType.ADD, root.getNodeType());
+        assertEquals(2, root.getChildren().size());
+        assertArrayEquals(new double[][]{{1.0, 2.5}}, root.getChildren().get(0).getMatrix());
+        ComputationNode transpose = root.getChildren().get(1);
+        assertEquals(ComputationNodeType.TRANSPOSE, transpose.getNodeType());
+        assertArrayEquals(new double[][]{{3.0}, {4.0}}, transpose.getChildren().get(0).getMatrix());
+    }
+
+    @Test
+    public void TestErrorMessages() throws Exception {
+        assertEquals("Empty array cannot be parsed as DataNode.", parseError("[]"));
+        assertEquals("Vectors (1D arrays) are not supported as standalone nodes.", parseError("[1, 2]"));
+        assertEquals("Inconsistent row sizes in matrix.", parseError("[[1, 2], [3]]"));
+        assertEquals("Inconsistent row sizes in matrix.", parseError("[[1, 2], [3, 4, 5]]"));
+        assertEquals("Invalid matrix row: {\"a\":1}", parseError("[{\"a\": 1}]"));
+        assertEquals("Invalid node structure: 5", parseError("5"));
+        assertEquals("Invalid node structure: {\"operator\":\"*\"}",
+                parseError("{\"operator\": \"+\", \"operands\": [[[1]], {\"operator\": \"*\"}]}"));
+        assertTrue(parseError("{\"operator\": \"+\", \"operands\": [[[1]]").startsWith("Failed to read the input JSON file: "));
+    }
+
+    @Test
+    public void TestMatrixFileOperands() throws Exception {
+        double[][] data = {
+            {1.0, 2.0, 3.0},
+            {4.0, 5.0, 6.0}
+        };
+        //the writer's binary formats are exactly what the parser maps
+        OutputWriter.write(data, dir.resolve("a.bin").toString());
+        OutputWriter.write(data, dir.resolve("b.npy").toString());
+        ComputationNode root = parse("{\"operator\": \"+\", \"operands\": ["
+                + "{\"file\": \"a.bin\", \"rows\": 2, \"cols\": 3}, {\"file\": \"b.npy\"}]}");
+        ComputationNode raw = root.getChildren().get(0);
+        ComputationNode npy = root.getChildren().get(1);
+        assertNotNull(raw.getMappedMatrix());
+        assertNotNull(npy.getMappedMatrix());
+        assertArrayEquals(data, raw.getMatrix());
+        assertArrayEquals(data, npy.getMatrix());
+
+        assertEquals("Failed to read the matrix file a.bin: file has 48 bytes, a 3x3 matrix of doubles needs 72",
+                parseError("{\"file\": \"a.bin\", \"rows\": 3, \"cols\": 3}"));
+        assertEquals("Matrix file a.bin needs positive rows and cols.", parseError("{\"file\": \"a.bin\"}"));
+        assertEquals("Matrix file b.npy is 2x3, not 3x2.", parseError("{\"file\": \"b.npy\", \"rows\": 3, \"cols\": 2}"));
+    }
+}
@@ -0,0 +1,61 @@
+package parser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import memory.SharedMatrix;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class TestOutputWriter {
+
+    @TempDir
+    Path dir;
+
+    private static final double[][] DATA = {
+        {1.0, 2.0, 3.0},
+        {4.0, 5.0, 6.5}
+    };
+
+    @Test
+    public void TestCompactFromTransposedView() throws Exception {
+        //the transposed view is streamed from its column-major storage
+        ComputationNode node = new ComputationNode(DATA);
+        node.resolve(new SharedMatrix(DATA).transposed());
+        Path file = dir.resolve("out.json");
+        OutputWriter.write(node, file.toString(), true);
+        assertEquals("{\"result\":[[1.0,4.0],[2.0,5.0],[3.0,6.5]]}", Files.readString(file));
+    }
+
+    @Test
+    public void TestPrettyAndError() throws Exception {
+        Path file = dir.resolve("out.json");
+        OutputWriter.write(DATA, file.toString());
+        assertTrue(Files.readString(file).contains("\"result\" : [ [ 1.0, 2.0, 3.0 ], [ 4.0, 5.0, 6.5 ] ]"));
+        OutputWriter.write("bad input", file.toString(), true);
+        assertEquals("{\"error\":\"bad input\"}", Files.readString(file));
+    }
+
+    @Test
+    public void TestBinaryFormats() throws Exception {
+        Path raw = dir.resolve("out.bin");
+        OutputWriter.write(new ComputationNode(DATA), raw.toString(), true);
+        ByteBuffer rawBytes = ByteBuffer.wrap(Files.readAllBytes(raw)).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(6 * 8, rawBytes.remaining());
+        assertEquals(2.0, rawBytes.getDouble(8));
+        assertEquals(6.5, rawBytes.getDouble(40));
+
+        Path npy = dir.resolve("out.npy");
+        OutputWriter.write(new ComputationNode(DATA), npy.toString(), true);
+        ByteBuffer npyBytes = ByteBuffer.wrap(Files.readAllBytes(npy)).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals((byte) 0x93, npyBytes.get(0));
+        int headerLength = npyBytes.getShort(8);
+        assertEquals(0, (10 + headerLength) % 64);
+        String header = new String(Files.readAllBytes(npy), 10, headerLength, "US-ASCII");
+        assertTrue(header.contains("'shape': (2, 3)"));
+        assertEquals(10 + headerLength + 6 * 8, npyBytes.remaining());
+        assertEquals(4.0, npyBytes.getDouble(10 + headerLength + 24));
+    }
+}
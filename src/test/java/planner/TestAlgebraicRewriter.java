@@ -0,0 +1,94 @@
+package planner;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import parser.*;
+
+import java.util.List;
+
+public class TestAlgebraicRewriter {
+
+    private static ComputationNode matrix(int rows, int cols) {
+        return new ComputationNode(new double[rows][cols]);
+    }
+
+    private static ComputationNode unary(ComputationNodeType type, ComputationNode operand) {
+        return new ComputationNode(type, List.of(operand));
+    }
+
+    private static ComputationNode multiply(ComputationNode... factors) {
+        return new ComputationNode(ComputationNodeType.MULTIPLY, List.of(factors));
+    }
+
+    @Test
+    public void TestDoubleTransposeAndNegation(){
+        //the root itself goes away and takes the place of A, the caller's node is kept
+        ComputationNode a = matrix(2, 3);
+        ComputationNode root = unary(ComputationNodeType.NEGATE, unary(ComputationNodeType.NEGATE,
+                unary(ComputationNodeType.TRANSPOSE, unary(ComputationNodeType.TRANSPOSE, a))));
+        AlgebraicRewriter rewriter = new AlgebraicRewriter();
+        assertSame(root, rewriter.rewrite(root));
+        assertEquals(ComputationNodeType.MATRIX, root.getNodeType());
+        assertSame(a.getMatrix(), root.getMatrix());
+        assertTrue(rewriter.getReport().contains("1 T(T(A)) -> A, 1 -(-A) -> A"), rewriter.getReport());
+    }
+
+    @Test
+    public void TestTransposedFactors(){
+        //T(A) * T(B) * T(C) -> T(C * B * A)
+        ComputationNode a = matrix(4, 2);
+        ComputationNode b = matrix(3, 4);
+        ComputationNode c = matrix(5, 3);
+        ComputationNode root = multiply(unary(ComputationNodeType.TRANSPOSE, a),
+                unary(ComputationNodeType.TRANSPOSE, b), unary(ComputationNodeType.TRANSPOSE, c));
+        AlgebraicRewriter rewriter = new AlgebraicRewriter();
+        rewriter.rewrite(root);
+        assertEquals(ComputationNodeType.TRANSPOSE, root.getNodeType());
+        ComputationNode product = root.getChildren().get(0);
+        assertEquals(List.of(c, b, a), product.getChildren());
+        assertEquals(new Shape(2, 5), ShapeInference.infer(root));
+        assertTrue(rewriter.getReport().contains("1 T(A) * T(B) -> T(B * A)"), rewriter.getReport());
+    }
+
+    @Test
+    public void TestNegationsCancelAndMoveToTheSmallestOperand(){
+        //(-A) * (-B) -> A * B
+        ComputationNode a = matrix(3, 3);
+        ComputationNode b = matrix(3, 3);
+        ComputationNode cancelled = multiply(unary(ComputationNodeType.NEGATE, a), unary(ComputationNodeType.NEGATE, b));
+        AlgebraicRewriter rewriter = new AlgebraicRewriter();
+        rewriter.rewrite(cancelled);
+        assertEquals(List.of(a, b), cancelled.getChildren());
+
+        //-(A * B) with A 100x2, B 2x1: B has the fewest elements, so -(A * B) -> A * (-B)
+        ComputationNode tall = matrix(100, 2);
+        ComputationNode small = matrix(2, 1);
+        ComputationNode negated = unary(ComputationNodeType.NEGATE, multiply(tall, small));
+        rewriter.rewrite(negated);
+        assertEquals(ComputationNodeType.MULTIPLY, negated.getNodeType());
+        assertSame(tall, negated.getChildren().get(0));
+        assertEquals(ComputationNodeType.NEGATE, negated.getChildren().get(1).getNodeType());
+        assertSame(small, negated.getChildren().get(1).getChildren().get(0));
+
+        //(-A) * B with A 1x100 and B 100x1: the 1x1 product is the cheapest to negate
+        ComputationNode row = matrix(1, 100);
+        ComputationNode column = matrix(100, 1);
+        ComputationNode inner = multiply(unary(ComputationNodeType.NEGATE, row), column);
+        rewriter.rewrite(inner);
+        assertEquals(ComputationNodeType.NEGATE, inner.getNodeType());
+        assertEquals(List.of(row, column), inner.getChildren().get(0).getChildren());
+        assertTrue(rewriter.getReport().contains("1 (-A) * (-B) -> A * B, 2 negations moved"), rewriter.getReport());
+    }
+
+    @Test
+    public void TestIllegalProductIsLeftAlone(){
+        //T(A) * T(B) with A 2x3 and B 2x3 can't be multiplied, the engine reports it as it is
+        ComputationNode transposedA = unary(ComputationNodeType.TRANSPOSE, matrix(2, 3));
+        ComputationNode transposedB = unary(ComputationNodeType.TRANSPOSE, matrix(2, 3));
+        ComputationNode root = multiply(transposedA, transposedB);
+        AlgebraicRewriter rewriter = new AlgebraicRewriter();
+        rewriter.rewrite(root);
+        assertEquals(ComputationNodeType.MULTIPLY, root.getNodeType());
+        assertEquals(List.of(transposedA, transposedB), root.getChildren());
+        assertTrue(rewriter.getReport().contains("0 T(A) * T(B) -> T(B * A)"), rewriter.getReport());
+    }
+}
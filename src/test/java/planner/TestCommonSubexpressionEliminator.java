@@ -0,0 +1,45 @@
+package planner;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import parser.*;
+
+import java.util.List;
+
+public class TestCommonSubexpressionEliminator {
+
+    private static ComputationNode leaf(double... values) {
+        return new ComputationNode(new double[][]{values});
+    }
+
+    @Test
+    public void TestRepeatedSubtreesAreShared(){
+        //(A*B) + (A*B) + -(A*B), every A and B a separate but equal literal
+        ComputationNode first = new ComputationNode(ComputationNodeType.MULTIPLY, List.of(leaf(1, 2), leaf(3, 4)));
+        ComputationNode second = new ComputationNode(ComputationNodeType.MULTIPLY, List.of(leaf(1, 2), leaf(3, 4)));
+        ComputationNode third = new ComputationNode(ComputationNodeType.MULTIPLY, List.of(leaf(1, 2), leaf(3, 4)));
+        ComputationNode negate = new ComputationNode(ComputationNodeType.NEGATE, List.of(third));
+        ComputationNode root = new ComputationNode(ComputationNodeType.ADD, List.of(first, second, negate));
+
+        CommonSubexpressionEliminator cse = new CommonSubexpressionEliminator();
+        cse.eliminate(root);
+        assertSame(first, root.getChildren().get(0));
+        assertSame(first, root.getChildren().get(1));
+        assertSame(first, root.getChildren().get(2).getChildren().get(0));
+        //two A*B nodes with their two leaves each
+        assertEquals(6, cse.getNodesDeduplicated());
+    }
+
+    @Test
+    public void TestDifferentContentsAreKept(){
+        ComputationNode a = leaf(1, 2);
+        ComputationNode b = leaf(1, 2.5);
+        ComputationNode zero = leaf(0.0);
+        ComputationNode negativeZero = leaf(-0.0);
+        ComputationNode root = new ComputationNode(ComputationNodeType.ADD, List.of(
+                new ComputationNode(ComputationNodeType.ADD, List.of(a, b)),
+                new ComputationNode(ComputationNodeType.ADD, List.of(zero, negativeZero))));
+        CommonSubexpressionEliminator cse = new CommonSubexpressionEliminator();
+        cse.eliminate(root);
+        assertEquals(0, cse.getNodesDeduplicated());
+    }
+}
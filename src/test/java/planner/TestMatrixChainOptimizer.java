@@ -0,0 +1,58 @@
+package planner;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import parser.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestMatrixChainOptimizer {
+
+    private static ComputationNode filled(int rows, int cols, double value) {
+        double[][] data = new double[rows][cols];
+        for (double[] row : data) {
+            java.util.Arrays.fill(row, value);
+        }
+        return new ComputationNode(data);
+    }
+
+    @Test
+    public void TestReordersExpensiveChain(){
+        ComputationNode a = filled(1000, 2, 1.0);
+        ComputationNode b = filled(2, 1000, 1.0);
+        ComputationNode c = filled(1000, 1, 1.0);
+        ComputationNode root = new ComputationNode(ComputationNodeType.MULTIPLY, new ArrayList<>(List.of(a, b, c)));
+        MatrixChainOptimizer optimizer = new MatrixChainOptimizer();
+        optimizer.optimize(root);
+        //A * (B * C)
+        assertEquals(2, root.getChildren().size());
+        assertSame(a, root.getChildren().get(0));
+        ComputationNode right = root.getChildren().get(1);
+        assertEquals(ComputationNodeType.MULTIPLY, right.getNodeType());
+        assertSame(b, right.getChildren().get(0));
+        assertSame(c, right.getChildren().get(1));
+        assertEquals(1, optimizer.getChainsReordered());
+        //left to right: 2*1000*2*1000 + 2*1000*1000*1, optimal: 2*2*1000*1 + 2*1000*2*1
+        assertEquals(4_000_000L + 2_000_000L - 8_000L, optimizer.getFlopsSaved());
+        assertEquals(new Shape(1000, 1), ShapeInference.infer(root));
+    }
+
+    @Test
+    public void TestKeepsOptimalLeftNesting(){
+        List<ComputationNode> operands = new ArrayList<>(List.of(filled(1, 5, 1.0), filled(5, 5, 1.0), filled(5, 5, 1.0)));
+        ComputationNode root = new ComputationNode(ComputationNodeType.MULTIPLY, operands);
+        MatrixChainOptimizer optimizer = new MatrixChainOptimizer();
+        optimizer.optimize(root);
+        assertEquals(3, root.getChildren().size());
+        assertEquals(0, optimizer.getChainsReordered());
+    }
+
+    @Test
+    public void TestLeavesIllegalChainAlone(){
+        List<ComputationNode> operands = new ArrayList<>(List.of(filled(2, 3, 1.0), filled(2, 3, 1.0), filled(3, 1, 1.0)));
+        ComputationNode root = new ComputationNode(ComputationNodeType.MULTIPLY, operands);
+        new MatrixChainOptimizer().optimize(root);
+        assertEquals(3, root.getChildren().size());
+        assertNull(ShapeInference.infer(root));
+    }
+}
@@ -0,0 +1,47 @@
+package planner;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import parser.*;
+
+import java.util.List;
+import java.util.Map;
+
+public class TestPhysicalPlan {
+
+    private static ComputationNode matrix(int rows, int cols) {
+        return new ComputationNode(new double[rows][cols]);
+    }
+
+    @Test
+    public void TestEstimates(){
+        //-(A * B) with A 4x3 and B 3x2, one task per 16 FLOPs
+        ComputationNode product = new ComputationNode(ComputationNodeType.MULTIPLY, List.of(matrix(4, 3), matrix(3, 2)));
+        ComputationNode root = new ComputationNode(ComputationNodeType.NEGATE, List.of(product));
+        PhysicalPlan plan = PhysicalPlan.build(root, Map.of(), flops -> (int) Math.max(1, flops / 16), 2);
+        assertEquals(2, plan.getSteps());
+        String explain = plan.explain();
+        //the product: 2 * 4 * 2 * 3 FLOPs, 12 + 6 + 8 elements read and written, 3 tasks
+        assertTrue(explain.contains("MULTIPLY   4x2          GEMM                              3            48           208"), explain);
+        //the negation: 8 FLOPs, its operand copy read and written and the result, 1 task
+        assertTrue(explain.contains("NEGATE     4x2          row blocks                        1             8           128"), explain);
+        //the product is the peak: its operands and the product buffer, which is handed over as the result
+        assertEquals(208, plan.getPeakBytes());
+        //nothing ran yet
+        assertTrue(explain.contains("|      -           -"), explain);
+    }
+
+    @Test
+    public void TestFusedStep(){
+        //-(A + B) is one step of 2 FLOPs per element
+        ComputationNode sum = new ComputationNode(ComputationNodeType.ADD, List.of(matrix(2, 2), matrix(2, 2)));
+        ComputationNode root = new ComputationNode(ComputationNodeType.NEGATE, List.of(sum));
+        Map<ComputationNode, OperatorFusion.Fusion> fusions = new OperatorFusion().fuse(root);
+        PhysicalPlan plan = PhysicalPlan.build(root, fusions, flops -> 1, 1);
+        assertEquals(1, plan.getSteps());
+        plan.recordActual(root, 1, 2_000_000);
+        String explain = plan.explain();
+        assertTrue(explain.contains("fused -(A + B)"), explain);
+        assertTrue(explain.contains("estimated 8 FLOPs"), explain);
+        assertTrue(explain.endsWith("|      1       2.000\n"), explain);
+    }
+}
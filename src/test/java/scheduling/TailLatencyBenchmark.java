@@ -0,0 +1,130 @@
+package scheduling;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tail latency benchmark for the executor, not part of the unit tests.
+ * The workers get deliberately skewed fatigue factors and every task busy-waits for
+ * baseMicros * (fatigue factor of the worker running it), so a worker with factor 4 really is 4 times slower.
+ * Runs the same batches on a fatigue-blind executor (one task per handoff, the next idle worker takes it,
+ * like before compareTo and the adaptive sizing), on TiredExecutor and on WorkStealingExecutor, and prints the batch latency percentiles.
+ *
+ * Run after mvn test-compile with:
+ * java -cp target/classes:target/test-classes scheduling.TailLatencyBenchmark [batches] [tasksPerBatch] [baseMicros] [factors...]
+ */
+public class TailLatencyBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int batches = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int tasksPerBatch = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        long baseNanos = 1000L * (args.length > 2 ? Long.parseLong(args[2]) : 50);
+        double[] factors = args.length > 3
+                ? Arrays.stream(args, 3, args.length).mapToDouble(Double::parseDouble).toArray()
+                : new double[]{0.5, 0.5, 1.0, 4.0};
+
+        List<Runnable> tasks = new ArrayList<>();
+        for (int i = 0; i < tasksPerBatch; i++) {
+            tasks.add(TestThreads.fatiguedTask(baseNanos));
+        }
+
+        System.out.println("fatigue factors " + Arrays.toString(factors) + ", " + batches + " batches of "
+                + tasksPerBatch + " tasks of " + baseNanos / 1000 + "us x factor");
+        System.out.println("executor      | p50 (ms) | p90 (ms) | p99 (ms) | max (ms) | total (ms)");
+
+        FatigueBlindExecutor before = new FatigueBlindExecutor(factors);
+        run("fatigue-blind", batches, tasks, before::submitAll);
+        before.shutdown();
+
+        TiredExecutor after = new TiredExecutor(factors);
+        run("adaptive", batches, tasks, after::submitAll);
+        System.out.print(after.getWorkerReport());
+        after.shutdown();
+
+        WorkStealingExecutor stealing = new WorkStealingExecutor(factors);
+        run("stealing", batches, tasks, stealing::submitAll);
+        System.out.print(stealing.getWorkerReport());
+        stealing.shutdown();
+    }
+
+    private interface Executor {
+        void submitAll(List<Runnable> tasks);
+    }
+
+    private static void run(String name, int batches, List<Runnable> tasks, Executor executor) {
+        //warm up, and gives the adaptive executor its first estimates, like any long-lived engine
+        for (int i = 0; i < 20; i++) {
+            executor.submitAll(tasks);
+        }
+        long[] latencies = new long[batches];
+        for (int i = 0; i < batches; i++) {
+            long start = System.nanoTime();
+            executor.submitAll(tasks);
+            latencies[i] = System.nanoTime() - start;
+        }
+        long total = Arrays.stream(latencies).sum();
+        Arrays.sort(latencies);
+        System.out.printf("%-13s | %8.3f | %8.3f | %8.3f | %8.3f | %10.1f%n", name,
+                percentile(latencies, 50), percentile(latencies, 90), percentile(latencies, 99),
+                latencies[batches - 1] / 1e6, total / 1e6);
+    }
+
+    private static double percentile(long[] sorted, int percent) {
+        int index = Math.min(sorted.length - 1, (int) Math.ceil(percent / 100.0 * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    //The dispatch before fatigue ordering: one task per handoff to whichever worker is idle first
+    private static final class FatigueBlindExecutor {
+        private final TiredThread[] workers;
+        private final LinkedBlockingQueue<TiredThread> idle = new LinkedBlockingQueue<>();
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        FatigueBlindExecutor(double[] factors) {
+            workers = new TiredThread[factors.length];
+            for (int i = 0; i < factors.length; i++) {
+                workers[i] = new TiredThread(i, factors[i], this::workerIdle);
+                workers[i].start();
+                idle.add(workers[i]);
+            }
+        }
+
+        private void workerIdle(TiredThread worker) {
+            idle.add(worker);
+            if (inFlight.decrementAndGet() == 0) {
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        }
+
+        void submitAll(List<Runnable> tasks) {
+            try {
+                for (Runnable task : tasks) {
+                    TiredThread worker = idle.take();
+                    inFlight.incrementAndGet();
+                    worker.newTask(task);
+                }
+                synchronized (this) {
+                    while (inFlight.get() > 0) {
+                        wait();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void shutdown() throws InterruptedException {
+            for (TiredThread worker : workers) {
+                worker.shutdown();
+            }
+            for (TiredThread worker : workers) {
+                worker.join();
+            }
+        }
+    }
+}
@@ -1,6 +1,319 @@
 package scheduling;
 
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
 public class TestThreads {
-    
 
+    //Busy work whose length is scaled by the fatigue factor of the worker running it, a slow worker in effect
+    static Runnable fatiguedTask(long nanos) {
+        return () -> {
+            double factor = ((TiredThread) Thread.currentThread()).getFatigueFactor();
+            long end = System.nanoTime() + (long) (nanos * factor);
+            while (System.nanoTime() < end) {
+                Thread.onSpinWait();
+            }
+        };
+    }
+
+    @Test
+    public void TestCompareToByFatigue() throws InterruptedException {
+        TiredThread fresh = new TiredThread(1, 1.0);
+        TiredThread worked = new TiredThread(0, 1.0);
+        worked.start();
+        CountDownLatch ran = new CountDownLatch(1);
+        worked.newTask(() -> {
+            long end = System.nanoTime() + 2_000_000;
+            while (System.nanoTime() < end) {
+                Thread.onSpinWait();
+            }
+            ran.countDown();
+        });
+        //a shutdown while the task still waits in the handoff slot would replace it by the poison pill
+        ran.await();
+        worked.shutdown();
+        worked.join();
+        assertTrue(worked.getFatigue() > 0);
+        assertTrue(fresh.compareTo(worked) < 0);
+        assertTrue(worked.compareTo(fresh) > 0);
+        //equal fatigue: the lower id comes first
+        assertTrue(new TiredThread(0, 1.0).compareTo(fresh) < 0);
+    }
+
+    @Test
+    public void TestLeastFatiguedWorkerGetsTheTask() throws InterruptedException {
+        TiredExecutor executor = new TiredExecutor(new double[]{1.0, 1.0});
+        List<Integer> ran = new ArrayList<>();
+        Runnable task = () -> {
+            fatiguedTask(1_000_000).run();
+            synchronized (ran) {
+                ran.add(((TiredThread) Thread.currentThread()).getWorkerId());
+            }
+        };
+        executor.submitAll(List.of(task));
+        executor.submitAll(List.of(task));
+        executor.shutdown();
+        //worker 0 is tired after the first task, so the second one goes to worker 1
+        assertEquals(List.of(0, 1), ran);
+    }
+
+    @Test
+    public void TestSlowWorkerGetsLessWork() throws InterruptedException {
+        //recorded task times instead of real ones, so the result doesn't depend on how the machine schedules us:
+        //every worker runs 16 tasks a batch, worker 3 takes 4 ms per task and the others 1 ms
+        TiredExecutor executor = new TiredExecutor(4);
+        long[] time = {16_000_000, 16_000_000, 16_000_000, 64_000_000};
+        long[] count = {16, 16, 16, 16};
+        for (int batch = 0; batch < 10; batch++) {
+            executor.learn(time, count);
+        }
+        executor.shutdown();
+        assertTrue(executor.getSlowness(3) > 1.5, executor.getWorkerReport());
+        for (int id = 0; id < 3; id++) {
+            assertTrue(executor.getSlowness(id) < 1.5, executor.getWorkerReport());
+            //the slow worker gets smaller chunks of the same batch
+            assertTrue(executor.chunkSize(3, 64) < executor.chunkSize(id, 64), executor.getWorkerReport());
+        }
+        //a worker that ran alone has nothing to be compared with, nothing is learned
+        double before = executor.getSlowness(0);
+        executor.learn(new long[]{1_000_000, 0, 0, 0}, new long[]{1, 0, 0, 0});
+        assertEquals(before, executor.getSlowness(0));
+    }
+
+    @Test
+    public void TestFailedTaskIsRethrown() {
+        //the first exception of a batch comes out of submitAll, and the worker that ran it stays alive
+        TiredExecutor executor = new TiredExecutor(1);
+        AtomicInteger ran = new AtomicInteger(0);
+        IllegalStateException failure = new IllegalStateException("task failed");
+        Runnable failing = () -> {
+            throw failure;
+        };
+        //a worker killed by the exception would leave submitAll waiting forever
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            assertSame(failure, assertThrows(IllegalStateException.class,
+                    () -> executor.submitAll(List.of(ran::incrementAndGet, failing, ran::incrementAndGet))));
+            assertEquals(2, ran.get());
+            //the failure was reported once, the next batch runs normally
+            executor.submitAll(List.of(ran::incrementAndGet));
+            assertEquals(3, ran.get());
+            executor.shutdown();
+        });
+    }
+
+    @Test
+    public void TestIdleWorkersSteal() throws InterruptedException {
+        WorkStealingExecutor executor = new WorkStealingExecutor(2);
+        AtomicInteger ran = new AtomicInteger();
+        List<Runnable> tasks = new ArrayList<>();
+        //the first task keeps one worker busy for longer than the whole rest of the batch takes
+        tasks.add(() -> {
+            long end = System.nanoTime() + 50_000_000;
+            while (System.nanoTime() < end) {
+                Thread.onSpinWait();
+            }
+            ran.incrementAndGet();
+        });
+        for (int i = 1; i < 40; i++) {
+            tasks.add(ran::incrementAndGet);
+        }
+        executor.submitAll(tasks);
+        assertEquals(40, ran.get());
+        String report = executor.getWorkerReport();
+        executor.shutdown();
+        //the block queued behind the long task was taken by the other worker
+        assertTrue(report.matches("(?s).*ran \\d+ tasks, [1-9]\\d* of them stolen.*"), report);
+    }
+
+    @Test
+    public void TestWorkStealingFailedTaskIsRethrown() throws InterruptedException {
+        TaskExecutor executor = ExecutorMode.STEALING.create(3);
+        List<Runnable> tasks = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            final int index = i;
+            tasks.add(() -> {
+                if (index == 7) {
+                    throw new IllegalStateException("task 7");
+                }
+            });
+        }
+        IllegalStateException thrown = assertThrows(IllegalStateException.class, () -> executor.submitAll(tasks));
+        assertEquals("task 7", thrown.getMessage());
+        AtomicInteger ran = new AtomicInteger();
+        executor.submitAll(List.of(ran::incrementAndGet, ran::incrementAndGet));
+        assertEquals(2, ran.get());
+        executor.shutdown();
+    }
+
+    @Test
+    public void TestTaskGranularity() {
+        TaskGranularity granularity = new TaskGranularity(4);
+        //tiny operations are one task, big ones about TASKS_PER_THREAD tasks per worker
+        assertEquals(1, granularity.taskCount(2 * 2));
+        assertEquals(12, granularity.taskCount(100_000L * 4));
+        assertEquals(16, granularity.taskCount(1L << 30));
+
+        int[] uniform = TaskGranularity.split(100_000, i -> 4L * i, 12);
+        assertEquals(13, uniform.length);
+        assertEquals(0, uniform[0]);
+        assertEquals(100_000, uniform[12]);
+        for (int b = 0; b < 12; b++) {
+            int rows = uniform[b + 1] - uniform[b];
+            assertTrue(rows >= 8333 && rows <= 8334, "block " + b + " has " + rows + " rows");
+        }
+
+        //all the cost in the first 10 rows: the blocks are small there and take the rest in one go
+        int[] skewed = TaskGranularity.split(1000, i -> Math.min(i, 10) * 1000L + i, 4);
+        assertEquals(5, skewed.length);
+        assertTrue(skewed[3] <= 10, java.util.Arrays.toString(skewed));
+        assertEquals(1000, skewed[4]);
+        //more parts than rows: every block keeps at least one row
+        assertArrayEquals(new int[]{0, 1, 2, 3}, TaskGranularity.split(3, i -> i, 8));
+    }
+
+    @Test
+    public void TestConcurrentBatchesDontWaitForEachOther() throws Exception {
+        for (ExecutorMode mode : new ExecutorMode[]{ExecutorMode.TIRED, ExecutorMode.STEALING}) {
+            TaskExecutor executor = mode.create(2);
+            CountDownLatch release = new CountDownLatch(1);
+            CompletableFuture<Void> slow = executor.submitAllAsync(List.of(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+            AtomicInteger ran = new AtomicInteger();
+            CompletableFuture<Void> quick = executor.submitAllAsync(List.of(ran::incrementAndGet, ran::incrementAndGet));
+            //the quick batch completes on its own counter while the slow one still holds a worker
+            quick.get(5, TimeUnit.SECONDS);
+            assertEquals(2, ran.get());
+            assertFalse(slow.isDone(), mode.toString());
+            release.countDown();
+            slow.get(5, TimeUnit.SECONDS);
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void TestBatchFutureCarriesTheFailure() throws InterruptedException {
+        TaskExecutor executor = new TiredExecutor(2);
+        IllegalStateException failure = new IllegalStateException("first");
+        CompletableFuture<Void> batch = executor.submitAllAsync(List.of(() -> {}, () -> { throw failure; }, () -> {}));
+        ExecutionException thrown = assertThrows(ExecutionException.class, () -> batch.get(5, TimeUnit.SECONDS));
+        assertSame(failure, thrown.getCause());
+        //the failure belongs to that batch only
+        executor.submitAllAsync(List.of(() -> {})).join();
+        executor.shutdown();
+    }
+
+    @Test
+    public void TestInterruptIsNotSwallowed() throws InterruptedException {
+        TaskExecutor executor = new TiredExecutor(2);
+        AtomicInteger ran = new AtomicInteger();
+        Thread.currentThread().interrupt();
+        executor.submitAll(List.of(ran::incrementAndGet, ran::incrementAndGet, ran::incrementAndGet));
+        //the batch was still waited for, and the caller still sees its interrupt
+        assertTrue(Thread.interrupted());
+        assertEquals(3, ran.get());
+        executor.shutdown();
+    }
+
+    @Test
+    public void TestNewTaskBeforeBusyIsCleared() throws InterruptedException {
+        //the executor offers a worker back to the idle heap at the end of its task, before the worker clears
+        //its busy flag, so the next task can be handed over while the worker still looks busy
+        TiredThread worker = new TiredThread(0, 1.0);
+        worker.start();
+        CountDownLatch firstDone = new CountDownLatch(1);
+        CountDownLatch secondRan = new CountDownLatch(1);
+        AtomicReference<RuntimeException> rejected = new AtomicReference<>(null);
+        worker.newTask(() -> {
+            try {
+                worker.newTask(secondRan::countDown);
+            } catch (RuntimeException e) {
+                rejected.set(e);
+            }
+            firstDone.countDown();
+        });
+        assertTrue(firstDone.await(5, TimeUnit.SECONDS));
+        assertNull(rejected.get());
+        assertTrue(secondRan.await(5, TimeUnit.SECONDS));
+        worker.shutdown();
+        worker.join();
+    }
+
+    @Test
+    public void TestShutdownWaitsForRunningTask() throws InterruptedException {
+        //a worker that is still busy is not an error: shutdown lets it finish its task and waits for it to exit
+        TiredExecutor executor = new TiredExecutor(2);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean finished = new AtomicBoolean(false);
+        executor.submit(() -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            finished.set(true);
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        AtomicReference<Throwable> error = new AtomicReference<>(null);
+        Thread closer = new Thread(() -> {
+            try {
+                executor.shutdown();
+            } catch (Throwable e) {
+                error.set(e);
+            }
+        });
+        closer.start();
+        //the closer is joining the busy worker
+        while (closer.isAlive() && closer.getState() != Thread.State.WAITING) {
+            Thread.onSpinWait();
+        }
+        release.countDown();
+        closer.join(5000);
+        assertFalse(closer.isAlive());
+        assertNull(error.get());
+        assertTrue(finished.get());
+    }
+
+    @Test
+    public void TestPendingTaskRunsBeforeShutdown() throws InterruptedException {
+        //a task accepted while the worker is busy is still run, a task handed over after the shutdown is rejected
+        TiredThread worker = new TiredThread(0, 1.0);
+        worker.start();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean pendingRan = new AtomicBoolean(false);
+        worker.newTask(() -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        worker.newTask(() -> pendingRan.set(true));
+        worker.shutdown();
+        assertThrows(IllegalStateException.class, () -> worker.newTask(() -> { }));
+        release.countDown();
+        worker.join(5000);
+        assertFalse(worker.isAlive());
+        assertTrue(pendingRan.get());
+    }
 }
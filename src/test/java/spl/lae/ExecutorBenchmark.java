@@ -0,0 +1,80 @@
+package spl.lae;
+
+import parser.ComputationNode;
+import parser.ComputationNodeType;
+import scheduling.ExecutorMode;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the executors of ExecutorMode on the same engine workload, not part of the unit tests.
+ * Every round evaluates a 256x256 product chain and an element-wise -(A + B) on a 200000x4 matrix,
+ * on one long-lived engine per mode, and the time per round is printed after a warm-up.
+ * The virtual mode is only there when the engine was built and is run on JDK 21+.
+ *
+ * Run after mvn test-compile with:
+ * java -cp target/classes:target/test-classes:<jackson jars> spl.lae.ExecutorBenchmark [numThreads] [rounds]
+ */
+public class ExecutorBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int numThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        Random random = new Random(42);
+        double[][] square = randomMatrix(random, 256, 256);
+        double[][] tall = randomMatrix(random, 200_000, 4);
+
+        System.out.println(numThreads + " threads, " + rounds + " rounds");
+        System.out.println("executor | multiply (ms/round) | element-wise (ms/round)");
+        for (ExecutorMode mode : ExecutorMode.values()) {
+            LinearAlgebraEngine lae;
+            try {
+                lae = new LinearAlgebraEngine(numThreads, mode);
+            } catch (IllegalArgumentException e) {
+                System.out.printf("%-8s | %s%n", mode.name().toLowerCase(), e.getMessage());
+                continue;
+            }
+            //warm up, so the JIT compiled code is measured
+            for (int i = 0; i < 5; i++) {
+                lae.evaluate(chain(square));
+                lae.evaluate(negatedSum(tall));
+            }
+            double multiply = time(rounds, () -> lae.evaluate(chain(square)));
+            double elementWise = time(rounds, () -> lae.evaluate(negatedSum(tall)));
+            System.out.printf("%-8s | %19.2f | %23.2f%n", mode.name().toLowerCase(), multiply, elementWise);
+            System.out.print(lae.getWorkerReport());
+            lae.shutdownExecutor();
+        }
+    }
+
+    private static double time(int rounds, Runnable round) {
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            round.run();
+        }
+        return (System.nanoTime() - start) / 1e6 / rounds;
+    }
+
+    //A * B * A, a fresh tree every time because the engine resolves the nodes in place
+    private static ComputationNode chain(double[][] matrix) {
+        return new ComputationNode(ComputationNodeType.MULTIPLY, List.of(new ComputationNode(matrix),
+                new ComputationNode(matrix), new ComputationNode(matrix)));
+    }
+
+    private static ComputationNode negatedSum(double[][] matrix) {
+        return new ComputationNode(ComputationNodeType.NEGATE, List.of(new ComputationNode(ComputationNodeType.ADD,
+                List.of(new ComputationNode(matrix), new ComputationNode(matrix)))));
+    }
+
+    private static double[][] randomMatrix(Random random, int rows, int cols) {
+        double[][] matrix = new double[rows][cols];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                matrix[i][j] = random.nextDouble();
+            }
+        }
+        return matrix;
+    }
+}
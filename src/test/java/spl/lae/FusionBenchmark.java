@@ -0,0 +1,79 @@
+package spl.lae;
+
+import parser.ComputationNode;
+import parser.ComputationNodeType;
+
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Times the patterns of OperatorFusion with and without fusion, not part of the unit tests:
+ * -(A + B) on 200000x4 matrices, A * B + C and A * T(B) on 256x256 ones, on one engine, after a warm-up.
+ *
+ * Run after mvn test-compile with:
+ * java -cp target/classes:target/test-classes:<jackson jars> spl.lae.FusionBenchmark [numThreads] [rounds]
+ */
+public class FusionBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int numThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        Random random = new Random(42);
+        double[][] tallA = randomMatrix(random, 200_000, 4);
+        double[][] tallB = randomMatrix(random, 200_000, 4);
+        double[][] a = randomMatrix(random, 256, 256);
+        double[][] b = randomMatrix(random, 256, 256);
+        double[][] c = randomMatrix(random, 256, 256);
+
+        LinearAlgebraEngine lae = new LinearAlgebraEngine(numThreads);
+        System.out.println(numThreads + " threads, " + rounds + " rounds");
+        System.out.println("pattern    | unfused (ms/round) | fused (ms/round)");
+        compare(lae, rounds, "-(A + B)", () -> unary(ComputationNodeType.NEGATE, binary(ComputationNodeType.ADD, leaf(tallA), leaf(tallB))));
+        compare(lae, rounds, "A * B + C", () -> binary(ComputationNodeType.ADD, binary(ComputationNodeType.MULTIPLY, leaf(a), leaf(b)), leaf(c)));
+        compare(lae, rounds, "A * T(B)", () -> binary(ComputationNodeType.MULTIPLY, leaf(a), unary(ComputationNodeType.TRANSPOSE, leaf(b))));
+        System.out.print(lae.getPlanReport());
+        lae.shutdownExecutor();
+    }
+
+    //A fresh tree every round because the engine resolves the nodes in place
+    private static void compare(LinearAlgebraEngine lae, int rounds, String pattern, Supplier<ComputationNode> tree) {
+        double[] times = new double[2];
+        for (int fused = 0; fused < 2; fused++) {
+            lae.setOperatorFusion(fused == 1);
+            //warm up, so the JIT compiled code is measured
+            for (int i = 0; i < 5; i++) {
+                lae.evaluate(tree.get());
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                lae.evaluate(tree.get());
+            }
+            times[fused] = (System.nanoTime() - start) / 1e6 / rounds;
+        }
+        System.out.printf("%-10s | %18.2f | %16.2f%n", pattern, times[0], times[1]);
+    }
+
+    private static ComputationNode leaf(double[][] matrix) {
+        return new ComputationNode(matrix);
+    }
+
+    private static ComputationNode unary(ComputationNodeType type, ComputationNode operand) {
+        return new ComputationNode(type, List.of(operand));
+    }
+
+    private static ComputationNode binary(ComputationNodeType type, ComputationNode left, ComputationNode right) {
+        return new ComputationNode(type, List.of(left, right));
+    }
+
+    private static double[][] randomMatrix(Random random, int rows, int cols) {
+        double[][] matrix = new double[rows][cols];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                matrix[i][j] = random.nextDouble();
+            }
+        }
+        return matrix;
+    }
+}
@@ -0,0 +1,81 @@
+package spl.lae;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+public class TestBatchMain {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void TestJsonLinesManifest() throws Exception {
+        Files.writeString(dir.resolve("a.json"), "{\"operator\": \"-\", \"operands\": [[[1, 2]]]}");
+        Files.writeString(dir.resolve("bad.json"), "{\"operator\": \"+\", \"operands\": [[[1, 2]], [[1, 2, 3]]]}");
+        Files.writeString(dir.resolve("c.json"), "{\"operator\": \"+\", \"operands\": [[[1, 2]], [[3, 4]]]}");
+        Path manifest = dir.resolve("requests.jsonl");
+        Files.writeString(manifest, "{\"input\": \"a.json\"}\n\n{\"input\": \"bad.json\"}\n"
+                + "{\"input\": \"c.json\", \"output\": \"custom/c-out.json\"}\n");
+        Path outputDir = dir.resolve("out");
+
+        List<BatchMain.Job> jobs = BatchMain.readManifest(manifest.toString(), outputDir);
+        assertEquals(3, jobs.size());
+        LinearAlgebraEngine lae = new LinearAlgebraEngine(2);
+        String summary;
+        try {
+            summary = BatchMain.run(lae, jobs, true);
+        } finally {
+            lae.shutdownExecutor();
+        }
+        assertTrue(summary.startsWith("batch: 3 files, 2 succeeded, 1 failed"));
+        assertEquals("{\"result\":[[-1.0,-2.0]]}", Files.readString(outputDir.resolve("a.json")));
+        assertTrue(Files.readString(outputDir.resolve("bad.json")).startsWith("{\"error\":"));
+        //the failed file doesn't break the engine for the next one
+        assertEquals("{\"result\":[[4.0,6.0]]}", Files.readString(dir.resolve("custom/c-out.json")));
+    }
+
+    @Test
+    public void TestDirectoryManifest() throws Exception {
+        Files.createDirectories(dir.resolve("in/nested"));
+        Files.writeString(dir.resolve("in/x.json"), "[[1]]");
+        Files.writeString(dir.resolve("in/nested/y.json"), "[[2]]");
+        Files.writeString(dir.resolve("in/notes.txt"), "not an input");
+        List<BatchMain.Job> jobs = BatchMain.readManifest(dir.resolve("in").toString(), dir.resolve("out"));
+        assertEquals(2, jobs.size());
+        assertEquals(dir.resolve("out/nested/y.json"), jobs.get(0).output);
+        assertEquals(dir.resolve("out/x.json"), jobs.get(1).output);
+    }
+
+    @Test
+    public void TestPipeline() throws Exception {
+        //more files than the queues hold, with failures in the parse and compute stages
+        Path in = dir.resolve("in");
+        Files.createDirectories(in);
+        for (int i = 0; i < 8; i++) {
+            Files.writeString(in.resolve("m" + i + ".json"), "{\"operator\": \"*\", \"operands\": [[[" + i + "]], [[2]]]}");
+        }
+        Files.writeString(in.resolve("m8.json"), "[[1, 2], [3]]");
+        Files.writeString(in.resolve("m9.json"), "{\"operator\": \"+\", \"operands\": [[[1]], [[1, 2]]]}");
+        Path out = dir.resolve("out");
+        List<BatchMain.Job> jobs = BatchMain.readManifest(in.toString(), out);
+        LinearAlgebraEngine lae = new LinearAlgebraEngine(2);
+        String summary;
+        try {
+            summary = new BatchPipeline().run(lae, jobs, true);
+        } finally {
+            lae.shutdownExecutor();
+        }
+        assertTrue(summary.startsWith("batch: 10 files, 8 succeeded, 2 failed"));
+        assertTrue(summary.contains("compute stage: busy"));
+        assertTrue(summary.contains("bottleneck: "));
+        for (int i = 0; i < 8; i++) {
+            assertEquals("{\"result\":[[" + (2.0 * i) + "]]}", Files.readString(out.resolve("m" + i + ".json")));
+        }
+        assertEquals("{\"error\":\"Inconsistent row sizes in matrix.\"}", Files.readString(out.resolve("m8.json")));
+        assertTrue(Files.readString(out.resolve("m9.json")).startsWith("{\"error\":"));
+    }
+}
@@ -5,7 +5,11 @@ import parser.*;
 import memory.*;
 import scheduling.*;
 import spl.lae.*;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 
 public class TestLAE {
@@ -71,6 +75,40 @@ public class TestLAE {
         assertArrayEquals(expectedData, resultData);
     }
 
+    @Test
+    public void TestMultyTiles() {
+        // Sizes that are not a multiple of the tile size, so edge tiles are covered as well
+        int n = 70, k = 300, m = 67;
+        java.util.Random random = new java.util.Random(42);
+        double[][] dataA = new double[n][k];
+        double[][] dataB = new double[k][m];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < k; j++) {
+                dataA[i][j] = random.nextInt(10) - 5;
+            }
+        }
+        for (int i = 0; i < k; i++) {
+            for (int j = 0; j < m; j++) {
+                dataB[i][j] = random.nextInt(10) - 5;
+            }
+        }
+        double[][] expectedData = new double[n][m];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < m; j++) {
+                for (int t = 0; t < k; t++) {
+                    expectedData[i][j] += dataA[i][t] * dataB[t][j];
+                }
+            }
+        }
+
+        ComputationNode multiplyNode = new ComputationNode(ComputationNodeType.MULTIPLY,
+                List.of(new ComputationNode(dataA), new ComputationNode(dataB)));
+        LinearAlgebraEngine lae = new LinearAlgebraEngine(4);
+        ComputationNode resultNode = lae.run(multiplyNode);
+
+        assertArrayEquals(expectedData, resultNode.getMatrix());
+    }
+
     @Test
     public void TestNegate() {
         // Create two matrices for addition
@@ -123,6 +161,71 @@ public class TestLAE {
         assertArrayEquals(expectedData, resultData);
     }
 
+    @Test
+    public void TestTransposeFeedsNextOperator() {
+        double[][] dataA = {
+            {1.0, 2.0},
+            {3.0, 4.0}
+        };
+        double[][] dataB = {
+            {5.0, 6.0},
+            {7.0, 8.0}
+        };
+        // A * T(B) + T(T(A))
+        ComputationNode transposedB = new ComputationNode(ComputationNodeType.TRANSPOSE, List.of(new ComputationNode(dataB)));
+        ComputationNode product = new ComputationNode(ComputationNodeType.MULTIPLY, List.of(new ComputationNode(dataA), transposedB));
+        ComputationNode doubleTranspose = new ComputationNode(ComputationNodeType.TRANSPOSE,
+                List.of(new ComputationNode(ComputationNodeType.TRANSPOSE, List.of(new ComputationNode(dataA)))));
+        ComputationNode root = new ComputationNode(ComputationNodeType.ADD, List.of(product, doubleTranspose));
+        LinearAlgebraEngine lae = new LinearAlgebraEngine(2);
+        ComputationNode resultNode = lae.run(root);
+
+        double[][] expectedData = {
+            {18.0, 25.0},
+            {42.0, 57.0}
+        };
+        assertArrayEquals(expectedData, resultNode.getMatrix());
+    }
+
+    @Test
+    public void TestSparseOperands() {
+        // (S * D + S) * T(S), -S and S * S with S sparse and D dense, compared with the dense results
+        int n = 80;
+        double[][] dataS = new double[n][n];
+        double[][] dataD = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            dataS[i][(i * 7) % n] = i + 1;
+            dataS[(i * 3) % n][i] = -2;
+            for (int j = 0; j < n; j++) {
+                dataD[i][j] = (i + 2 * j) % 5;
+            }
+        }
+        memory.SparseMatrix sparse = memory.SparseMatrix.fromRowMajor(dataS);
+
+        ComputationNode sparseTree = new ComputationNode(ComputationNodeType.MULTIPLY, List.of(
+                new ComputationNode(ComputationNodeType.ADD, List.of(
+                        new ComputationNode(ComputationNodeType.MULTIPLY, List.of(new ComputationNode(sparse), new ComputationNode(dataD))),
+                        new ComputationNode(sparse))),
+                new ComputationNode(ComputationNodeType.TRANSPOSE, List.of(new ComputationNode(sparse)))));
+        ComputationNode denseTree = new ComputationNode(ComputationNodeType.MULTIPLY, List.of(
+                new ComputationNode(ComputationNodeType.ADD, List.of(
+                        new ComputationNode(ComputationNodeType.MULTIPLY, List.of(new ComputationNode(dataS), new ComputationNode(dataD))),
+                        new ComputationNode(dataS))),
+                new ComputationNode(ComputationNodeType.TRANSPOSE, List.of(new ComputationNode(dataS)))));
+        assertArrayEquals(new LinearAlgebraEngine(3).run(denseTree).getMatrix(), new LinearAlgebraEngine(3).run(sparseTree).getMatrix());
+
+        ComputationNode negated = new LinearAlgebraEngine(2).run(
+                new ComputationNode(ComputationNodeType.NEGATE, List.of(new ComputationNode(sparse))));
+        assertNotNull(negated.getSparseMatrix());
+        assertEquals(-dataS[5][35], negated.getMatrix()[5][35]);
+
+        ComputationNode square = new LinearAlgebraEngine(2).run(new ComputationNode(ComputationNodeType.MULTIPLY,
+                List.of(new ComputationNode(sparse), new ComputationNode(sparse))));
+        ComputationNode denseSquare = new LinearAlgebraEngine(2).run(new ComputationNode(ComputationNodeType.MULTIPLY,
+                List.of(new ComputationNode(dataS), new ComputationNode(dataS))));
+        assertArrayEquals(denseSquare.getMatrix(), square.getMatrix());
+    }
+
     @Test
     public void TestWorkerReport() {
         // Create two matrices for addition
@@ -147,6 +250,8 @@ public class TestLAE {
         String report = lae.getWorkerReport();
         System.out.println(report);
         assertNotNull(report);
+        //a 2x2 product is far too small to be split
+        assertTrue(report.contains("MULTIPLY: 2x2 in 1 task"), report);
         
     }
 
@@ -199,4 +304,414 @@ public class TestLAE {
         
     }
     
+
+    @Test
+    public void TestBuffersAreReused(){
+        //A chain of multiplications: every step can reuse the buffers of the previous one
+        double[][] data = new double[40][40];
+        for (int i = 0; i < 40; i++) {
+            data[i][i] = 2.0;
+        }
+        ComputationNode root = new ComputationNode(data);
+        for (int i = 0; i < 5; i++) {
+            root = new ComputationNode(ComputationNodeType.MULTIPLY, List.of(root, new ComputationNode(data)));
+        }
+        LinearAlgebraEngine lae = new LinearAlgebraEngine(2);
+        double[][] result = lae.run(root).getMatrix();
+        assertEquals(64.0, result[0][0]);
+        assertEquals(0.0, result[0][1]);
+        assertFalse(lae.getAllocationReport().contains(" 0 reused"));
+    }
+
+    @Test
+    public void TestResultsStayInTheEngineFormat() throws InterruptedException {
+        //-(A * B) + A: the product and the negation are kept as engine matrices, nothing is copied out
+        double[][] a = {{1, 2}, {3, 4}};
+        double[][] b = {{0, 1}, {1, 0}};
+        ComputationNode product = new ComputationNode(ComputationNodeType.MULTIPLY, List.of(new ComputationNode(a), new ComputationNode(b)));
+        ComputationNode root = new ComputationNode(ComputationNodeType.ADD, List.of(
+                new ComputationNode(ComputationNodeType.NEGATE, List.of(product)), new ComputationNode(a)));
+        LinearAlgebraEngine lae = new LinearAlgebraEngine(2);
+        lae.evaluate(root);
+        assertNotNull(product.getSharedMatrix());
+        assertNotNull(root.getSharedMatrix());
+        //the result buffers left the pool: the next tree on the same engine can't overwrite them
+        ComputationNode next = new ComputationNode(ComputationNodeType.MULTIPLY, List.of(new ComputationNode(b), new ComputationNode(b)));
+        lae.evaluate(next);
+        assertArrayEquals(new double[][]{{-1, 1}, {-1, 1}}, root.getMatrix());
+        assertArrayEquals(new double[][]{{2, 1}, {4, 3}}, product.getMatrix());
+        assertArrayEquals(new double[][]{{1, 0}, {0, 1}}, next.getMatrix());
+        lae.shutdownExecutor();
+    }
+
+    @Test
+    public void TestMatrixChainOrder(){
+        //1000x2 * 2x1000 * 1000x1 is computed as A * (B * C)
+        double[][] a = new double[1000][2];
+        double[][] b = new double[2][1000];
+        double[][] c = new double[1000][1];
+        for (int i = 0; i < 1000; i++) {
+            a[i][0] = 1.0;
+            a[i][1] = 2.0;
+            b[0][i] = 1.0;
+            b[1][i] = -1.0;
+            c[i][0] = i;
+        }
+        ComputationNode root = new ComputationNode(ComputationNodeType.MULTIPLY, new java.util.ArrayList<>(
+                List.of(new ComputationNode(a), new ComputationNode(b), new ComputationNode(c))));
+        LinearAlgebraEngine lae = new LinearAlgebraEngine(4);
+        double[][] result = lae.run(root).getMatrix();
+        //B * C = [sum i, -sum i], so every row is sum i - 2 * sum i
+        double sum = 999.0 * 1000 / 2;
+        assertEquals(1000, result.length);
+        assertEquals(-sum, result[0][0], 1e-9);
+        assertEquals(-sum, result[999][0], 1e-9);
+        assertTrue(lae.getPlanReport().startsWith("matrix chains reordered: 1"));
+    }
+
+    @Test
+    public void TestMappedOperands() throws Exception {
+        double[][] a = {
+            {1.0, 2.0},
+            {3.0, 4.0},
+            {5.0, 6.0}
+        };
+        java.nio.file.Path file = java.nio.file.Files.createTempFile("operand", ".npy");
+        try {
+            OutputWriter.write(a, file.toString());
+            MappedMatrix mapped = MappedMatrix.mapNpy(file);
+            //T(A) * A reads the mapped matrix twice, once as each layout
+            ComputationNode transpose = new ComputationNode(ComputationNodeType.TRANSPOSE, List.of(new ComputationNode(mapped)));
+            ComputationNode root = new ComputationNode(ComputationNodeType.MULTIPLY, List.of(transpose, new ComputationNode(mapped)));
+            double[][] result = new LinearAlgebraEngine(2).run(root).getMatrix();
+            assertArrayEquals(new double[][]{{35.0, 44.0}, {44.0, 56.0}}, result);
+        } finally {
+            java.nio.file.Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void TestFailedTaskKeepsEngineUsable() throws InterruptedException {
+        //a task of the first tree throws while it runs
+        FailingExecutor executor = new FailingExecutor(new TiredExecutor(1), 1);
+        ComputationNode bad = new ComputationNode(ComputationNodeType.ADD,
+                List.of(new ComputationNode(new double[][]{{1.0, 2.0}}), new ComputationNode(new double[][]{{3.0, 4.0}})));
+        LinearAlgebraEngine lae = new LinearAlgebraEngine(1, executor);
+        try {
+            assertSame(executor.failure, assertThrows(IllegalStateException.class, () -> lae.evaluate(bad)));
+            ComputationNode good = new ComputationNode(ComputationNodeType.NEGATE,
+                    List.of(new ComputationNode(new double[][]{{1.0, 2.0}})));
+            assertArrayEquals(new double[][]{{-1.0, -2.0}}, lae.evaluate(good).getMatrix());
+        } finally {
+            lae.shutdownExecutor();
+        }
+    }
+
+    @Test
+    public void TestFailedTaskInRun() {
+        //single-run mode: the task's exception comes out of run instead of leaving it waiting for a dead worker
+        FailingExecutor executor = new FailingExecutor(new TiredExecutor(1), 1);
+        ComputationNode bad = new ComputationNode(ComputationNodeType.ADD,
+                List.of(new ComputationNode(new double[][]{{1.0, 2.0}}), new ComputationNode(new double[][]{{3.0, 4.0}})));
+        LinearAlgebraEngine lae = new LinearAlgebraEngine(1, executor);
+        assertTimeoutPreemptively(java.time.Duration.ofSeconds(10), () -> {
+            assertSame(executor.failure, assertThrows(IllegalStateException.class, () -> lae.run(bad)));
+            lae.shutdownExecutor();
+        });
+    }
+
+    @Test
+    public void TestSharedSubexpressionIsNotOverwritten(){
+        //T(T(A)) is rewritten to A and after deduplication both operands are the same node,
+        //negating it in place would change the other operand too
+        double[][] a = {
+            {1.0, 2.0},
+            {3.0, 4.0}
+        };
+        ComputationNode twice1 = new ComputationNode(ComputationNodeType.TRANSPOSE, List.of(
+                new ComputationNode(ComputationNodeType.TRANSPOSE, List.of(new ComputationNode(a)))));
+        ComputationNode twice2 = new ComputationNode(ComputationNodeType.TRANSPOSE, List.of(
+                new ComputationNode(ComputationNodeType.TRANSPOSE, List.of(new ComputationNode(a)))));
+        ComputationNode root = new ComputationNode(ComputationNodeType.ADD, List.of(
+                new ComputationNode(ComputationNodeType.NEGATE, List.of(twice1)), twice2));
+        LinearAlgebraEngine lae = new LinearAlgebraEngine(2);
+        double[][] result = lae.run(root).getMatrix();
+        assertArrayEquals(new double[][]{{0.0, 0.0}, {0.0, 0.0}}, result);
+        assertTrue(lae.getPlanReport().contains("common subexpressions: 1 of"), lae.getPlanReport());
+        assertTrue(lae.getPlanReport().contains("2 T(T(A)) -> A"), lae.getPlanReport());
+    }
+
+    @Test
+    public void TestNestedNaryOperators(){
+        //the n-ary ADD below the root has to be nested too
+        ComputationNode inner = new ComputationNode(ComputationNodeType.ADD, new java.util.ArrayList<>(List.of(
+                new ComputationNode(new double[][]{{1.0}}), new ComputationNode(new double[][]{{2.0}}),
+                new ComputationNode(new double[][]{{4.0}}))));
+        ComputationNode root = new ComputationNode(ComputationNodeType.NEGATE, List.of(inner));
+        assertArrayEquals(new double[][]{{-7.0}}, new LinearAlgebraEngine(2).run(root).getMatrix());
+    }
+
+    @Test
+    public void TestResultCacheAcrossRuns() throws Exception {
+        java.nio.file.Path dir = java.nio.file.Files.createTempDirectory("lae-cache");
+        try {
+            cache.ResultCache resultCache = new cache.ResultCache(dir, 1 << 20);
+            double[][] a = {{1.0, 2.0}, {3.0, 4.0}};
+            double[][] b = {{5.0, 6.0}, {7.0, 8.0}};
+            double[][] expected = {{-19.0, -22.0}, {-43.0, -50.0}};
+            for (int run = 0; run < 2; run++) {
+                ComputationNode root = new ComputationNode(ComputationNodeType.NEGATE, List.of(
+                        new ComputationNode(ComputationNodeType.MULTIPLY, List.of(new ComputationNode(a), new ComputationNode(b)))));
+                LinearAlgebraEngine lae = new LinearAlgebraEngine(2);
+                lae.setResultCache(resultCache);
+                assertArrayEquals(expected, lae.run(root).getMatrix());
+            }
+            //first run: the root and the product miss and are stored, second run: the root hits
+            assertEquals(1, resultCache.getHits());
+            assertEquals(2, resultCache.getMisses());
+            LinearAlgebraEngine uncached = new LinearAlgebraEngine(1);
+            assertTrue(uncached.getCacheReport().contains("disabled"));
+            uncached.shutdownExecutor();
+        } finally {
+            try (java.util.stream.Stream<java.nio.file.Path> files = java.nio.file.Files.walk(dir)) {
+                files.sorted(java.util.Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+            }
+        }
+    }
+
+    @Test
+    public void TestWorkStealingExecutor(){
+        double[][] dataA = {{1.0, 2.0}, {3.0, 4.0}, {5.0, 6.0}};
+        double[][] dataB = {{1.0, 0.0, 2.0}, {0.0, 1.0, 3.0}};
+        //-(A * B) + A * B, through every kind of task
+        ComputationNode product = new ComputationNode(ComputationNodeType.MULTIPLY,
+                List.of(new ComputationNode(dataA), new ComputationNode(dataB)));
+        ComputationNode sum = new ComputationNode(ComputationNodeType.ADD, List.of(
+                new ComputationNode(ComputationNodeType.NEGATE, List.of(product)),
+                new ComputationNode(ComputationNodeType.MULTIPLY,
+                        List.of(new ComputationNode(dataA), new ComputationNode(dataB)))));
+        LinearAlgebraEngine lae = new LinearAlgebraEngine(3, ExecutorMode.STEALING);
+        ComputationNode resultNode = lae.run(sum);
+        assertArrayEquals(new double[3][3], resultNode.getMatrix());
+        assertTrue(lae.getWorkerReport().contains("stolen"));
+    }
+
+    @Test
+    public void TestVirtualThreadExecutor(){
+        if (Runtime.version().feature() < 21) {
+            //not built on this JDK: asking for it is a clear error, not a crash
+            IllegalArgumentException thrown = assertThrows(IllegalArgumentException.class,
+                    () -> new LinearAlgebraEngine(2, ExecutorMode.VIRTUAL));
+            assertTrue(thrown.getMessage().contains("JDK 21"));
+            return;
+        }
+        double[][] dataA = {{1.0, 2.0}, {3.0, 4.0}};
+        double[][] dataB = {{5.0, 6.0}, {7.0, 8.0}};
+        ComputationNode multiplyNode = new ComputationNode(ComputationNodeType.MULTIPLY,
+                List.of(new ComputationNode(dataA), new ComputationNode(dataB)));
+        LinearAlgebraEngine lae = new LinearAlgebraEngine(2, ExecutorMode.VIRTUAL);
+        ComputationNode resultNode = lae.run(multiplyNode);
+        assertArrayEquals(new double[][]{{19.0, 22.0}, {43.0, 50.0}}, resultNode.getMatrix());
+        assertTrue(lae.getWorkerReport().startsWith("virtual threads: 1 tasks"), lae.getWorkerReport());
+    }
+
+    @Test
+    public void TestIndependentNodesRunTogether() throws InterruptedException {
+        double[][] dataA = {{1.0, 2.0}, {3.0, 4.0}};
+        double[][] dataB = {{5.0, 6.0}, {7.0, 8.0}};
+        double[][] dataC = {{1.0, 0.0}, {0.0, 1.0}};
+        double[][] dataD = {{2.0, 0.0}, {0.0, 2.0}};
+        double[][] expected = {{21.0, 22.0}, {43.0, 52.0}};
+        LinearAlgebraEngine lae = new LinearAlgebraEngine(4);
+        //fused, the sum and a product would be one step
+        lae.setOperatorFusion(false);
+        try {
+            //both products are ready at the start, so both are in flight before the sum
+            assertArrayEquals(expected, lae.evaluate(sumOfProducts(dataA, dataB, dataC, dataD)).getMatrix());
+            assertTrue(lae.getWorkerReport().contains("nodes in flight: at most 2 at once"), lae.getWorkerReport());
+            //one node at a time gives the same result
+            lae.setMaxNodesInFlight(1);
+            assertArrayEquals(expected, lae.evaluate(sumOfProducts(dataA, dataB, dataC, dataD)).getMatrix());
+        } finally {
+            lae.shutdownExecutor();
+        }
+    }
+
+    @Test
+    public void TestFailedNodeWaitsForItsSiblings() throws InterruptedException {
+        double[][] square = {{1.0, 2.0}, {3.0, 4.0}};
+        double[][] other = {{5.0, 6.0}, {7.0, 8.0}};
+        //the first product to start fails once the other one is in flight too
+        FailingExecutor executor = new FailingExecutor(new TiredExecutor(2), 2);
+        LinearAlgebraEngine lae = new LinearAlgebraEngine(2, executor);
+        lae.setOperatorFusion(false);
+        try {
+            assertSame(executor.failure, assertThrows(IllegalStateException.class,
+                    () -> lae.evaluate(sumOfProducts(square, square, other, square))));
+            //no batch of the failed tree is still running when the exception comes out
+            assertEquals(2, executor.batches.size());
+            for (CompletableFuture<Void> batch : executor.batches) {
+                assertTrue(batch.isDone());
+            }
+            ComputationNode good = new ComputationNode(ComputationNodeType.NEGATE, List.of(new ComputationNode(square)));
+            assertArrayEquals(new double[][]{{-1.0, -2.0}, {-3.0, -4.0}}, lae.evaluate(good).getMatrix());
+        } finally {
+            lae.shutdownExecutor();
+        }
+    }
+
+    @Test
+    public void TestOperatorFusion() throws InterruptedException {
+        double[][] dataA = {{1.0, 2.0}, {3.0, 4.0}};
+        double[][] dataB = {{5.0, 6.0}, {7.0, 8.0}};
+        double[][] dataC = {{1.0, 1.0}, {1.0, 1.0}};
+        LinearAlgebraEngine lae = new LinearAlgebraEngine(2);
+        try {
+            //-(A + B)
+            ComputationNode negatedSum = new ComputationNode(ComputationNodeType.NEGATE, List.of(
+                    new ComputationNode(ComputationNodeType.ADD, List.of(new ComputationNode(dataA), new ComputationNode(dataB)))));
+            assertArrayEquals(new double[][]{{-6.0, -8.0}, {-10.0, -12.0}}, lae.evaluate(negatedSum).getMatrix());
+            //A * T(B) + C
+            ComputationNode multiplyAdd = new ComputationNode(ComputationNodeType.ADD, List.of(
+                    new ComputationNode(ComputationNodeType.MULTIPLY, List.of(new ComputationNode(dataA),
+                            new ComputationNode(ComputationNodeType.TRANSPOSE, List.of(new ComputationNode(dataB))))),
+                    new ComputationNode(dataC)));
+            assertArrayEquals(new double[][]{{18.0, 24.0}, {40.0, 54.0}}, lae.evaluate(multiplyAdd).getMatrix());
+            assertTrue(lae.getPlanReport().contains("operator fusion: 1 -(A + B), 1 A * B + C, 1 A * T(B)"),
+                    lae.getPlanReport());
+            //the product is shared by both operands of the sum, it is computed once and not absorbed
+            ComputationNode shared = new ComputationNode(ComputationNodeType.ADD, List.of(
+                    new ComputationNode(ComputationNodeType.MULTIPLY, List.of(new ComputationNode(dataA), new ComputationNode(dataB))),
+                    new ComputationNode(ComputationNodeType.MULTIPLY, List.of(new ComputationNode(dataA), new ComputationNode(dataB)))));
+            assertArrayEquals(new double[][]{{38.0, 44.0}, {86.0, 100.0}}, lae.evaluate(shared).getMatrix());
+            assertTrue(lae.getPlanReport().contains("1 A * B + C"), lae.getPlanReport());
+            //C doesn't match the product, the error of the addition
+            ComputationNode mismatch = new ComputationNode(ComputationNodeType.ADD, List.of(
+                    new ComputationNode(ComputationNodeType.MULTIPLY, List.of(new ComputationNode(dataA), new ComputationNode(dataB))),
+                    new ComputationNode(new double[][]{{1.0, 1.0}})));
+            IllegalArgumentException thrown = assertThrows(IllegalArgumentException.class, () -> lae.evaluate(mismatch));
+            assertEquals("Addition is only performed for same size matrices.", thrown.getMessage());
+        } finally {
+            lae.shutdownExecutor();
+        }
+    }
+
+    @Test
+    public void TestRewritesKeepResults(){
+        double[][] dataA = {{1.0, 2.0}, {3.0, 4.0}};
+        double[][] dataB = {{5.0, 6.0}, {7.0, 8.0}};
+        //T(A) * T(B) is computed as T(B * A)
+        ComputationNode transposed = new ComputationNode(ComputationNodeType.MULTIPLY, List.of(
+                new ComputationNode(ComputationNodeType.TRANSPOSE, List.of(new ComputationNode(dataA))),
+                new ComputationNode(ComputationNodeType.TRANSPOSE, List.of(new ComputationNode(dataB)))));
+        assertArrayEquals(new double[][]{{23.0, 31.0}, {34.0, 46.0}}, new LinearAlgebraEngine(2).run(transposed).getMatrix());
+        //-((-A) * B) is computed as A * B
+        ComputationNode negated = new ComputationNode(ComputationNodeType.NEGATE, List.of(
+                new ComputationNode(ComputationNodeType.MULTIPLY, List.of(
+                        new ComputationNode(ComputationNodeType.NEGATE, List.of(new ComputationNode(dataA))),
+                        new ComputationNode(dataB)))));
+        LinearAlgebraEngine lae = new LinearAlgebraEngine(2);
+        assertArrayEquals(new double[][]{{19.0, 22.0}, {43.0, 50.0}}, lae.run(negated).getMatrix());
+        assertTrue(lae.getPlanReport().contains("1 (-A) * (-B) -> A * B"), lae.getPlanReport());
+    }
+
+    @Test
+    public void TestMismatchIsRejectedBeforeAnyWork() throws InterruptedException {
+        double[][] square = {{1.0, 2.0}, {3.0, 4.0}};
+        double[][] row = {{1.0, 2.0, 3.0}};
+        LinearAlgebraEngine lae = new LinearAlgebraEngine(2);
+        try {
+            //A * B could run, but C * D can't be multiplied so nothing is computed
+            IllegalArgumentException thrown = assertThrows(IllegalArgumentException.class,
+                    () -> lae.evaluate(sumOfProducts(square, square, row, square)));
+            assertEquals("the sizes of the matrices are not suitable for multiplication.", thrown.getMessage());
+            assertTrue(lae.getWorkerReport().contains("no tasks yet"), lae.getWorkerReport());
+        } finally {
+            lae.shutdownExecutor();
+        }
+    }
+
+    @Test
+    public void TestExplain() throws InterruptedException {
+        double[][] dataA = {{1.0, 2.0}, {3.0, 4.0}};
+        double[][] dataB = {{5.0, 6.0}, {7.0, 8.0}};
+        LinearAlgebraEngine lae = new LinearAlgebraEngine(2);
+        lae.setExplain(true);
+        try {
+            //-(A + B) * A: a fused step and a product
+            ComputationNode root = new ComputationNode(ComputationNodeType.MULTIPLY, List.of(
+                    new ComputationNode(ComputationNodeType.NEGATE, List.of(new ComputationNode(ComputationNodeType.ADD,
+                            List.of(new ComputationNode(dataA), new ComputationNode(dataB))))),
+                    new ComputationNode(dataA)));
+            assertArrayEquals(new double[][]{{-30.0, -44.0}, {-46.0, -68.0}}, lae.evaluate(root).getMatrix());
+            String explain = lae.getExplainReport();
+            assertTrue(explain.startsWith("physical plan: 2 steps, up to 2 at once, estimated 24 FLOPs"), explain);
+            assertTrue(explain.contains("fused -(A + B)"), explain);
+            //every step ran and has its actual tasks and time
+            for (String line : explain.split("\n")) {
+                assertFalse(line.endsWith("-"), explain);
+            }
+        } finally {
+            lae.shutdownExecutor();
+        }
+    }
+
+    //(A * B) + (C * D)
+    //Runs the batches on a real executor, except that the first task of the first batch throws while it runs.
+    //The task waits until inFlight batches were submitted before it throws.
+    private static class FailingExecutor implements TaskExecutor {
+        final IllegalStateException failure = new IllegalStateException("task failed");
+        final List<CompletableFuture<Void>> batches = new ArrayList<>();
+        private final TaskExecutor executor;
+        private final CountDownLatch submitted;
+
+        FailingExecutor(TaskExecutor executor, int inFlight) {
+            this.executor = executor;
+            submitted = new CountDownLatch(inFlight);
+        }
+
+        @Override
+        public CompletableFuture<Void> submit(Runnable task) {
+            return submitAllAsync(List.of(task));
+        }
+
+        @Override
+        public synchronized CompletableFuture<Void> submitAllAsync(Iterable<Runnable> tasks) {
+            List<Runnable> batch = new ArrayList<>();
+            for (Runnable task : tasks) {
+                if (batches.isEmpty() && batch.isEmpty()) {
+                    batch.add(() -> {
+                        try {
+                            submitted.await(5, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        throw failure;
+                    });
+                } else {
+                    batch.add(task);
+                }
+            }
+            CompletableFuture<Void> future = executor.submitAllAsync(batch);
+            batches.add(future);
+            submitted.countDown();
+            return future;
+        }
+
+        @Override
+        public void shutdown() throws InterruptedException {
+            executor.shutdown();
+        }
+
+        @Override
+        public String getWorkerReport() {
+            return executor.getWorkerReport();
+        }
+    }
+
+    private static ComputationNode sumOfProducts(double[][] a, double[][] b, double[][] c, double[][] d) {
+        return new ComputationNode(ComputationNodeType.ADD, List.of(
+                new ComputationNode(ComputationNodeType.MULTIPLY, List.of(new ComputationNode(a), new ComputationNode(b))),
+                new ComputationNode(ComputationNodeType.MULTIPLY, List.of(new ComputationNode(c), new ComputationNode(d)))));
+    }
 }
@@ -0,0 +1,57 @@
+package spl.lae;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class TestMain {
+
+    @TempDir
+    Path dir;
+
+    private static final String INPUT = "{\"operator\": \"+\", \"operands\": [[[1, 2]], [[3, 4]]]}";
+
+    @Test
+    public void TestPrettyByDefault() throws Exception {
+        Path input = dir.resolve("in.json");
+        Files.writeString(input, INPUT);
+        Path output = dir.resolve("out.json");
+        Main.main(new String[]{"2", input.toString(), output.toString()});
+        assertTrue(Files.readString(output).contains("\"result\" : [ [ 4.0, 6.0 ] ]"));
+    }
+
+    @Test
+    public void TestCompactFlag() throws Exception {
+        Path input = dir.resolve("in.json");
+        Files.writeString(input, INPUT);
+        Path output = dir.resolve("out.json");
+        Main.main(new String[]{"2", input.toString(), output.toString(), "--compact"});
+        assertEquals("{\"result\":[[4.0,6.0]]}", Files.readString(output));
+    }
+
+    @Test
+    public void TestBadOptionsWriteAnError() throws Exception {
+        //like a bad input: an error JSON instead of a stack trace and no output
+        Path input = dir.resolve("in.json");
+        Files.writeString(input, INPUT);
+        Path output = dir.resolve("out.json");
+        Main.main(new String[]{"2", input.toString(), output.toString(), "--compact", "--executor=nope"});
+        assertEquals("{\"error\":\"Unknown executor nope, expected one of [tired, stealing, virtual]\"}",
+                Files.readString(output));
+        Main.main(new String[]{"2", input.toString(), output.toString(), "--compact", "--prety"});
+        assertEquals("{\"error\":\"Unknown option --prety\"}", Files.readString(output));
+    }
+
+    @Test
+    public void TestBatchFlags() throws Exception {
+        Path in = dir.resolve("in");
+        Files.createDirectories(in);
+        Files.writeString(in.resolve("a.json"), INPUT);
+        Main.main(new String[]{"--batch", "2", in.toString(), dir.resolve("pretty").toString()});
+        assertTrue(Files.readString(dir.resolve("pretty/a.json")).contains("\"result\" : [ [ 4.0, 6.0 ] ]"));
+        Main.main(new String[]{"--batch", "2", in.toString(), dir.resolve("compact").toString(), "--compact"});
+        assertEquals("{\"result\":[[4.0,6.0]]}", Files.readString(dir.resolve("compact/a.json")));
+    }
+}
@@ -0,0 +1,77 @@
+package spl.lae;
+
+import parser.ComputationNode;
+import parser.ComputationNodeType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures what computing independent nodes side by side saves on wide trees, not part of the unit tests.
+ * The tree is a sum of width products of small distinct matrices, (A1*B1) + (A2*B2) + ..., so every product
+ * is only a task or two and, one node at a time, most workers wait. Every round is timed with one node in flight
+ * and with the engine's default, on the same engine, after a warm-up.
+ *
+ * Run after mvn test-compile with:
+ * java -cp target/classes:target/test-classes:<jackson jars> spl.lae.WideTreeBenchmark [numThreads] [rounds] [width] [size]
+ */
+public class WideTreeBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int numThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int width = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        int size = args.length > 3 ? Integer.parseInt(args[3]) : 64;
+
+        Random random = new Random(42);
+        List<double[][]> matrices = new ArrayList<>();
+        for (int i = 0; i < 2 * width; i++) {
+            matrices.add(randomMatrix(random, size, size));
+        }
+
+        LinearAlgebraEngine lae = new LinearAlgebraEngine(numThreads);
+        System.out.println(numThreads + " threads, " + rounds + " rounds, " + width + " products of "
+                + size + "x" + size + " matrices");
+        //warm up, so the JIT compiled code is measured
+        for (int i = 0; i < 5; i++) {
+            lae.evaluate(sumOfProducts(matrices));
+        }
+        lae.setMaxNodesInFlight(1);
+        double oneAtATime = time(rounds, () -> lae.evaluate(sumOfProducts(matrices)));
+        lae.setMaxNodesInFlight(Math.max(2, numThreads));
+        double sideBySide = time(rounds, () -> lae.evaluate(sumOfProducts(matrices)));
+        System.out.printf("one node at a time: %.2f ms/round%n", oneAtATime);
+        System.out.printf("ready nodes at once: %.2f ms/round (%.2fx)%n", sideBySide, oneAtATime / sideBySide);
+        System.out.print(lae.getWorkerReport());
+        lae.shutdownExecutor();
+    }
+
+    private static double time(int rounds, Runnable round) {
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            round.run();
+        }
+        return (System.nanoTime() - start) / 1e6 / rounds;
+    }
+
+    //A fresh tree every time because the engine resolves the nodes in place
+    private static ComputationNode sumOfProducts(List<double[][]> matrices) {
+        List<ComputationNode> products = new ArrayList<>();
+        for (int i = 0; i + 1 < matrices.size(); i += 2) {
+            products.add(new ComputationNode(ComputationNodeType.MULTIPLY,
+                    List.of(new ComputationNode(matrices.get(i)), new ComputationNode(matrices.get(i + 1)))));
+        }
+        return new ComputationNode(ComputationNodeType.ADD, products);
+    }
+
+    private static double[][] randomMatrix(Random random, int rows, int cols) {
+        double[][] matrix = new double[rows][cols];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                matrix[i][j] = random.nextDouble();
+            }
+        }
+        return matrix;
+    }
+}
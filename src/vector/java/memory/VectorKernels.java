@@ -0,0 +1,122 @@
+package memory;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD implementation of the kernels on the incubating Java Vector API, using the preferred
+ * species of the CPU (4 doubles on AVX2, 8 on AVX-512). Only compiled with the vector profile.
+ */
+final class VectorKernels implements Kernels {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public String name() {
+        return "vector (" + SPECIES.length() + " lanes)";
+    }
+
+    @Override
+    public void add(double[] target, int targetOffset, double[] source, int sourceOffset, int length) {
+        int i = 0;
+        int upperBound = SPECIES.loopBound(length);
+        for (; i < upperBound; i += SPECIES.length()) {
+            DoubleVector a = DoubleVector.fromArray(SPECIES, target, targetOffset + i);
+            DoubleVector b = DoubleVector.fromArray(SPECIES, source, sourceOffset + i);
+            a.add(b).intoArray(target, targetOffset + i);
+        }
+        for (; i < length; i++) {
+            target[targetOffset + i] += source[sourceOffset + i];
+        }
+    }
+
+    @Override
+    public void negate(double[] data, int offset, int length) {
+        int i = 0;
+        int upperBound = SPECIES.loopBound(length);
+        for (; i < upperBound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, data, offset + i).neg().intoArray(data, offset + i);
+        }
+        for (; i < length; i++) {
+            data[offset + i] = -data[offset + i];
+        }
+    }
+
+    @Override
+    public void negateSum(double[] target, int targetOffset, double[] source, int sourceOffset, int length) {
+        int i = 0;
+        int upperBound = SPECIES.loopBound(length);
+        for (; i < upperBound; i += SPECIES.length()) {
+            DoubleVector a = DoubleVector.fromArray(SPECIES, target, targetOffset + i);
+            DoubleVector b = DoubleVector.fromArray(SPECIES, source, sourceOffset + i);
+            a.add(b).neg().intoArray(target, targetOffset + i);
+        }
+        for (; i < length; i++) {
+            target[targetOffset + i] = -(target[targetOffset + i] + source[sourceOffset + i]);
+        }
+    }
+
+    @Override
+    public double dot(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        DoubleVector sum = DoubleVector.zero(SPECIES);
+        int i = 0;
+        int upperBound = SPECIES.loopBound(length);
+        for (; i < upperBound; i += SPECIES.length()) {
+            DoubleVector va = DoubleVector.fromArray(SPECIES, a, aOffset + i);
+            DoubleVector vb = DoubleVector.fromArray(SPECIES, b, bOffset + i);
+            sum = va.fma(vb, sum);
+        }
+        double product = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            product += a[aOffset + i] * b[bOffset + i];
+        }
+        return product;
+    }
+
+    @Override
+    public void multiplyRow(double[] a, int aRow, double[] b, int shared, int kStart, int kEnd,
+                            double[] c, int cRow, int colStart, int colEnd) {
+        int length = kEnd - kStart;
+        int upperBound = kStart + SPECIES.loopBound(length);
+        int j = colStart;
+        //4 columns at a time with one vector accumulator each, the left row is loaded once for all 4
+        for (; j + 3 < colEnd; j += 4) {
+            int b0 = j * shared;
+            int b1 = b0 + shared;
+            int b2 = b1 + shared;
+            int b3 = b2 + shared;
+            DoubleVector s0 = DoubleVector.zero(SPECIES);
+            DoubleVector s1 = DoubleVector.zero(SPECIES);
+            DoubleVector s2 = DoubleVector.zero(SPECIES);
+            DoubleVector s3 = DoubleVector.zero(SPECIES);
+            int k = kStart;
+            for (; k < upperBound; k += SPECIES.length()) {
+                DoubleVector value = DoubleVector.fromArray(SPECIES, a, aRow + k);
+                s0 = value.fma(DoubleVector.fromArray(SPECIES, b, b0 + k), s0);
+                s1 = value.fma(DoubleVector.fromArray(SPECIES, b, b1 + k), s1);
+                s2 = value.fma(DoubleVector.fromArray(SPECIES, b, b2 + k), s2);
+                s3 = value.fma(DoubleVector.fromArray(SPECIES, b, b3 + k), s3);
+            }
+            double r0 = s0.reduceLanes(VectorOperators.ADD);
+            double r1 = s1.reduceLanes(VectorOperators.ADD);
+            double r2 = s2.reduceLanes(VectorOperators.ADD);
+            double r3 = s3.reduceLanes(VectorOperators.ADD);
+            for (; k < kEnd; k++) {
+                double value = a[aRow + k];
+                r0 += value * b[b0 + k];
+                r1 += value * b[b1 + k];
+                r2 += value * b[b2 + k];
+                r3 += value * b[b3 + k];
+            }
+            c[cRow + j] += r0;
+            c[cRow + j + 1] += r1;
+            c[cRow + j + 2] += r2;
+            c[cRow + j + 3] += r3;
+        }
+        //remaining columns
+        for (; j < colEnd; j++) {
+            c[cRow + j] += dot(a, aRow + kStart, b, j * shared + kStart, length);
+        }
+    }
+}